@@ -0,0 +1,132 @@
+package de.elmar_baumann.whl.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Reproducible benchmark data: wordbooks and texts generated from fixed seeds.
+ * <p>
+ * Wordbook words consist of the letters <code>a</code> to <code>m</code>,
+ * filler words of the text of the letters <code>n</code> to <code>z</code>,
+ * so that the match density of a text is exactly the requested fraction of its
+ * words. Every second wordbook word in a text is capitalized, hence without
+ * ignoring the case only half of them match.
+ *
+ * @author Elmar Baumann
+ */
+public final class BenchmarkData {
+
+    public static final long WORDBOOK_SEED = 20130501L;
+    public static final long TEXT_SEED = 20130502L;
+    private static final int MIN_WORD_LENGTH = 3;
+    private static final int MAX_WORD_LENGTH = 12;
+    private static final int WORDS_PER_LINE = 12;
+
+    /**
+     * Creates lowercase wordbook words.
+     *
+     * @param  count count of distinct words
+     * @return       words in generation order
+     */
+    public static List<String> createWords(int count) {
+        Random random = new Random(WORDBOOK_SEED);
+        Set<String> words = new HashSet<String>(count * 2);
+        List<String> orderedWords = new ArrayList<String>(count);
+
+        while (orderedWords.size() < count) {
+            String word = createWord(random, 'a', 'm');
+
+            if (words.add(word)) {
+                orderedWords.add(word);
+            }
+        }
+
+        return orderedWords;
+    }
+
+    /**
+     * Creates a text.
+     *
+     * @param  length  length of the text in characters
+     * @param  words   wordbook words
+     * @param  density fraction of the text's words taken from the wordbook,
+     *                 0.0 to 1.0
+     * @return         text with lines separated by <code>'\n'</code>
+     */
+    public static String createText(int length, List<String> words, double density) {
+        Random random = new Random(TEXT_SEED);
+        StringBuilder sb = new StringBuilder(length + MAX_WORD_LENGTH + 1);
+        int wordIndex = 0;
+
+        while (sb.length() < length) {
+            if (random.nextDouble() < density) {
+                String word = words.get(random.nextInt(words.size()));
+
+                sb.append(wordIndex % 2 == 0
+                          ? word
+                          : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+            } else {
+                sb.append(createWord(random, 'n', 'z'));
+            }
+
+            wordIndex++;
+            sb.append(wordIndex % WORDS_PER_LINE == 0
+                      ? "\n"
+                      : random.nextInt(8) == 0
+                        ? ", "
+                        : " ");
+        }
+
+        sb.setLength(length);
+
+        return sb.toString();
+    }
+
+    private static String createWord(Random random, char firstChar, char lastChar) {
+        int length = MIN_WORD_LENGTH + random.nextInt(MAX_WORD_LENGTH - MIN_WORD_LENGTH + 1);
+        char[] chars = new char[length];
+
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (firstChar + random.nextInt(lastChar - firstChar + 1));
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Writes lines into a temporary UTF-8 file deleted on exit.
+     *
+     * @param  lines lines
+     * @return       file
+     * @throws IOException on write errors
+     */
+    public static File writeTempFile(Iterable<String> lines) throws IOException {
+        File file = File.createTempFile("whl-benchmark", ".txt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+        file.deleteOnExit();
+
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+
+        return file;
+    }
+
+    private BenchmarkData() {
+    }
+}
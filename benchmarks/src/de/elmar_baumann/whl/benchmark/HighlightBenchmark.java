@@ -0,0 +1,89 @@
+package de.elmar_baumann.whl.benchmark;
+
+import de.elmar_baumann.whl.TextHighlighter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JTextArea;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Highlighting a whole document and the incremental highlighting of document
+ * edits through {@link TextHighlighter#insertUpdate(javax.swing.event.DocumentEvent)}
+ * and {@link TextHighlighter#removeUpdate(javax.swing.event.DocumentEvent)}.
+ * <p>
+ * The highlighter runs synchronously in the benchmark thread, each edit is
+ * undone within the same invocation, so that every invocation starts with the
+ * same document.
+ *
+ * @author Elmar Baumann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "-Djava.awt.headless=true"})
+public class HighlightBenchmark {
+
+    private static final int PASTE_LENGTH = 4096;
+    @Param({"65536", "1048576", "16777216"})
+    private int docSize;
+    @Param({"1000", "100000"})
+    private int wordbookSize;
+    @Param({"0.01", "0.2"})
+    private double density;
+    @Param({"true", "false"})
+    private boolean ignoreCase;
+    private TextHighlighter highlighter;
+    private Document doc;
+    private String paste;
+    private int editOffset;
+
+    @Setup
+    public void setup() throws BadLocationException {
+        List<String> words = BenchmarkData.createWords(wordbookSize);
+        JTextArea textArea = new JTextArea();
+
+        doc = textArea.getDocument();
+        doc.insertString(0, BenchmarkData.createText(docSize, words, density), null);
+        highlighter = ignoreCase
+                      ? new TextHighlighter(textArea, TextHighlighter.Option.IGNORE_CASE)
+                      : new TextHighlighter(textArea);
+        highlighter.setHighlightWords(new HashSet<String>(words), TextHighlighter.Convert.TO_LOWERCASE);
+        paste = BenchmarkData.createText(PASTE_LENGTH, words, density);
+        editOffset = docSize / 2;
+    }
+
+    @Benchmark
+    public void highlight() {
+        highlighter.highlight();
+    }
+
+    @Benchmark
+    public void typeCharacter() throws BadLocationException {
+        doc.insertString(editOffset, "a", null);
+        doc.remove(editOffset, 1);
+    }
+
+    @Benchmark
+    public void pasteText() throws BadLocationException {
+        doc.insertString(editOffset, paste, null);
+        doc.remove(editOffset, PASTE_LENGTH);
+    }
+}
@@ -0,0 +1,76 @@
+package de.elmar_baumann.whl.benchmark;
+
+import de.elmar_baumann.whl.ParallelMatcher;
+import de.elmar_baumann.whl.Spans;
+import de.elmar_baumann.whl.TextHighlighter;
+import de.elmar_baumann.whl.WordMatcher;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching a text with the {@link WordMatcher}, sequential and parallel,
+ * without a document or highlighter.
+ *
+ * @author Elmar Baumann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "-Djava.awt.headless=true"})
+public class MatchBenchmark {
+
+    @Param({"65536", "1048576", "16777216"})
+    private int docSize;
+    @Param({"1000", "100000"})
+    private int wordbookSize;
+    @Param({"0.01", "0.2"})
+    private double density;
+    @Param({"true", "false"})
+    private boolean ignoreCase;
+    private WordMatcher matcher;
+    private char[] text;
+
+    @Setup
+    public void setup() {
+        List<String> words = BenchmarkData.createWords(wordbookSize);
+
+        matcher = TextHighlighter.createMatcher(new HashSet<String>(words), TextHighlighter.Convert.TO_LOWERCASE,
+                                                ignoreCase);
+        text = BenchmarkData.createText(docSize, words, density).toCharArray();
+    }
+
+    @Benchmark
+    public Spans match() {
+        Spans matches = new Spans();
+
+        matcher.match(text, 0, text.length, ignoreCase, 0, matches);
+
+        return matches;
+    }
+
+    @Benchmark
+    public Spans matchParallel() throws InterruptedException {
+        return ParallelMatcher.match(matcher, text, 0, text.length, ignoreCase, 0);
+    }
+
+    @Benchmark
+    public WordMatcher createMatcher() {
+        return new WordMatcher(BenchmarkData.createWords(wordbookSize));
+    }
+}
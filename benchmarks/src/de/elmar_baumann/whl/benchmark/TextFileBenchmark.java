@@ -0,0 +1,69 @@
+package de.elmar_baumann.whl.benchmark;
+
+import de.elmar_baumann.whl.MappedTextDocument;
+import de.elmar_baumann.whl.TextFileLoader;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.Document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading a text file into a document as the background task of
+ * {@link de.elmar_baumann.whl.WordHighlighterPanel#readTextFile(File)} does,
+ * without its progress monitor and Event Dispatch Thread hand-off.
+ *
+ * @author Elmar Baumann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "-Djava.awt.headless=true"})
+public class TextFileBenchmark {
+
+    @Param({"1048576", "16777216", "134217728"})
+    private int docSize;
+    @Param({"0.2"})
+    private double density;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        String text = BenchmarkData.createText(docSize, BenchmarkData.createWords(1000), density);
+
+        file = BenchmarkData.writeTempFile(Collections.singletonList(text));
+    }
+
+    @Benchmark
+    public Document load() throws IOException {
+        return new TextFileLoader().load(file, null);
+    }
+
+    @Benchmark
+    public int loadMapped() throws IOException {
+        MappedTextDocument doc = new MappedTextDocument(file, null);
+
+        try {
+            return doc.getLength();
+        } finally {
+            doc.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package de.elmar_baumann.whl.benchmark;
+
+import de.elmar_baumann.whl.LowerCaseTextConverter;
+import de.elmar_baumann.whl.TextfileWordbook;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading a wordbook with {@link TextfileWordbook#read(File)} as the
+ * application does, converting the words to lowercase, and with
+ * {@link TextfileWordbook#read(File, int)} by a given count of threads.
+ *
+ * @author Elmar Baumann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class WordbookBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int wordbookSize;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = BenchmarkData.writeTempFile(BenchmarkData.createWords(wordbookSize));
+    }
+
+    @Benchmark
+    public TextfileWordbook read() throws IOException {
+        TextfileWordbook wordbook = new TextfileWordbook();
+
+        wordbook.addConverter(new LowerCaseTextConverter());
+        wordbook.read(file);
+
+        return wordbook;
+    }
+
+    @Benchmark
+    public TextfileWordbook readThreads(Threads threads) throws IOException {
+        TextfileWordbook wordbook = new TextfileWordbook();
+
+        wordbook.addConverter(new LowerCaseTextConverter());
+        wordbook.read(file, threads.threadCount);
+
+        return wordbook;
+    }
+
+    /**
+     * Thread counts of {@link #readThreads(Threads)}, within an own state so
+     * that {@link #read()} isn't measured once per thread count.
+     */
+    @State(Scope.Benchmark)
+    public static class Threads {
+
+        @Param({"1", "2", "4"})
+        private int threadCount;
+    }
+}
@@ -0,0 +1,463 @@
+package de.elmar_baumann.whl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Highlights text files without a user interface, e.g. for preprocessing
+ * documents on a server. The files are processed in parallel, words are
+ * matched with the same rules as {@link TextHighlighter} with the option
+ * {@link TextHighlighter.Option#IGNORE_CASE}. With <code>-substrings</code>
+ * words are also matched within words of the text as with the option
+ * {@link TextHighlighter.Option#SUBSTRINGS}. With <code>-prefilter</code>
+ * the words are matched with a Bloom filter of their prefixes as with the
+ * option {@link TextHighlighter.Option#PREFILTER}. With <code>-stem en</code>
+ * or <code>-stem de</code> the words of the wordbook and of the text are
+ * stemmed by the {@link EnglishStemmer} or the {@link GermanStemmer} as with
+ * {@link TextHighlighter#setStemmer(Stemmer)}.
+ * <p>
+ * Usage:
+ * <pre>
+ * -wordbook &lt;file&gt; [-casesensitive] [-substrings] [-prefilter] [-stem en|de] [-threads &lt;count&gt;]
+ *     [-format json|html|ansi] [-output &lt;directory&gt;]
+ *     &lt;file or directory&gt; ...
+ * </pre>
+ * The wordbook may be a text or a {@link CompiledWordbook}. Directories are
+ * processed recursively. Without an output directory the results are
+ * written to the standard output.
+ *
+ * @author Elmar Baumann
+ */
+public final class BatchHighlighter {
+
+    private static final String ANSI_HIGHLIGHT = "\u001B[30;43m";
+    private static final String ANSI_RESET = "\u001B[0m";
+    private final TextMatcher matcher;
+    private final boolean ignoreCase;
+    private final Format format;
+    private final File outputDir;
+    private final PrintStream out;
+
+    public enum Format {
+
+        /**
+         * One JSON object per found word.
+         */
+        JSON(".jsonl"),
+
+        /**
+         * HTML page with found words within <code>&lt;mark&gt;</code> tags.
+         */
+        HTML(".html"),
+
+        /**
+         * Text with found words colored by ANSI escape sequences.
+         */
+        ANSI(".txt");
+
+        private final String fileSuffix;
+
+        private Format(String fileSuffix) {
+            this.fileSuffix = fileSuffix;
+        }
+    }
+
+    /**
+     * Creates a batch highlighter.
+     *
+     * @param matcher    matcher, e.g. created by
+     *                   {@link TextHighlighter#createMatcher(java.util.Set, TextHighlighter.Convert, boolean)}
+     *                   or a {@link SubstringMatcher}
+     * @param ignoreCase true, if the case of the text shall be ignored
+     * @param format     output format
+     * @param outputDir  directory for the output files or null, if the output
+     *                   shall be written to <code>out</code>
+     * @param out        output, if <code>outputDir</code> is null
+     */
+    public BatchHighlighter(TextMatcher matcher, boolean ignoreCase, Format format, File outputDir,
+            PrintStream out) {
+        if (matcher == null) {
+            throw new NullPointerException("matcher == null");
+        }
+
+        if (format == null) {
+            throw new NullPointerException("format == null");
+        }
+
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+
+        this.matcher = matcher;
+        this.ignoreCase = ignoreCase;
+        this.format = format;
+        this.outputDir = outputDir;
+        this.out = out;
+    }
+
+    /**
+     * Highlights files in parallel.
+     *
+     * @param inputs      files or directories
+     * @param threadCount count of threads
+     * @return            count of files which couldn't be processed
+     * @throws InterruptedException if interrupted while waiting for the
+     *                              threads
+     */
+    public int highlight(List<File> inputs, int threadCount) throws InterruptedException {
+        if (inputs == null) {
+            throw new NullPointerException("inputs == null");
+        }
+
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        int errorCount = 0;
+
+        try {
+            for (File input : inputs) {
+                File baseDir = input.isDirectory() ? input : input.getAbsoluteFile().getParentFile();
+
+                for (File file : collectFiles(input)) {
+                    futures.add(executor.submit(new Task(file, baseDir)));
+                }
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(BatchHighlighter.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                    errorCount++;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return errorCount;
+    }
+
+    private static List<File> collectFiles(File input) {
+        List<File> files = new ArrayList<File>();
+
+        if (input.isDirectory()) {
+            File[] children = input.listFiles();
+
+            if (children != null) {
+                Arrays.sort(children);
+
+                for (File child : children) {
+                    files.addAll(collectFiles(child));
+                }
+            }
+        } else {
+            files.add(input);
+        }
+
+        return files;
+    }
+
+    private class Task implements Runnable {
+
+        private final File file;
+        private final File baseDir;
+
+        private Task(File file, File baseDir) {
+            this.file = file;
+            this.baseDir = baseDir;
+        }
+
+        @Override
+        public void run() {
+            try {
+                HighlightMetrics metrics = HighlightMetrics.getInstance();
+                long startNanos = System.nanoTime();
+                char[] text = readText(file);
+
+                metrics.fileLoaded(System.nanoTime() - startNanos, file.length());
+
+                Spans matches = new Spans();
+
+                startNanos = System.nanoTime();
+                matcher.match(text, 0, text.length, ignoreCase, 0, matches);
+                metrics.passFinished(System.nanoTime() - startNanos, text.length, matches.size());
+
+                if (outputDir == null) {
+                    StringWriter writer = new StringWriter();
+
+                    write(text, matches, writer);
+
+                    synchronized (out) {
+                        out.print(writer.toString());
+                        out.flush();
+                    }
+                } else {
+                    writeToOutputDir(text, matches);
+                }
+            } catch (IOException ex) {
+                throw new IllegalStateException("Error processing " + file, ex);
+            }
+        }
+
+        private void writeToOutputDir(char[] text, Spans matches) throws IOException {
+            String relativePath = baseDir.getAbsoluteFile().toURI().relativize(
+                    file.getAbsoluteFile().toURI()).getPath();
+            File outputFile = new File(outputDir, relativePath + format.fileSuffix);
+            File parent = outputFile.getParentFile();
+
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Can't create directory " + parent);
+            }
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(outputFile), Properties.TEXT_ENCODING));
+
+            try {
+                write(text, matches, writer);
+            } finally {
+                writer.close();
+            }
+        }
+
+        private void write(char[] text, Spans matches, Writer writer) throws IOException {
+            switch (format) {
+            case JSON :
+                writeJson(text, matches, writer);
+                break;
+            case HTML :
+                writeHtml(text, matches, writer);
+                break;
+            case ANSI :
+                writeAnsi(text, matches, writer);
+                break;
+            default :
+                throw new IllegalStateException("Unknown format: " + format);
+            }
+        }
+
+        private void writeJson(char[] text, Spans matches, Writer writer) throws IOException {
+            String path = escapeJson(file.getPath());
+
+            for (int i = 0; i < matches.size(); i++) {
+                int start = matches.getStart(i);
+                int end = matches.getEnd(i);
+
+                writer.write("{\"file\":\"" + path + "\",\"start\":" + start + ",\"end\":" + end
+                        + ",\"text\":\"" + escapeJson(new String(text, start, end - start)) + "\"}\n");
+            }
+        }
+
+        private void writeHtml(char[] text, Spans matches, Writer writer) throws IOException {
+            writer.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"" + Properties.TEXT_ENCODING
+                    + "\">\n<title>" + escapeHtml(file.getName()) + "</title>\n</head>\n<body>\n<pre>");
+            writeMarked(text, matches, writer, "<mark>", "</mark>", true);
+            writer.write("</pre>\n</body>\n</html>\n");
+        }
+
+        private void writeAnsi(char[] text, Spans matches, Writer writer) throws IOException {
+            writeMarked(text, matches, writer, ANSI_HIGHLIGHT, ANSI_RESET, false);
+        }
+    }
+
+    private static char[] readText(File file) throws IOException {
+        CharBuffer chars = Charset.forName(Properties.TEXT_ENCODING).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+
+        return Arrays.copyOfRange(chars.array(), chars.arrayOffset(), chars.arrayOffset() + chars.remaining());
+    }
+
+    /**
+     * Writes the text, enclosing found words with markers. Words starting at
+     * the same offset, e.g. "the" and "theology", are merged into one marked
+     * range.
+     */
+    private static void writeMarked(char[] text, Spans matches, Writer writer, String startMarker,
+            String endMarker, boolean html) throws IOException {
+        int pos = 0;
+        int i = 0;
+
+        while (i < matches.size()) {
+            int start = matches.getStart(i);
+            int end = matches.getEnd(i);
+
+            for (i++; i < matches.size() && matches.getStart(i) < end; i++) {
+                end = Math.max(end, matches.getEnd(i));
+            }
+
+            writeText(text, pos, start, writer, html);
+            writer.write(startMarker);
+            writeText(text, start, end, writer, html);
+            writer.write(endMarker);
+            pos = end;
+        }
+
+        writeText(text, pos, text.length, writer, html);
+    }
+
+    private static void writeText(char[] text, int start, int end, Writer writer, boolean html)
+            throws IOException {
+        if (html) {
+            writer.write(escapeHtml(new String(text, start, end - start)));
+        } else {
+            writer.write(text, start, end - start);
+        }
+    }
+
+    private static String escapeHtml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String escapeJson(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Runs the batch highlighter with command line arguments.
+     *
+     * @param args arguments, see class description
+     * @return     exit code: 0 on success, 1 on invalid arguments, 2 if files
+     *             couldn't be processed
+     */
+    public static int run(String[] args) {
+        File wordbook = null;
+        File outputDir = null;
+        boolean ignoreCase = true;
+        boolean substrings = false;
+        boolean prefilter = false;
+        Stemmer stemmer = null;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        Format format = Format.JSON;
+        List<File> inputs = new ArrayList<File>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+
+                if ("-wordbook".equals(arg)) {
+                    wordbook = new File(getValue(args, ++i));
+                } else if ("-casesensitive".equals(arg)) {
+                    ignoreCase = false;
+                } else if ("-substrings".equals(arg)) {
+                    substrings = true;
+                } else if ("-prefilter".equals(arg)) {
+                    prefilter = true;
+                } else if ("-stem".equals(arg)) {
+                    stemmer = getStemmer(getValue(args, ++i));
+                } else if ("-threads".equals(arg)) {
+                    threadCount = Integer.parseInt(getValue(args, ++i));
+                } else if ("-format".equals(arg)) {
+                    format = Format.valueOf(getValue(args, ++i).toUpperCase(Locale.ENGLISH));
+                } else if ("-output".equals(arg)) {
+                    outputDir = new File(getValue(args, ++i));
+                } else if (arg.startsWith("-")) {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                } else {
+                    inputs.add(new File(arg));
+                }
+            }
+
+            if (wordbook == null || inputs.isEmpty() || threadCount < 1) {
+                throw new IllegalArgumentException("Wordbook, input or thread count missing");
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            printUsage();
+
+            return 1;
+        }
+
+        try {
+            WordMatcher wordMatcher = WordbookCache.getDefault().readMatcher(wordbook, ignoreCase);
+
+            if (stemmer != null) {
+                wordMatcher = wordMatcher.convert(new StemmingTextConverter(stemmer));
+            }
+
+            if (prefilter) {
+                wordMatcher = wordMatcher.withPrefixFilter();
+            }
+
+            TextMatcher matcher = substrings
+                                  ? new SubstringMatcher(wordMatcher)
+                                  : wordMatcher;
+
+            if (stemmer != null) {
+                matcher = new StemmingMatcher(matcher, stemmer);
+            }
+            BatchHighlighter highlighter = new BatchHighlighter(matcher, ignoreCase, format, outputDir,
+                    System.out);
+
+            return highlighter.highlight(inputs, threadCount) == 0 ? 0 : 2;
+        } catch (Exception ex) {
+            Logger.getLogger(BatchHighlighter.class.getName()).log(Level.SEVERE, null, ex);
+
+            return 2;
+        }
+    }
+
+    private static Stemmer getStemmer(String language) {
+        if ("en".equals(language)) {
+            return new EnglishStemmer();
+        } else if ("de".equals(language)) {
+            return new GermanStemmer();
+        }
+
+        throw new IllegalArgumentException("Unknown stemmer language: " + language);
+    }
+
+    private static String getValue(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value of option " + args[index - 1]);
+        }
+
+        return args[index];
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: -wordbook <file> [-casesensitive] [-substrings] [-prefilter] [-stem en|de]"
+                + " [-threads <count>] [-format json|html|ansi] [-output <directory>] <file or directory> ...");
+    }
+}
@@ -0,0 +1,139 @@
+package de.elmar_baumann.whl;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Locale independent full case folding of the Basic Multilingual Plane from
+ * precomputed tables.
+ * <p>
+ * A character is folded to the lowercase of its uppercase, e.g.
+ * <code>'&szlig;'</code> to <code>"ss"</code>, <code>'&#x03C2;'</code>
+ * (final sigma) to <code>'&#x03C3;'</code> and <code>'&#x0130;'</code>
+ * (capital I with dot above) to <code>"i&#x0307;"</code>. The Turkish dotless
+ * <code>'&#x0131;'</code> is not folded to <code>'i'</code>, so that
+ * <code>'I'</code> and <code>'&#x0131;'</code> remain different as by the
+ * Unicode case folding.
+ * <p>
+ * Folding a single character doesn't allocate memory.
+ *
+ * @author Elmar Baumann
+ */
+public final class CaseFolding {
+
+    private static final char DOTLESS_I = '\u0131';
+    private static final char EXPANDS = '\uFFFF';    // Noncharacter
+    private static final char[] FOLDED = new char[Character.MAX_VALUE + 1];
+    private static final char[] EXPANDING_CHARS;
+    private static final char[][] EXPANSIONS;
+
+    static {
+        char[] expandingChars = new char[64];
+        char[][] expansions = new char[64][];
+        int expansionCount = 0;
+
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            FOLDED[c] = (char) c;
+
+            if (c == DOTLESS_I || c == EXPANDS || Character.isSurrogate((char) c)) {
+                continue;
+            }
+
+            String folded = String.valueOf((char) c).toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+
+            if (folded.length() == 1) {
+                FOLDED[c] = folded.charAt(0);
+            } else {
+                if (expansionCount == expandingChars.length) {
+                    expandingChars = Arrays.copyOf(expandingChars, expansionCount * 2);
+                    expansions = Arrays.copyOf(expansions, expansionCount * 2);
+                }
+
+                FOLDED[c] = EXPANDS;
+                expandingChars[expansionCount] = (char) c;
+                expansions[expansionCount] = folded.toCharArray();
+                expansionCount++;
+            }
+        }
+
+        EXPANDING_CHARS = Arrays.copyOf(expandingChars, expansionCount);
+        EXPANSIONS = Arrays.copyOf(expansions, expansionCount);
+    }
+
+    /**
+     * Returns the folded character of a character not folded to multiple
+     * characters.
+     *
+     * @param  c character
+     * @return   folded character or <code>c</code> itself if it will be
+     *           expanded, see {@link #getExpansion(char)}
+     */
+    public static char fold(char c) {
+        char folded = FOLDED[c];
+
+        return folded == EXPANDS
+               ? c
+               : folded;
+    }
+
+    /**
+     * Returns the characters of a character folded to multiple characters.
+     *
+     * @param  c character
+     * @return   folded characters or null, if the character is folded to a
+     *           single character. The array must not be modified.
+     */
+    public static char[] getExpansion(char c) {
+        if (FOLDED[c] != EXPANDS) {
+            return null;
+        }
+
+        int index = Arrays.binarySearch(EXPANDING_CHARS, c);
+
+        return index < 0
+               ? null
+               : EXPANSIONS[index];
+    }
+
+    /**
+     * Folds a string.
+     *
+     * @param  s string
+     * @return   folded string
+     */
+    public static String fold(String s) {
+        if (s == null) {
+            throw new NullPointerException("s == null");
+        }
+
+        StringBuilder sb = null;
+        int length = s.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            char folded = FOLDED[c];
+
+            if (sb == null && folded != c) {
+                sb = new StringBuilder(length + 4);
+                sb.append(s, 0, i);
+            }
+
+            if (sb != null) {
+                char[] expansion = getExpansion(c);
+
+                if (expansion == null) {
+                    sb.append(fold(c));
+                } else {
+                    sb.append(expansion);
+                }
+            }
+        }
+
+        return sb == null
+               ? s
+               : sb.toString();
+    }
+
+    private CaseFolding() {
+    }
+}
@@ -0,0 +1,14 @@
+package de.elmar_baumann.whl;
+
+/**
+ * Folds the case of a text, see {@link CaseFolding}.
+ *
+ * @author Elmar Baumann
+ */
+public final class CaseFoldingTextConverter implements TextConverter {
+
+    @Override
+    public String convert(String text) {
+        return CaseFolding.fold(text);
+    }
+}
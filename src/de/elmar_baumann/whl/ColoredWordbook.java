@@ -0,0 +1,69 @@
+package de.elmar_baumann.whl;
+
+import java.awt.Color;
+import java.io.File;
+
+/**
+ * Loaded wordbook with the color of its highlights.
+ *
+ * @author Elmar Baumann
+ */
+public final class ColoredWordbook {
+
+    private static final Color[] DEFAULT_COLORS = {
+        Color.YELLOW, new Color(144, 238, 144), new Color(173, 216, 230), new Color(255, 182, 193),
+        new Color(255, 200, 0), new Color(221, 160, 221), Color.CYAN, Color.LIGHT_GRAY,
+    };
+    private final File file;
+    private final Color color;
+    private final WordMatcher matcher;
+
+    public ColoredWordbook(File file, Color color, WordMatcher matcher) {
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+
+        if (color == null) {
+            throw new NullPointerException("color == null");
+        }
+
+        if (matcher == null) {
+            throw new NullPointerException("matcher == null");
+        }
+
+        this.file = file;
+        this.color = color;
+        this.matcher = matcher;
+    }
+
+    /**
+     * Returns a default color for a wordbook, e.g. for a new wordbook.
+     *
+     * @param  index index of the wordbook
+     * @return       color, the colors repeat after a few wordbooks
+     */
+    public static Color getDefaultColor(int index) {
+        return DEFAULT_COLORS[index % DEFAULT_COLORS.length];
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public WordMatcher getMatcher() {
+        return matcher;
+    }
+
+    public ColoredWordbook withColor(Color newColor) {
+        return new ColoredWordbook(file, newColor, matcher);
+    }
+
+    @Override
+    public String toString() {
+        return file.getName() + " (" + matcher.getWordCount() + " W)";
+    }
+}
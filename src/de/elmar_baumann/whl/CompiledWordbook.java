@@ -0,0 +1,437 @@
+package de.elmar_baumann.whl;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Wordbook compiled into a binary file containing the arrays of a
+ * {@link WordMatcher}, so that it can be used without parsing and converting
+ * the words of a {@link TextfileWordbook}.
+ * <p>
+ * The file is memory-mapped and its matcher is queried in place. Text
+ * wordbooks remain the source, compile them with {@link #compile(File, File,
+ * boolean)} or from the command line:
+ * <pre>
+ * -compile &lt;text wordbook&gt; &lt;compiled wordbook&gt; [-casesensitive]
+ * </pre>
+ * File format, little endian: magic number, version, flags, word count, node
+ * count, edge count as <code>int</code>s followed by the arrays first edges
+ * (<code>int</code>, node count + 1), edge targets (<code>int</code>), edge
+ * characters (<code>char</code>) and words (<code>byte</code>, node count).
+ * If the wordbook contains patterns, they follow with their count and per
+ * pattern its wordbook index, its length and its characters.
+ *
+ * @author Elmar Baumann
+ */
+public final class CompiledWordbook {
+
+    /**
+     * Suggested file name suffix of compiled wordbooks.
+     */
+    public static final String FILENAME_SUFFIX = ".whlwb";
+    private static final int MAGIC = 0x57484C57;    // "WHLW"
+    private static final int VERSION = 4;
+    private static final int FLAG_CASE_FOLDED = 1;
+    private static final int FLAG_PHRASES = 2;
+    private static final int FLAG_PATTERNS = 4;
+    private static final int HEADER_SIZE = 6 * 4;
+    private final WordMatcher matcher;
+    private final boolean caseFolded;
+
+    private CompiledWordbook(WordMatcher matcher, boolean caseFolded) {
+        this.matcher = matcher;
+        this.caseFolded = caseFolded;
+    }
+
+    /**
+     * Returns the matcher of the words, valid as long as the file exists.
+     *
+     * @return matcher
+     */
+    public WordMatcher getMatcher() {
+        return matcher;
+    }
+
+    /**
+     * Returns whether the words have been case folded while compiling, as
+     * required for matching with ignored case.
+     *
+     * @return true if the words are case folded
+     */
+    public boolean isCaseFolded() {
+        return caseFolded;
+    }
+
+    /**
+     * Returns whether a file is a compiled wordbook.
+     *
+     * @param  file file
+     * @return      true, if the file starts with the magic number of compiled
+     *              wordbooks
+     */
+    public static boolean isCompiledWordbook(File file) {
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+
+            return Integer.reverseBytes(in.readInt()) == MAGIC;
+        } catch (IOException ex) {
+            return false;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Memory-maps a compiled wordbook.
+     *
+     * @param  file compiled wordbook
+     * @return      wordbook
+     * @throws IOException if the file couldn't be read or is not a compiled
+     *                     wordbook of this version
+     */
+    public static CompiledWordbook read(File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+
+        long startNanos = System.nanoTime();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a compiled wordbook");
+        }
+
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file + ": Unsupported version " + buffer.getInt(4));
+        }
+
+        int flags = buffer.getInt(8);
+        int wordCount = buffer.getInt(12);
+        int nodeCount = buffer.getInt(16);
+        int edgeCount = buffer.getInt(20);
+        long size = HEADER_SIZE + 4L * (nodeCount + 1) + 4L * edgeCount + 2L * edgeCount + nodeCount;
+
+        if (nodeCount < 1 || edgeCount < 0 || size > buffer.limit()
+                || (flags & FLAG_PATTERNS) == 0 && size != buffer.limit()) {
+            throw new IOException(file + " is corrupted");
+        }
+
+        int offset = HEADER_SIZE;
+        IntBuffer firstEdges = slice(buffer, offset, 4 * (nodeCount + 1)).asIntBuffer();
+
+        offset += 4 * (nodeCount + 1);
+
+        IntBuffer edgeTargets = slice(buffer, offset, 4 * edgeCount).asIntBuffer();
+
+        offset += 4 * edgeCount;
+
+        ByteBuffer edgeChars = slice(buffer, offset, 2 * edgeCount);
+
+        offset += 2 * edgeCount;
+
+        ByteBuffer words = slice(buffer, offset, nodeCount);
+
+        offset += nodeCount;
+
+        try {
+            PatternAutomaton patterns = (flags & FLAG_PATTERNS) == 0
+                                        ? null
+                                        : readPatterns(slice(buffer, offset, buffer.limit() - offset));
+            WordMatcher matcher = new WordMatcher(firstEdges, edgeChars.asCharBuffer(), edgeTargets, words,
+                                                  wordCount, (flags & FLAG_PHRASES) != 0, patterns);
+
+            HighlightMetrics.getInstance().wordbookLoaded(System.nanoTime() - startNanos, wordCount);
+
+            return new CompiledWordbook(matcher, (flags & FLAG_CASE_FOLDED) != 0);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(file + " is corrupted", ex);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException(file + " is corrupted", ex);
+        }
+    }
+
+    private static PatternAutomaton readPatterns(ByteBuffer buffer) {
+        int count = buffer.getInt();
+
+        if (count < 0 || count > buffer.remaining() / 8) {
+            throw new IllegalArgumentException("Invalid pattern count " + count);
+        }
+
+        String[] patterns = new String[count];
+        int[] wordbookIndices = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            wordbookIndices[i] = buffer.getInt();
+
+            int length = buffer.getInt();
+
+            if (length < 0 || 2L * length > buffer.remaining()) {
+                throw new IllegalArgumentException("Invalid pattern length " + length);
+            }
+
+            char[] chars = new char[length];
+
+            buffer.asCharBuffer().get(chars);
+            buffer.position(buffer.position() + 2 * chars.length);
+            patterns[i] = new String(chars);
+        }
+
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException("Data after the patterns");
+        }
+
+        return new PatternAutomaton(patterns, wordbookIndices, false);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer dup = buffer.duplicate();
+
+        dup.position(offset);
+        dup.limit(offset + length);
+
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes a matcher as compiled wordbook.
+     *
+     * @param  matcher    matcher
+     * @param  caseFolded true, if the words of the matcher are case folded
+     * @param  file       file
+     * @throws IOException on write errors
+     */
+    public static void write(WordMatcher matcher, boolean caseFolded, File file) throws IOException {
+        if (matcher == null) {
+            throw new NullPointerException("matcher == null");
+        }
+
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+
+        IntBuffer firstEdges = matcher.getFirstEdges();
+        IntBuffer edgeTargets = matcher.getEdgeTargets();
+        int nodeCount = firstEdges.limit() - 1;
+        int edgeCount = edgeTargets.limit();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer arrays = ByteBuffer.allocate(4 * (nodeCount + 1) + 6 * edgeCount).order(ByteOrder.LITTLE_ENDIAN);
+
+        int flags = (caseFolded ? FLAG_CASE_FOLDED : 0) | (matcher.hasPhrases() ? FLAG_PHRASES : 0)
+                    | (matcher.hasPatterns() ? FLAG_PATTERNS : 0);
+
+        header.putInt(MAGIC).putInt(VERSION).putInt(flags);
+        header.putInt(matcher.getWordCount()).putInt(nodeCount).putInt(edgeCount);
+        header.flip();
+        arrays.asIntBuffer().put(firstEdges).put(edgeTargets);
+        arrays.position(4 * (nodeCount + 1 + edgeCount));
+        arrays.asCharBuffer().put(matcher.getEdgeChars());
+        arrays.position(0);
+
+        FileOutputStream out = new FileOutputStream(file);
+
+        try {
+            FileChannel channel = out.getChannel();
+
+            writeFully(channel, header);
+            writeFully(channel, arrays);
+            writeFully(channel, matcher.getWords());
+
+            if (matcher.hasPatterns()) {
+                writeFully(channel, toBuffer(matcher.getPatterns()));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static ByteBuffer toBuffer(PatternAutomaton patterns) {
+        int size = 4;
+
+        for (int i = 0; i < patterns.getPatternCount(); i++) {
+            size += 8 + 2 * patterns.getPattern(i).length();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(patterns.getPatternCount());
+
+        for (int i = 0; i < patterns.getPatternCount(); i++) {
+            String pattern = patterns.getPattern(i);
+
+            buffer.putInt(patterns.getWordbookIndex(i)).putInt(pattern.length());
+
+            for (int j = 0; j < pattern.length(); j++) {
+                buffer.putChar(pattern.charAt(j));
+            }
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Compiles a text wordbook.
+     *
+     * @param  textWordbook text wordbook, see {@link TextfileWordbook}
+     * @param  file         compiled wordbook to write
+     * @param  caseFolded   true, if the words shall be case folded for
+     *                      matching with ignored case
+     * @return              compiled matcher
+     * @throws IOException on read or write errors
+     */
+    public static WordMatcher compile(File textWordbook, File file, boolean caseFolded) throws IOException {
+        if (textWordbook == null) {
+            throw new NullPointerException("textWordbook == null");
+        }
+
+        WordMatcher matcher = readTextWordbook(textWordbook, caseFolded);
+
+        write(matcher, caseFolded, file);
+
+        return matcher;
+    }
+
+    /**
+     * Reads the matcher of a compiled or text wordbook.
+     *
+     * @param  wordbook   compiled wordbook or text wordbook
+     * @param  ignoreCase true, if the matcher will be used with ignored case.
+     *                    Compiled wordbooks have to be compiled case folded in
+     *                    that case.
+     * @return            matcher
+     * @throws IOException if the wordbook couldn't be read or a compiled
+     *                     wordbook is not case folded while ignoring the case
+     */
+    public static WordMatcher readMatcher(File wordbook, boolean ignoreCase) throws IOException {
+        if (wordbook == null) {
+            throw new NullPointerException("wordbook == null");
+        }
+
+        if (isCompiledWordbook(wordbook)) {
+            CompiledWordbook cwb = read(wordbook);
+
+            if (ignoreCase && !cwb.isCaseFolded()) {
+                throw new IOException(wordbook + " has been compiled case sensitive");
+            }
+
+            return cwb.getMatcher();
+        }
+
+        return readTextWordbook(wordbook, ignoreCase);
+    }
+
+    /**
+     * Reads the matcher of a text wordbook.
+     *
+     * @param  textWordbook text wordbook
+     * @param  ignoreCase   true, if the matcher will be used with ignored case
+     * @return              matcher
+     * @throws IOException if the wordbook couldn't be read or contains
+     *                     invalid patterns
+     */
+    static WordMatcher readTextWordbook(File textWordbook, boolean ignoreCase) throws IOException {
+        TextfileWordbook tfwb = new TextfileWordbook();
+
+        tfwb.read(textWordbook);
+
+        try {
+            return TextHighlighter.createMatcher(tfwb.getWords(), TextHighlighter.Convert.TO_LOWERCASE, ignoreCase);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(textWordbook + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Compiles a text wordbook with command line arguments.
+     *
+     * @param args arguments, see class description
+     * @return     exit code: 0 on success, 1 on invalid arguments, 2 if the
+     *             wordbook couldn't be compiled
+     */
+    public static int run(String[] args) {
+        boolean caseFolded = true;
+        File textWordbook = null;
+        File file = null;
+
+        for (int i = 1; i < args.length; i++) {
+            if ("-casesensitive".equals(args[i])) {
+                caseFolded = false;
+            } else if (textWordbook == null) {
+                textWordbook = new File(args[i]);
+            } else if (file == null) {
+                file = new File(args[i]);
+            } else {
+                textWordbook = null;
+                break;
+            }
+        }
+
+        if (textWordbook == null || file == null) {
+            System.err.println("Usage: -compile <text wordbook> <compiled wordbook> [-casesensitive]");
+
+            return 1;
+        }
+
+        try {
+            WordMatcher matcher = compile(textWordbook, file, caseFolded);
+
+            System.out.println(file + ": " + matcher.getWordCount() + " words");
+
+            return 0;
+        } catch (Exception ex) {
+            Logger.getLogger(CompiledWordbook.class.getName()).log(Level.SEVERE, null, ex);
+
+            return 2;
+        }
+    }
+
+    private static void close(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                Logger.getLogger(CompiledWordbook.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package de.elmar_baumann.whl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stems English words by the Porter2 algorithm of the Snowball project, e.g.
+ * <code>"connected"</code>, <code>"connecting"</code> and
+ * <code>"connections"</code> to <code>"connect"</code>.
+ * <p>
+ * Only lowercase letters are recognized as vowels and suffixes, words with
+ * uppercase letters have to be case folded to be stemmed completely.
+ *
+ * @author Elmar Baumann
+ */
+public final class EnglishStemmer implements Stemmer {
+
+    private static final String VOWELS = "aeiouy";
+    private static final String DOUBLES = "bdfgmnprt";
+    private static final String LI_ENDINGS = "cdeghkmnrt";
+    private static final String[] REGION_PREFIXES = {"gener", "commun", "arsen",};
+    private static final String[] STEP_1A_SUFFIXES = {"sses", "ied", "ies", "us", "ss", "s",};
+    private static final String[] STEP_1B_SUFFIXES = {"eed", "eedly", "ed", "edly", "ing", "ingly",};
+    private static final String[][] STEP_2_SUFFIXES = {
+        {"tional", "tion"}, {"enci", "ence"}, {"anci", "ance"}, {"abli", "able"}, {"entli", "ent"},
+        {"izer", "ize"}, {"ization", "ize"}, {"ational", "ate"}, {"ation", "ate"}, {"ator", "ate"},
+        {"alism", "al"}, {"aliti", "al"}, {"alli", "al"}, {"fulness", "ful"}, {"ousli", "ous"},
+        {"ousness", "ous"}, {"iveness", "ive"}, {"iviti", "ive"}, {"biliti", "ble"}, {"bli", "ble"},
+        {"ogi", "og"}, {"fulli", "ful"}, {"lessli", "less"}, {"li", ""},
+    };
+    private static final String[][] STEP_3_SUFFIXES = {
+        {"tional", "tion"}, {"ational", "ate"}, {"alize", "al"}, {"icate", "ic"}, {"iciti", "ic"},
+        {"ical", "ic"}, {"ful", ""}, {"ness", ""}, {"ative", ""},
+    };
+    private static final String[] STEP_4_SUFFIXES = {
+        "al", "ance", "ence", "er", "ic", "able", "ible", "ant", "ement", "ment", "ent", "ism", "ate",
+        "iti", "ous", "ive", "ize", "ion",
+    };
+    private static final Map<String, String> EXCEPTIONS = new HashMap<String, String>();
+    private static final Set<String> STEP_1A_EXCEPTIONS = new HashSet<String>(Arrays.asList(
+            "inning", "outing", "canning", "herring", "earring", "proceed", "exceed", "succeed"));
+
+    static {
+        String[] exceptions = {
+            "skis", "ski", "skies", "sky", "dying", "die", "lying", "lie", "tying", "tie", "idly", "idl",
+            "gently", "gentl", "ugly", "ugli", "early", "earli", "only", "onli", "singly", "singl",
+            "sky", "sky", "news", "news", "howe", "howe", "atlas", "atlas", "cosmos", "cosmos",
+            "bias", "bias", "andes", "andes",
+        };
+
+        for (int i = 0; i < exceptions.length; i += 2) {
+            EXCEPTIONS.put(exceptions[i], exceptions[i + 1]);
+        }
+    }
+
+    @Override
+    public String stem(String word) {
+        if (word == null) {
+            throw new NullPointerException("word == null");
+        }
+
+        if (word.length() <= 2) {
+            return word;
+        }
+
+        String exception = EXCEPTIONS.get(word);
+
+        if (exception != null) {
+            return exception;
+        }
+
+        StringBuilder w = new StringBuilder(word);
+
+        markConsonantY(w);
+
+        int r1 = getR1(w);
+        int r2 = getRegion(w, r1);
+
+        step1a(w);
+
+        if (!STEP_1A_EXCEPTIONS.contains(w.toString())) {
+            step1b(w, r1);
+            step1c(w);
+            step2(w, r1);
+            step3(w, r1, r2);
+            step4(w, r2);
+            step5(w, r1, r2);
+        }
+
+        for (int i = 0; i < w.length(); i++) {
+            if (w.charAt(i) == 'Y') {
+                w.setCharAt(i, 'y');
+            }
+        }
+
+        return w.toString();
+    }
+
+    /**
+     * Marks an initial <code>'y'</code> and each <code>'y'</code> after a
+     * vowel as consonant <code>'Y'</code>.
+     */
+    private static void markConsonantY(StringBuilder w) {
+        for (int i = 0; i < w.length(); i++) {
+            if (w.charAt(i) == 'y' && (i == 0 || isVowel(w.charAt(i - 1)))) {
+                w.setCharAt(i, 'Y');
+            }
+        }
+    }
+
+    private static int getR1(StringBuilder w) {
+        for (String prefix : REGION_PREFIXES) {
+            if (w.indexOf(prefix) == 0) {
+                return prefix.length();
+            }
+        }
+
+        return getRegion(w, 0);
+    }
+
+    /**
+     * Returns the start of the region after the first non-vowel following a
+     * vowel, the length of the word if there is no such region.
+     */
+    private static int getRegion(StringBuilder w, int start) {
+        for (int i = start + 1; i < w.length(); i++) {
+            if (!isVowel(w.charAt(i)) && isVowel(w.charAt(i - 1))) {
+                return i + 1;
+            }
+        }
+
+        return w.length();
+    }
+
+    private static void step1a(StringBuilder w) {
+        String suffix = getLongestSuffix(w, STEP_1A_SUFFIXES);
+
+        if (suffix == null) {
+            return;
+        }
+
+        int start = w.length() - suffix.length();
+
+        switch (suffix) {
+        case "sses":
+            w.setLength(start + 2);
+            break;
+
+        case "ied":
+        case "ies":
+            w.replace(start, w.length(), start > 1 ? "i" : "ie");
+            break;
+
+        case "s":
+            // A vowel not immediately before the s
+            if (containsVowel(w, 0, start - 1)) {
+                w.setLength(start);
+            }
+            break;
+
+        default:
+            break;
+        }
+    }
+
+    private static void step1b(StringBuilder w, int r1) {
+        String suffix = getLongestSuffix(w, STEP_1B_SUFFIXES);
+
+        if (suffix == null) {
+            return;
+        }
+
+        int start = w.length() - suffix.length();
+
+        if (suffix.startsWith("eed")) {
+            if (start >= r1) {
+                w.replace(start, w.length(), "ee");
+            }
+
+            return;
+        }
+
+        if (!containsVowel(w, 0, start)) {
+            return;
+        }
+
+        w.setLength(start);
+
+        if (endsWith(w, "at") || endsWith(w, "bl") || endsWith(w, "iz")) {
+            w.append('e');
+        } else if (endsWithDouble(w)) {
+            w.setLength(start - 1);
+        } else if (start == r1 && endsWithShortSyllable(w, start)) {
+            w.append('e');
+        }
+    }
+
+    private static void step1c(StringBuilder w) {
+        int last = w.length() - 1;
+        char c = w.charAt(last);
+
+        if ((c == 'y' || c == 'Y') && last > 1 && !isVowel(w.charAt(last - 1))) {
+            w.setCharAt(last, 'i');
+        }
+    }
+
+    private static void step2(StringBuilder w, int r1) {
+        String[] suffix = getLongestSuffix(w, STEP_2_SUFFIXES);
+
+        if (suffix == null) {
+            return;
+        }
+
+        int start = w.length() - suffix[0].length();
+
+        if (start < r1
+                || suffix[0].equals("ogi") && (start == 0 || w.charAt(start - 1) != 'l')
+                || suffix[0].equals("li") && (start == 0 || LI_ENDINGS.indexOf(w.charAt(start - 1)) < 0)) {
+            return;
+        }
+
+        w.replace(start, w.length(), suffix[1]);
+    }
+
+    private static void step3(StringBuilder w, int r1, int r2) {
+        String[] suffix = getLongestSuffix(w, STEP_3_SUFFIXES);
+
+        if (suffix == null) {
+            return;
+        }
+
+        int start = w.length() - suffix[0].length();
+
+        if (start < r1 || suffix[0].equals("ative") && start < r2) {
+            return;
+        }
+
+        w.replace(start, w.length(), suffix[1]);
+    }
+
+    private static void step4(StringBuilder w, int r2) {
+        String suffix = getLongestSuffix(w, STEP_4_SUFFIXES);
+
+        if (suffix == null) {
+            return;
+        }
+
+        int start = w.length() - suffix.length();
+
+        if (start < r2
+                || suffix.equals("ion") && (start == 0 || w.charAt(start - 1) != 's' && w.charAt(start - 1) != 't')) {
+            return;
+        }
+
+        w.setLength(start);
+    }
+
+    private static void step5(StringBuilder w, int r1, int r2) {
+        int last = w.length() - 1;
+        char c = w.charAt(last);
+
+        if (c == 'e' && (last >= r2 || last >= r1 && !endsWithShortSyllable(w, last))
+                || c == 'l' && last >= r2 && last > 0 && w.charAt(last - 1) == 'l') {
+            w.setLength(last);
+        }
+    }
+
+    /**
+     * Returns whether the characters before an index end with a vowel
+     * followed by a non-vowel other than <code>'w'</code>, <code>'x'</code>
+     * and <code>'Y'</code> and preceded by a non-vowel, or with a vowel at the
+     * beginning of the word followed by a non-vowel.
+     */
+    private static boolean endsWithShortSyllable(StringBuilder w, int end) {
+        if (end == 2) {
+            return isVowel(w.charAt(0)) && !isVowel(w.charAt(1));
+        }
+
+        if (end < 3) {
+            return false;
+        }
+
+        char c = w.charAt(end - 1);
+
+        return !isVowel(w.charAt(end - 3)) && isVowel(w.charAt(end - 2))
+               && !isVowel(c) && c != 'w' && c != 'x' && c != 'Y';
+    }
+
+    private static boolean endsWithDouble(StringBuilder w) {
+        int length = w.length();
+
+        return length >= 2 && w.charAt(length - 1) == w.charAt(length - 2)
+               && DOUBLES.indexOf(w.charAt(length - 1)) >= 0;
+    }
+
+    private static boolean containsVowel(StringBuilder w, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (isVowel(w.charAt(i))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isVowel(char c) {
+        return VOWELS.indexOf(c) >= 0;
+    }
+
+    private static boolean endsWith(StringBuilder w, String suffix) {
+        int start = w.length() - suffix.length();
+
+        return start >= 0 && w.indexOf(suffix, start) == start;
+    }
+
+    private static String getLongestSuffix(StringBuilder w, String[] suffixes) {
+        String longest = null;
+
+        for (String suffix : suffixes) {
+            if (endsWith(w, suffix) && (longest == null || suffix.length() > longest.length())) {
+                longest = suffix;
+            }
+        }
+
+        return longest;
+    }
+
+    private static String[] getLongestSuffix(StringBuilder w, String[][] suffixes) {
+        String[] longest = null;
+
+        for (String[] suffix : suffixes) {
+            if (endsWith(w, suffix[0]) && (longest == null || suffix[0].length() > longest[0].length())) {
+                longest = suffix;
+            }
+        }
+
+        return longest;
+    }
+}
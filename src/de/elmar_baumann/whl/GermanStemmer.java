@@ -0,0 +1,243 @@
+package de.elmar_baumann.whl;
+
+/**
+ * Stems German words by the German algorithm of the Snowball project, e.g.
+ * <code>"verbindungen"</code> and <code>"verbinden"</code> to
+ * <code>"verbind"</code>. Umlauts are replaced by their base vowels and
+ * <code>'&szlig;'</code> by <code>"ss"</code>, e.g. <code>"h&auml;user"</code>
+ * is stemmed to <code>"haus"</code>.
+ * <p>
+ * Only lowercase letters are recognized as vowels and suffixes, words with
+ * uppercase letters have to be case folded to be stemmed completely.
+ *
+ * @author Elmar Baumann
+ */
+public final class GermanStemmer implements Stemmer {
+
+    private static final String VOWELS = "aeiouy\u00e4\u00f6\u00fc";
+    private static final String S_ENDINGS = "bdfghklmnrt";
+    private static final String ST_ENDINGS = "bdfghklmnt";
+    private static final String[] STEP_1_SUFFIXES = {"em", "ern", "er", "e", "en", "es", "s",};
+    private static final String[] STEP_2_SUFFIXES = {"en", "er", "est", "st",};
+    private static final String[] STEP_3_SUFFIXES = {"end", "ung", "ig", "ik", "isch", "lich", "heit", "keit",};
+
+    @Override
+    public String stem(String word) {
+        if (word == null) {
+            throw new NullPointerException("word == null");
+        }
+
+        StringBuilder w = new StringBuilder(word.length() + 4);
+
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+
+            if (c == '\u00df') {
+                w.append("ss");
+            } else {
+                w.append(c);
+            }
+        }
+
+        markConsonants(w);
+
+        int r1 = Math.max(3, getRegion(w, 0));
+        int r2 = getRegion(w, r1);
+
+        step1(w, r1);
+        step2(w, r1);
+        step3(w, r1, r2);
+
+        for (int i = 0; i < w.length(); i++) {
+            w.setCharAt(i, getBaseVowel(w.charAt(i)));
+        }
+
+        return w.toString();
+    }
+
+    /**
+     * Marks <code>'u'</code> and <code>'y'</code> between vowels as
+     * consonants <code>'U'</code> and <code>'Y'</code>.
+     */
+    private static void markConsonants(StringBuilder w) {
+        for (int i = 1; i < w.length() - 1; i++) {
+            char c = w.charAt(i);
+
+            if ((c == 'u' || c == 'y') && isVowel(w.charAt(i - 1)) && isVowel(w.charAt(i + 1))) {
+                w.setCharAt(i, Character.toUpperCase(c));
+            }
+        }
+    }
+
+    private static char getBaseVowel(char c) {
+        switch (c) {
+        case 'U':
+        case '\u00fc':
+            return 'u';
+
+        case 'Y':
+            return 'y';
+
+        case '\u00e4':
+            return 'a';
+
+        case '\u00f6':
+            return 'o';
+
+        default:
+            return c;
+        }
+    }
+
+    /**
+     * Returns the start of the region after the first non-vowel following a
+     * vowel, the length of the word if there is no such region.
+     */
+    private static int getRegion(StringBuilder w, int start) {
+        for (int i = start + 1; i < w.length(); i++) {
+            if (!isVowel(w.charAt(i)) && isVowel(w.charAt(i - 1))) {
+                return i + 1;
+            }
+        }
+
+        return w.length();
+    }
+
+    private static void step1(StringBuilder w, int r1) {
+        String suffix = getLongestSuffix(w, STEP_1_SUFFIXES);
+
+        if (suffix == null) {
+            return;
+        }
+
+        int start = w.length() - suffix.length();
+
+        if (start < r1) {
+            return;
+        }
+
+        switch (suffix) {
+        case "e":
+        case "en":
+        case "es":
+            w.setLength(start);
+
+            if (endsWith(w, "niss")) {
+                w.setLength(start - 1);
+            }
+            break;
+
+        case "s":
+            if (start > 0 && S_ENDINGS.indexOf(w.charAt(start - 1)) >= 0) {
+                w.setLength(start);
+            }
+            break;
+
+        default:
+            w.setLength(start);
+            break;
+        }
+    }
+
+    private static void step2(StringBuilder w, int r1) {
+        String suffix = getLongestSuffix(w, STEP_2_SUFFIXES);
+
+        if (suffix == null) {
+            return;
+        }
+
+        int start = w.length() - suffix.length();
+
+        // The ending before "st" has to be preceded by at least 3 letters
+        if (start >= r1
+                && (!suffix.equals("st") || start >= 4 && ST_ENDINGS.indexOf(w.charAt(start - 1)) >= 0)) {
+            w.setLength(start);
+        }
+    }
+
+    private static void step3(StringBuilder w, int r1, int r2) {
+        String suffix = getLongestSuffix(w, STEP_3_SUFFIXES);
+
+        if (suffix == null) {
+            return;
+        }
+
+        int start = w.length() - suffix.length();
+
+        if (start < r2) {
+            return;
+        }
+
+        switch (suffix) {
+        case "end":
+        case "ung":
+            w.setLength(start);
+            removeSuffix(w, "ig", r2, true);
+            break;
+
+        case "ig":
+        case "ik":
+        case "isch":
+            if (start == 0 || w.charAt(start - 1) != 'e') {
+                w.setLength(start);
+            }
+            break;
+
+        case "lich":
+        case "heit":
+            w.setLength(start);
+
+            if (!removeSuffix(w, "er", r1, false)) {
+                removeSuffix(w, "en", r1, false);
+            }
+            break;
+
+        default:
+            w.setLength(start);
+
+            if (!removeSuffix(w, "lich", r2, false)) {
+                removeSuffix(w, "ig", r2, false);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Removes a suffix starting within a region.
+     *
+     * @return true if the suffix has been removed
+     */
+    private static boolean removeSuffix(StringBuilder w, String suffix, int region, boolean notAfterE) {
+        int start = w.length() - suffix.length();
+
+        if (start < region || !endsWith(w, suffix) || notAfterE && start > 0 && w.charAt(start - 1) == 'e') {
+            return false;
+        }
+
+        w.setLength(start);
+
+        return true;
+    }
+
+    private static boolean isVowel(char c) {
+        return VOWELS.indexOf(c) >= 0;
+    }
+
+    private static boolean endsWith(StringBuilder w, String suffix) {
+        int start = w.length() - suffix.length();
+
+        return start >= 0 && w.indexOf(suffix, start) == start;
+    }
+
+    private static String getLongestSuffix(StringBuilder w, String[] suffixes) {
+        String longest = null;
+
+        for (String suffix : suffixes) {
+            if (endsWith(w, suffix) && (longest == null || suffix.length() > longest.length())) {
+                longest = suffix;
+            }
+        }
+
+        return longest;
+    }
+}
@@ -0,0 +1,21 @@
+package de.elmar_baumann.whl;
+
+/**
+ * @author Elmar Baumann
+ */
+public interface HighlightListener {
+
+    /**
+     * Called after highlights of a {@link TextHighlighter} have been added or
+     * removed or entries have been counted, e.g. to update counts of the
+     * highlighted words. Called on the thread changing the highlights,
+     * usually the Event Dispatch Thread, and as often as ranges of the text
+     * are highlighted.
+     *
+     * @param keys keys of the entries whose counts may have been changed, see
+     *             {@link WordMatcher#getKey(String)}, or null, if the counts
+     *             of all entries may have been changed, e.g. after other
+     *             words have been set. Must not be modified.
+     */
+    public void highlightsChanged(int[] keys);
+}
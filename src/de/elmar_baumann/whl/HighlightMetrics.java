@@ -0,0 +1,225 @@
+package de.elmar_baumann.whl;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of highlighting, wordbook loading and text
+ * file loading, shared by all highlighters.
+ * <p>
+ * {@link #register()} exposes the metrics as MBean named
+ * <code>de.elmar_baumann.whl:type=HighlightMetrics</code>. If the system
+ * property <code>de.elmar_baumann.whl.metrics.logSeconds</code> is set to a
+ * positive count of seconds, a summary is logged periodically in that
+ * interval.
+ *
+ * @author Elmar Baumann
+ */
+public final class HighlightMetrics implements HighlightMetricsMBean {
+
+    public static final String OBJECT_NAME = "de.elmar_baumann.whl:type=HighlightMetrics";
+    public static final String LOG_SECONDS_PROPERTY = "de.elmar_baumann.whl.metrics.logSeconds";
+    private static final HighlightMetrics INSTANCE = new HighlightMetrics();
+    private static final double NANOS_PER_MILLI = 1000000.0;
+    private final AtomicBoolean registered = new AtomicBoolean();
+    private final LatencyHistogram passDurations = new LatencyHistogram();
+    private final AtomicLong charactersScanned = new AtomicLong();
+    private final AtomicLong matchesAdded = new AtomicLong();
+    private final LatencyHistogram wordbookLoadTimes = new LatencyHistogram();
+    private final AtomicLong wordsLoaded = new AtomicLong();
+    private final LatencyHistogram fileLoadTimes = new LatencyHistogram();
+    private final AtomicLong bytesLoaded = new AtomicLong();
+
+    public static HighlightMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics within the platform MBean server and starts the
+     * periodic log summary, if configured. Further calls are ignored.
+     */
+    public static void register() {
+        if (!INSTANCE.registered.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException ex) {
+            Logger.getLogger(HighlightMetrics.class.getName()).log(Level.WARNING, null, ex);
+        }
+
+        long logSeconds = Long.getLong(LOG_SECONDS_PROPERTY, 0);
+
+        if (logSeconds > 0) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "WordHighlighter: Metrics summary");
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+
+            executor.scheduleAtFixedRate(new Runnable() {
+
+                @Override
+                public void run() {
+                    Logger.getLogger(HighlightMetrics.class.getName()).log(Level.INFO, INSTANCE.getSummary());
+                }
+            }, logSeconds, logSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Records a highlight pass.
+     *
+     * @param nanos      duration in nanoseconds
+     * @param characters count of scanned characters
+     * @param matches    count of found words
+     */
+    public void passFinished(long nanos, int characters, int matches) {
+        passDurations.record(nanos);
+        charactersScanned.addAndGet(characters);
+        matchesAdded.addAndGet(matches);
+    }
+
+    /**
+     * Records loading a wordbook.
+     *
+     * @param nanos duration in nanoseconds
+     * @param words count of loaded words
+     */
+    public void wordbookLoaded(long nanos, int words) {
+        wordbookLoadTimes.record(nanos);
+        wordsLoaded.addAndGet(words);
+    }
+
+    /**
+     * Records loading a text file.
+     *
+     * @param nanos duration in nanoseconds
+     * @param bytes size of the file
+     */
+    public void fileLoaded(long nanos, long bytes) {
+        fileLoadTimes.record(nanos);
+        bytesLoaded.addAndGet(bytes);
+    }
+
+    @Override
+    public long getPassCount() {
+        return passDurations.getCount();
+    }
+
+    @Override
+    public double getPassDurationMeanMillis() {
+        return passDurations.getMeanNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPassDurationP50Millis() {
+        return passDurations.getPercentileNanos(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPassDurationP99Millis() {
+        return passDurations.getPercentileNanos(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPassDurationMaxMillis() {
+        return passDurations.getMaxNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getCharactersScanned() {
+        return charactersScanned.get();
+    }
+
+    @Override
+    public long getMatchesAdded() {
+        return matchesAdded.get();
+    }
+
+    @Override
+    public long getWordbookLoadCount() {
+        return wordbookLoadTimes.getCount();
+    }
+
+    @Override
+    public double getWordbookLoadTimeMeanMillis() {
+        return wordbookLoadTimes.getMeanNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getWordbookLoadTimeMaxMillis() {
+        return wordbookLoadTimes.getMaxNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getWordsLoaded() {
+        return wordsLoaded.get();
+    }
+
+    @Override
+    public long getFileLoadCount() {
+        return fileLoadTimes.getCount();
+    }
+
+    @Override
+    public long getBytesLoaded() {
+        return bytesLoaded.get();
+    }
+
+    @Override
+    public double getFileLoadThroughputMegabytesPerSecond() {
+        long nanos = fileLoadTimes.getTotalNanos();
+
+        return nanos == 0
+               ? 0
+               : bytesLoaded.get() / (1024.0 * 1024.0) / (nanos / 1000000000.0);
+    }
+
+    @Override
+    public String getSummary() {
+        return String.format(Locale.ROOT,
+                "Passes: %d (mean %.2f ms, p50 %.2f ms, p99 %.2f ms, max %.2f ms), characters: %d, matches: %d;"
+                + " wordbooks: %d (mean %.2f ms, max %.2f ms), words: %d; files: %d, bytes: %d (%.1f MB/s)",
+                getPassCount(), getPassDurationMeanMillis(), getPassDurationP50Millis(),
+                getPassDurationP99Millis(), getPassDurationMaxMillis(), getCharactersScanned(), getMatchesAdded(),
+                getWordbookLoadCount(), getWordbookLoadTimeMeanMillis(), getWordbookLoadTimeMaxMillis(),
+                getWordsLoaded(), getFileLoadCount(), getBytesLoaded(), getFileLoadThroughputMegabytesPerSecond());
+    }
+
+    @Override
+    public void reset() {
+        passDurations.reset();
+        charactersScanned.set(0);
+        matchesAdded.set(0);
+        wordbookLoadTimes.reset();
+        wordsLoaded.set(0);
+        fileLoadTimes.reset();
+        bytesLoaded.set(0);
+    }
+
+    private HighlightMetrics() {
+    }
+}
@@ -0,0 +1,48 @@
+package de.elmar_baumann.whl;
+
+/**
+ * Management interface of {@link HighlightMetrics}. Durations are in
+ * milliseconds.
+ *
+ * @author Elmar Baumann
+ */
+public interface HighlightMetricsMBean {
+
+    public long getPassCount();
+
+    public double getPassDurationMeanMillis();
+
+    public double getPassDurationP50Millis();
+
+    public double getPassDurationP99Millis();
+
+    public double getPassDurationMaxMillis();
+
+    public long getCharactersScanned();
+
+    public long getMatchesAdded();
+
+    public long getWordbookLoadCount();
+
+    public double getWordbookLoadTimeMeanMillis();
+
+    public double getWordbookLoadTimeMaxMillis();
+
+    public long getWordsLoaded();
+
+    public long getFileLoadCount();
+
+    public long getBytesLoaded();
+
+    public double getFileLoadThroughputMegabytesPerSecond();
+
+    /**
+     * @return all metrics within one line
+     */
+    public String getSummary();
+
+    /**
+     * Sets all metrics to zero.
+     */
+    public void reset();
+}
@@ -0,0 +1,113 @@
+package de.elmar_baumann.whl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of durations in nanoseconds with power of two
+ * buckets: bucket <code>i</code> counts durations less than
+ * 2<sup><code>i</code></sup> and at least 2<sup><code>i - 1</code></sup>
+ * nanoseconds.
+ * <p>
+ * Recording a duration increments two counters and doesn't allocate memory.
+ * Percentiles are estimated by the upper bound of their bucket, so they are
+ * at most twice the real value.
+ *
+ * @author Elmar Baumann
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 64;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos duration in nanoseconds, negative durations are recorded
+     *              as 0
+     */
+    public void record(long nanos) {
+        long duration = Math.max(0, nanos);
+
+        buckets.incrementAndGet(BUCKET_COUNT - Long.numberOfLeadingZeros(duration));
+        count.incrementAndGet();
+        totalNanos.addAndGet(duration);
+
+        long max = maxNanos.get();
+
+        while (duration > max && !maxNanos.compareAndSet(max, duration)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns the mean duration.
+     *
+     * @return mean duration in nanoseconds or 0 if nothing has been recorded
+     */
+    public long getMeanNanos() {
+        long n = count.get();
+
+        return n == 0
+               ? 0
+               : totalNanos.get() / n;
+    }
+
+    /**
+     * Estimates a percentile.
+     *
+     * @param  percentile percentile between 0 and 100
+     * @return            upper bound of the bucket containing the percentile
+     *                    in nanoseconds, at most the maximum duration, or 0
+     *                    if nothing has been recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+
+        long n = count.get();
+
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long sum = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            sum += buckets.get(i);
+
+            if (sum >= rank) {
+                return Math.min(maxNanos.get(), i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << i);
+            }
+        }
+
+        return maxNanos.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+}
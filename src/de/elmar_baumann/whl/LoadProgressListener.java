@@ -0,0 +1,15 @@
+package de.elmar_baumann.whl;
+
+/**
+ * @author Elmar Baumann
+ */
+public interface LoadProgressListener {
+
+    /**
+     * Called after a chunk of a file has been loaded.
+     *
+     * @param bytesRead  count of bytes read so far
+     * @param bytesTotal size of the file in bytes
+     */
+    public void progress(long bytesRead, long bytesTotal);
+}
@@ -1,12 +1,17 @@
 package de.elmar_baumann.whl;
 
+import java.util.Locale;
+
 /**
+ * Converts a text to lowercase independent of the default locale. For
+ * comparing texts with ignored case use {@link CaseFoldingTextConverter}.
+ *
  * @author Elmar Baumann
  */
 public final class LowerCaseTextConverter implements TextConverter {
 
     @Override
     public String convert(String text) {
-        return text.toLowerCase();
+        return text.toLowerCase(Locale.ROOT);
     }
 }
@@ -10,7 +10,24 @@ import javax.swing.UIManager;
  */
 public class Main {
 
+    /**
+     * Starts the user interface or, if arguments are given, the
+     * {@link BatchHighlighter} without user interface. If the first argument
+     * is <code>-compile</code>, a wordbook will be compiled into a
+     * {@link CompiledWordbook}.
+     *
+     * @param args arguments of the batch highlighter or wordbook compiler or
+     *             none
+     */
     public static void main(String[] args) {
+        HighlightMetrics.register();
+
+        if (args.length > 0 && "-compile".equals(args[0])) {
+            System.exit(CompiledWordbook.run(args));
+        } else if (args.length > 0) {
+            System.exit(BatchHighlighter.run(args));
+        }
+
         setSystemLookAndFeel();
 
         WordHighlighterFrame dlg = new WordHighlighterFrame();
@@ -0,0 +1,686 @@
+package de.elmar_baumann.whl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.event.DocumentListener;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+
+/**
+ * Read-only document serving the text of a memory-mapped UTF-8 text file page
+ * by page.
+ * <p>
+ * Opening a file decodes it once sequentially to build an index of the pages
+ * and of the line starts. Afterwards pages are decoded on demand and kept in
+ * a small LRU cache, so that the heap holds only the index and the cached
+ * pages, not the text. Pages end after a line separator if possible, else
+ * after another ASCII character neither letter nor digit, so that words are
+ * usually not split between pages.
+ * <p>
+ * As {@link javax.swing.text.PlainDocument}, line separators will be served
+ * as <code>'\n'</code>. Because document offsets are integers, files with
+ * {@link Integer#MAX_VALUE} or more characters can't be opened.
+ *
+ * @author Elmar Baumann
+ */
+public final class MappedTextDocument implements Document {
+
+    private static final int PAGE_SIZE = 64 * 1024;
+    private static final int MAX_PAGE_SIZE = 4 * PAGE_SIZE;
+    private static final long SEGMENT_SIZE = 256L * 1024 * 1024;
+    private static final int SEGMENT_OVERLAP = MAX_PAGE_SIZE + 8;
+    private static final int CACHED_PAGE_COUNT = 64;
+    private static final char[] NEWLINE = { '\n' };
+    private static final int TAB_SIZE = 8;
+    private final FileInputStream fis;
+    private final MappedByteBuffer[] segments;
+    private final CharsetDecoder decoder;
+    private final CharBuffer decodeBuffer = CharBuffer.allocate(MAX_PAGE_SIZE + SEGMENT_OVERLAP);
+    private long[] pageByteStarts = new long[16];
+    private int[] pageCharStarts = new int[16];
+    private int pageCount;
+    private int[] lineStarts = new int[16];
+    private int lineCount;
+    private int longestLineLength;
+    private final int length;
+    private final Element root = new LineRootElement();
+    private final Set<PageDecodeListener> pageDecodeListeners = new CopyOnWriteArraySet<PageDecodeListener>();
+    private final Set<DocumentListener> documentListeners = new CopyOnWriteArraySet<DocumentListener>();
+    private final Set<UndoableEditListener> undoableEditListeners = new CopyOnWriteArraySet<UndoableEditListener>();
+    private final Dictionary<Object, Object> properties = new Hashtable<Object, Object>();
+    private final Map<Integer, char[]> pageCache = new LinkedHashMap<Integer, char[]>(CACHED_PAGE_COUNT, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+            if (size() <= CACHED_PAGE_COUNT) {
+                return false;
+            }
+
+            for (PageDecodeListener listener : pageDecodeListeners) {
+                listener.pageEvicted(MappedTextDocument.this, eldest.getKey());
+            }
+
+            return true;
+        }
+    };
+
+    /**
+     * Opens a file. The file will be read completely to build the page and
+     * line index. If the current thread will be interrupted, opening stops
+     * with an {@link InterruptedIOException}.
+     *
+     * @param  file     UTF-8 encoded text file
+     * @param  listener listener notified after each indexed page or null
+     * @throws IOException on read errors or if the file is too large
+     */
+    public MappedTextDocument(File file, LoadProgressListener listener) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+
+        decoder = Charset.forName(Properties.TEXT_ENCODING).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        fis = new FileInputStream(file);
+
+        try {
+            segments = map(fis.getChannel());
+            length = index(listener);
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        MappedByteBuffer[] buffers = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+
+        // Segments overlap, so that each page starting in a segment ends in it
+        for (int i = 0; i < buffers.length; i++) {
+            long start = i * SEGMENT_SIZE;
+
+            buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(size - start, SEGMENT_SIZE + SEGMENT_OVERLAP));
+        }
+
+        return buffers;
+    }
+
+    private int index(LoadProgressListener listener) throws IOException {
+        long size = getByteCount();
+        long byteStart = 0;
+        long charStart = 0;
+        long column = 0;
+
+        lineStarts[lineCount++] = 0;
+
+        while (byteStart < size) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Indexing has been interrupted");
+            }
+
+            long byteEnd = getPageEnd(byteStart);
+            int count = decode(byteStart, byteEnd);
+
+            if (charStart + count >= Integer.MAX_VALUE) {
+                throw new IOException("File has too many characters");
+            }
+
+            for (int i = 0; i < count; i++) {
+                char c = decodeBuffer.get(i);
+
+                if (c == '\n') {
+                    addLineStart((int) charStart + i + 1);
+                    updateLongestLineLength(column);
+                    column = 0;
+                } else if (c == '\t') {
+                    column += TAB_SIZE - column % TAB_SIZE;
+                } else {
+                    column++;
+                }
+            }
+
+            addPage(byteStart, (int) charStart);
+            byteStart = byteEnd;
+            charStart += count;
+
+            if (listener != null) {
+                listener.progress(byteStart, size);
+            }
+        }
+
+        updateLongestLineLength(column);
+        pageByteStarts[pageCount] = size;
+        pageCharStarts[pageCount] = (int) charStart;
+
+        return (int) charStart;
+    }
+
+    private long getByteCount() {
+        return segments.length == 0
+               ? 0
+               : (segments.length - 1) * SEGMENT_SIZE + segments[segments.length - 1].capacity();
+    }
+
+    private byte getByte(long pageStart, long offset) {
+        int segment = (int) (pageStart / SEGMENT_SIZE);
+
+        return segments[segment].get((int) (offset - segment * SEGMENT_SIZE));
+    }
+
+    private long getPageEnd(long start) {
+        long size = getByteCount();
+        long end = Math.min(size, start + PAGE_SIZE);
+        long maxEnd = Math.min(size, start + MAX_PAGE_SIZE);
+
+        if (end == size) {
+            return size;
+        }
+
+        for (long i = end; i < maxEnd; i++) {
+            if (getByte(start, i) == '\n') {
+                return i + 1;
+            }
+        }
+
+        for (long i = end; i < maxEnd; i++) {
+            byte b = getByte(start, i);
+
+            // Bytes of multibyte UTF-8 characters are negative
+            if (b >= 0 && !Character.isLetterOrDigit((char) b)) {
+                return b == '\r' && i + 1 < size && getByte(start, i + 1) == '\n'
+                       ? i + 2
+                       : i + 1;
+            }
+        }
+
+        // Not splitting a character or a "\r\n"
+        while (maxEnd < size && ((getByte(start, maxEnd) & 0xC0) == 0x80 || getByte(start, maxEnd) == '\n')) {
+            maxEnd++;
+        }
+
+        return maxEnd;
+    }
+
+    /**
+     * Decodes bytes into {@link #decodeBuffer}, converting line separators to
+     * <code>'\n'</code>.
+     *
+     * @return count of characters
+     */
+    private int decode(long byteStart, long byteEnd) {
+        int segment = (int) (byteStart / SEGMENT_SIZE);
+        ByteBuffer bytes = segments[segment].duplicate();
+        long segmentStart = segment * SEGMENT_SIZE;
+
+        bytes.limit((int) (byteEnd - segmentStart));
+        bytes.position((int) (byteStart - segmentStart));
+        decodeBuffer.clear();
+        decoder.reset();
+        decoder.decode(bytes, decodeBuffer, true);
+        decoder.flush(decodeBuffer);
+
+        int decodedCount = decodeBuffer.position();
+        int count = 0;
+
+        for (int i = 0; i < decodedCount; i++) {
+            char c = decodeBuffer.get(i);
+
+            if (c == '\r') {
+                c = '\n';
+
+                if (i + 1 < decodedCount && decodeBuffer.get(i + 1) == '\n') {
+                    i++;
+                }
+            }
+
+            decodeBuffer.put(count++, c);
+        }
+
+        return count;
+    }
+
+    private void updateLongestLineLength(long columns) {
+        longestLineLength = (int) Math.max(longestLineLength, Math.min(columns, Integer.MAX_VALUE));
+    }
+
+    private void addLineStart(int offset) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+        }
+
+        lineStarts[lineCount++] = offset;
+    }
+
+    private void addPage(long byteStart, int charStart) {
+        if (pageCount + 1 == pageByteStarts.length) {
+            pageByteStarts = Arrays.copyOf(pageByteStarts, pageByteStarts.length * 2);
+            pageCharStarts = Arrays.copyOf(pageCharStarts, pageCharStarts.length * 2);
+        }
+
+        pageByteStarts[pageCount] = byteStart;
+        pageCharStarts[pageCount] = charStart;
+        pageCount++;
+    }
+
+    /**
+     * Closes the file. The document must not be used afterwards.
+     */
+    public void close() {
+        try {
+            fis.close();
+        } catch (IOException ex) {
+            Logger.getLogger(MappedTextDocument.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    public void addPageDecodeListener(PageDecodeListener listener) {
+        pageDecodeListeners.add(listener);
+    }
+
+    public void removePageDecodeListener(PageDecodeListener listener) {
+        pageDecodeListeners.remove(listener);
+    }
+
+    /**
+     * Returns the length of the longest line, recorded while opening the
+     * file. Tabs are expanded to every 8th column, as by
+     * {@link javax.swing.text.PlainView} without a tab size property.
+     *
+     * @return count of columns of the longest line
+     */
+    public int getLongestLineLength() {
+        return longestLineLength;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int getPageStartOffset(int page) {
+        return pageCharStarts[page];
+    }
+
+    public int getPageEndOffset(int page) {
+        return pageCharStarts[page + 1];
+    }
+
+    public synchronized boolean isPageCached(int page) {
+        return pageCache.containsKey(page);
+    }
+
+    /**
+     * Returns the indices of the cached pages.
+     *
+     * @return page indices
+     */
+    public synchronized int[] getCachedPages() {
+        int[] pages = new int[pageCache.size()];
+        int index = 0;
+
+        for (Integer page : pageCache.keySet()) {
+            pages[index++] = page;
+        }
+
+        return pages;
+    }
+
+    private synchronized char[] getPage(int page) {
+        char[] chars = pageCache.get(page);
+
+        if (chars == null) {
+            int count = decode(pageByteStarts[page], pageByteStarts[page + 1]);
+
+            chars = new char[count];
+            decodeBuffer.position(0);
+            decodeBuffer.get(chars, 0, count);
+            pageCache.put(page, chars);
+
+            for (PageDecodeListener listener : pageDecodeListeners) {
+                listener.pageDecoded(this, page);
+            }
+        }
+
+        return chars;
+    }
+
+    /**
+     * Returns the text of a page without putting it into the page cache, e.g.
+     * to scan all pages once without evicting the pages viewed. Listeners are
+     * not notified.
+     *
+     * @param  page page index
+     * @return      characters of the page, not shared with the page cache
+     */
+    public synchronized char[] getPageText(int page) {
+        // Not looked up in the cache, that would change the eviction order
+        int count = decode(pageByteStarts[page], pageByteStarts[page + 1]);
+        char[] chars = new char[count];
+
+        decodeBuffer.position(0);
+        decodeBuffer.get(chars, 0, count);
+
+        return chars;
+    }
+
+    /**
+     * Returns the index of the page containing an offset.
+     */
+    private int getPageIndex(int offset) {
+        int index = Arrays.binarySearch(pageCharStarts, 0, pageCount, offset);
+
+        return index >= 0 ? index : -index - 2;
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public void addDocumentListener(DocumentListener listener) {
+        documentListeners.add(listener);
+    }
+
+    @Override
+    public void removeDocumentListener(DocumentListener listener) {
+        documentListeners.remove(listener);
+    }
+
+    @Override
+    public void addUndoableEditListener(UndoableEditListener listener) {
+        undoableEditListeners.add(listener);
+    }
+
+    @Override
+    public void removeUndoableEditListener(UndoableEditListener listener) {
+        undoableEditListeners.remove(listener);
+    }
+
+    @Override
+    public Object getProperty(Object key) {
+        return properties.get(key);
+    }
+
+    @Override
+    public void putProperty(Object key, Object value) {
+        if (value == null) {
+            properties.remove(key);
+        } else {
+            properties.put(key, value);
+        }
+    }
+
+    @Override
+    public void remove(int offs, int len) throws BadLocationException {
+        throw new BadLocationException("Read-only document", offs);
+    }
+
+    @Override
+    public void insertString(int offset, String str, AttributeSet a) throws BadLocationException {
+        throw new BadLocationException("Read-only document", offset);
+    }
+
+    @Override
+    public String getText(int offset, int len) throws BadLocationException {
+        Segment txt = new Segment();
+
+        getText(offset, len, txt);
+
+        return txt.toString();
+    }
+
+    /**
+     * Returns text like {@link javax.swing.text.AbstractDocument}, including
+     * the implied line break after the last character. Text within a page
+     * is returned without copying.
+     */
+    @Override
+    public void getText(int offset, int len, Segment txt) throws BadLocationException {
+        if (offset < 0 || len < 0 || offset + len > length + 1) {
+            throw new BadLocationException("Invalid range: " + offset + ", " + len, offset);
+        }
+
+        if (offset == length) {
+            txt.array = NEWLINE;
+            txt.offset = 0;
+            txt.count = len;
+
+            return;
+        }
+
+        int page = getPageIndex(offset);
+        int pageStart = pageCharStarts[page];
+        int pageEnd = pageCharStarts[page + 1];
+
+        if (offset + len <= pageEnd || txt.isPartialReturn()) {
+            txt.array = getPage(page);
+            txt.offset = offset - pageStart;
+            txt.count = Math.min(len, pageEnd - offset);
+
+            return;
+        }
+
+        char[] chars = new char[len];
+        int copied = 0;
+
+        while (copied < len) {
+            int pos = offset + copied;
+
+            if (pos == length) {
+                chars[copied++] = '\n';
+            } else {
+                page = getPageIndex(pos);
+                pageStart = pageCharStarts[page];
+
+                int count = Math.min(len - copied, pageCharStarts[page + 1] - pos);
+
+                System.arraycopy(getPage(page), pos - pageStart, chars, copied, count);
+                copied += count;
+            }
+        }
+
+        txt.array = chars;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    @Override
+    public Position getStartPosition() {
+        return new FixedPosition(0);
+    }
+
+    @Override
+    public Position getEndPosition() {
+        return new FixedPosition(length + 1);
+    }
+
+    @Override
+    public Position createPosition(int offs) throws BadLocationException {
+        if (offs < 0 || offs > length + 1) {
+            throw new BadLocationException("Invalid offset", offs);
+        }
+
+        return new FixedPosition(offs);
+    }
+
+    @Override
+    public Element[] getRootElements() {
+        return new Element[] { root };
+    }
+
+    @Override
+    public Element getDefaultRootElement() {
+        return root;
+    }
+
+    @Override
+    public void render(Runnable r) {
+        r.run();
+    }
+
+    /**
+     * Position of an unmodifiable document.
+     */
+    private static final class FixedPosition implements Position {
+
+        private final int offset;
+
+        private FixedPosition(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    /**
+     * Root element with a child element for each line, created on demand from
+     * the line index.
+     */
+    private final class LineRootElement implements Element {
+
+        @Override
+        public Document getDocument() {
+            return MappedTextDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return "paragraph";
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return length + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            int index = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+
+            return Math.max(0, index >= 0 ? index : -index - 2);
+        }
+
+        @Override
+        public int getElementCount() {
+            return lineCount;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return index >= 0 && index < lineCount ? new LineElement(index) : null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    private final class LineElement implements Element {
+
+        private final int index;
+
+        private LineElement(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Document getDocument() {
+            return MappedTextDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return root;
+        }
+
+        @Override
+        public String getName() {
+            return "content";
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return lineStarts[index];
+        }
+
+        @Override
+        public int getEndOffset() {
+            return index + 1 < lineCount ? lineStarts[index + 1] : length + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.elmar_baumann.whl;
+
+import java.awt.Component;
+
+import javax.swing.text.Element;
+import javax.swing.text.PlainView;
+
+/**
+ * View of the lines of a {@link MappedTextDocument} without line wrap.
+ * <p>
+ * {@link PlainView} measures the text of every line to find the longest one
+ * whenever the font changes, which would decode every page of the file. This
+ * view skips that measurement and computes its preferred width from
+ * {@link MappedTextDocument#getLongestLineLength()} and the width of the
+ * character <code>'m'</code>. The width is exact for monospaced fonts as the
+ * default font of text areas; for proportional fonts it is an estimate.
+ *
+ * @author Elmar Baumann
+ */
+public final class MappedTextView extends PlainView {
+
+    private final MappedTextDocument doc;
+    private boolean updatingMetrics;
+
+    /**
+     * Constructor.
+     *
+     * @param elem root element of a {@link MappedTextDocument}
+     */
+    public MappedTextView(Element elem) {
+        super(elem);
+        doc = (MappedTextDocument) elem.getDocument();
+    }
+
+    @Override
+    protected void updateMetrics() {
+        updatingMetrics = true;
+
+        try {
+            super.updateMetrics();
+        } finally {
+            updatingMetrics = false;
+        }
+    }
+
+    /**
+     * Returns the element of this view. While the metrics are being updated,
+     * a line without children is returned, so that {@link PlainView} has no
+     * lines to measure.
+     *
+     * @return element
+     */
+    @Override
+    public Element getElement() {
+        Element elem = super.getElement();
+
+        return updatingMetrics && elem.getElementCount() > 0
+               ? elem.getElement(0)
+               : elem;
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        if (axis != X_AXIS) {
+            return super.getPreferredSpan(axis);
+        }
+
+        updateMetrics();
+
+        Component host = getContainer();
+
+        return (float) doc.getLongestLineLength() * host.getFontMetrics(host.getFont()).charWidth('m');
+    }
+}
@@ -0,0 +1,278 @@
+package de.elmar_baumann.whl;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+
+import java.text.MessageFormat;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ResourceBundle;
+
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableRowSorter;
+
+/**
+ * Sortable table of the entries of the highlighted wordbooks, words and
+ * patterns, and how often each is highlighted, e.g. to review which terms of
+ * a terminology are used in a text and which are never used.
+ * <p>
+ * The counts are not computed by scanning the text but read by the keys of
+ * the entries from a {@link TextHighlighter}, see
+ * {@link TextHighlighter#getMatchCounts(int[])}, so that a pattern counts all
+ * its matches and a stemmed word all inflected words. Only highlighted text
+ * is counted, use the option {@link TextHighlighter.Option#COUNT_ALL} to
+ * count the whole text e.g. with
+ * {@link TextHighlighter.Option#VISIBLE_AREA}. The table is refreshed at most
+ * once per {@link #REFRESH_DELAY_MILLISECONDS} and only while it is showing,
+ * only the counts of the entries reported as changed are read again.
+ *
+ * @author Elmar Baumann
+ */
+public final class MatchStatisticsPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+    private static final int REFRESH_DELAY_MILLISECONDS = 1000;
+    private static final ResourceBundle BUNDLE = ResourceBundle.getBundle("de/elmar_baumann/whl/Bundle");
+    private final StatisticsModel model = new StatisticsModel();
+    private final JTable table = new JTable(model);
+    private final JLabel labelSummary = new JLabel(" ");
+    private final Timer refreshTimer;
+    private final HighlightListener highlightListener = new HighlightListener() {
+
+        @Override
+        public void highlightsChanged(int[] keys) {
+            setChanged(keys);
+            scheduleRefresh();
+        }
+    };
+    private TextHighlighter highlighter;
+
+    /**
+     * Key of each entry by its row index in ascending order.
+     */
+    private int[] keys = new int[0];
+    private final BitSet changedRows = new BitSet();
+    private boolean allRowsChanged;
+    private int foundCount;
+    private boolean stale;
+
+    public MatchStatisticsPanel() {
+        refreshTimer = new Timer(REFRESH_DELAY_MILLISECONDS, new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
+        refreshTimer.setRepeats(false);
+        initComponents();
+    }
+
+    private void initComponents() {
+        TableRowSorter<StatisticsModel> sorter = new TableRowSorter<StatisticsModel>(model);
+
+        sorter.setSortKeys(Arrays.asList(new RowSorter.SortKey(1, SortOrder.DESCENDING)));
+        sorter.setSortsOnUpdates(true);
+        table.setRowSorter(sorter);
+        table.setFillsViewportHeight(true);
+        labelSummary.setBorder(BorderFactory.createEmptyBorder(2, 2, 2, 2));
+        setLayout(new BorderLayout());
+        add(new JScrollPane(table), BorderLayout.CENTER);
+        add(labelSummary, BorderLayout.SOUTH);
+        addHierarchyListener(new HierarchyListener() {
+
+            @Override
+            public void hierarchyChanged(HierarchyEvent e) {
+                if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && isShowing() && stale) {
+                    refresh();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the highlighter whose highlighted words are counted.
+     *
+     * @param highlighter highlighter or null
+     */
+    public void setHighlighter(TextHighlighter highlighter) {
+        if (this.highlighter != null) {
+            this.highlighter.removeHighlightListener(highlightListener);
+        }
+
+        this.highlighter = highlighter;
+
+        if (highlighter != null) {
+            highlighter.addHighlightListener(highlightListener);
+        }
+
+        allRowsChanged = true;
+        scheduleRefresh();
+    }
+
+    /**
+     * Sets the listed entries.
+     *
+     * @param matcher matcher of the highlighted words as set by
+     *                {@link TextHighlighter#setHighlightWords(WordMatcher)}
+     */
+    public void setWords(WordMatcher matcher) {
+        if (matcher == null) {
+            throw new NullPointerException("matcher == null");
+        }
+
+        keys = matcher.getEntryKeys();
+        foundCount = 0;
+        changedRows.clear();
+        allRowsChanged = true;
+        model.setEntries(matcher.getEntries(), new int[keys.length]);
+        updateSummary();
+        scheduleRefresh();
+    }
+
+    private void setChanged(int[] changedKeys) {
+        if (changedKeys == null) {
+            allRowsChanged = true;
+            return;
+        }
+
+        for (int key : changedKeys) {
+            int row = Arrays.binarySearch(keys, key);
+
+            if (row >= 0) {
+                changedRows.set(row);
+            }
+        }
+    }
+
+    /**
+     * Refreshes the table after the delay, changes until then are refreshed
+     * together.
+     */
+    private void scheduleRefresh() {
+        if (!refreshTimer.isRunning()) {
+            refreshTimer.start();
+        }
+    }
+
+    private void refresh() {
+        if (!isShowing()) {
+            stale = true;
+            return;
+        }
+
+        stale = false;
+
+        if (highlighter == null) {
+            return;
+        }
+
+        int[] rows = allRowsChanged
+                     ? null
+                     : new int[changedRows.cardinality()];
+
+        if (rows != null) {
+            int index = 0;
+
+            for (int row = changedRows.nextSetBit(0); row >= 0; row = changedRows.nextSetBit(row + 1)) {
+                rows[index++] = row;
+            }
+        }
+
+        int[] rowKeys = rows == null
+                        ? keys
+                        : new int[rows.length];
+
+        for (int i = 0; rows != null && i < rows.length; i++) {
+            rowKeys[i] = keys[rows[i]];
+        }
+
+        int[] counts = highlighter.getMatchCounts(rowKeys);
+        int firstUpdatedRow = Integer.MAX_VALUE;
+        int lastUpdatedRow = -1;
+
+        for (int i = 0; i < counts.length; i++) {
+            int row = rows == null
+                      ? i
+                      : rows[i];
+            int oldCount = model.counts[row];
+
+            if (counts[i] != oldCount) {
+                foundCount += (counts[i] > 0 ? 1 : 0) - (oldCount > 0 ? 1 : 0);
+                model.counts[row] = counts[i];
+                firstUpdatedRow = Math.min(firstUpdatedRow, row);
+                lastUpdatedRow = row;
+            }
+        }
+
+        // One event, the rows are sorted once
+        if (lastUpdatedRow >= 0) {
+            model.fireTableRowsUpdated(firstUpdatedRow, lastUpdatedRow);
+        }
+
+        changedRows.clear();
+        allRowsChanged = false;
+        updateSummary();
+    }
+
+    private void updateSummary() {
+        labelSummary.setText(MessageFormat.format(BUNDLE.getString("MatchStatisticsPanel.Summary"),
+                foundCount, keys.length));
+    }
+
+    private static final class StatisticsModel extends AbstractTableModel {
+
+        private static final long serialVersionUID = 1L;
+        private PackedWords entries = new PackedWords();
+        private int[] counts = new int[0];
+
+        private void setEntries(PackedWords entries, int[] counts) {
+            this.entries = entries;
+            this.counts = counts;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return counts.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 2;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return column == 0
+                   ? BUNDLE.getString("MatchStatisticsPanel.columnWord")
+                   : BUNDLE.getString("MatchStatisticsPanel.columnCount");
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0
+                   ? String.class
+                   : Integer.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return column == 0
+                   ? entries.get(row)
+                   : Integer.valueOf(counts[row]);
+        }
+    }
+}
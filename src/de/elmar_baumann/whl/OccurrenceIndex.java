@@ -0,0 +1,384 @@
+package de.elmar_baumann.whl;
+
+import java.util.Arrays;
+
+/**
+ * Spans of each key ordered by their start offsets, so that the occurrences
+ * of a key are counted and navigated without reading the text or the other
+ * spans.
+ * <p>
+ * The spans are referenced by their ids, see
+ * {@link SpanHighlighter#getIdStart(int)}, not by their offsets. Document
+ * changes keep the order of the spans, hence the index is not changed when
+ * the spans are moved. The keys are hashed, so that the index takes memory
+ * only for keys of spans, not for all possible keys.
+ * <p>
+ * The keys whose spans have been added or removed are collected until they
+ * are taken, so that counts of keys can be refreshed without reading the
+ * counts of all keys, see {@link #takeChangedKeys()}.
+ *
+ * @author Elmar Baumann
+ */
+final class OccurrenceIndex {
+
+    private static final int[] NO_IDS = new int[0];
+    private static final int NO_KEY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+    private final SpanHighlighter spans;
+    private int[] slotKeys;
+    private int[][] slotIds;
+    private int[] slotCounts;
+    private int usedSlotCount;
+    private boolean[] slotChanged;
+    private int[] changedKeys = new int[INITIAL_CAPACITY];
+    private int changedKeyCount;
+    private boolean allKeysChanged;
+
+    OccurrenceIndex(SpanHighlighter spans) {
+        this.spans = spans;
+        clear();
+    }
+
+    void add(int key, int id) {
+        int slot = getSlot(key);
+
+        if (slot < 0) {
+            slot = addSlot(key);
+        }
+
+        int[] ids = slotIds[slot] == null
+                    ? NO_IDS
+                    : slotIds[slot];
+        int count = slotCounts[slot];
+        int start = spans.getIdStart(id);
+        int index = count > 0 && spans.getIdStart(ids[count - 1]) <= start
+                    ? count    // Spans are mostly added in order
+                    : getFirstIndex(ids, count, start + 1);
+
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(4, 2 * count));
+            slotIds[slot] = ids;
+        }
+
+        System.arraycopy(ids, index, ids, index + 1, count - index);
+        ids[index] = id;
+        slotCounts[slot]++;
+        setChanged(slot);
+    }
+
+    void remove(int key, int id) {
+        int slot = getSlot(key);
+
+        if (slot < 0 || slotCounts[slot] == 0) {
+            return;
+        }
+
+        int[] ids = slotIds[slot];
+        int count = slotCounts[slot];
+        int start = spans.getIdStart(id);
+
+        // Spans may start at the same offset
+        for (int index = getFirstIndex(ids, count, start);
+                index < count && spans.getIdStart(ids[index]) == start; index++) {
+            if (ids[index] == id) {
+                System.arraycopy(ids, index + 1, ids, index, count - index - 1);
+                slotCounts[slot]--;
+                setChanged(slot);
+
+                // Releasing the ids of words no longer highlighted
+                if (slotCounts[slot] == 0) {
+                    slotIds[slot] = null;
+                }
+
+                return;
+            }
+        }
+    }
+
+    void clear() {
+        slotKeys = new int[INITIAL_CAPACITY];
+        slotIds = new int[INITIAL_CAPACITY][];
+        slotCounts = new int[INITIAL_CAPACITY];
+        slotChanged = new boolean[INITIAL_CAPACITY];
+        usedSlotCount = 0;
+        Arrays.fill(slotKeys, NO_KEY);
+        changedKeyCount = 0;
+        allKeysChanged = true;
+    }
+
+    /**
+     * Returns the keys whose spans have been added or removed since the last
+     * call.
+     *
+     * @return keys or null, if the spans of all keys may have been changed,
+     *         e.g. after {@link #clear()} or {@link #mapKeys(int[], int[])}
+     */
+    int[] takeChangedKeys() {
+        if (allKeysChanged) {
+            allKeysChanged = false;
+            Arrays.fill(slotChanged, false);
+
+            return null;
+        }
+
+        int[] keys = Arrays.copyOf(changedKeys, changedKeyCount);
+
+        for (int key : keys) {
+            slotChanged[getSlot(key)] = false;
+        }
+
+        changedKeyCount = 0;
+
+        return keys;
+    }
+
+    private void setChanged(int slot) {
+        if (allKeysChanged || slotChanged[slot]) {
+            return;
+        }
+
+        if (changedKeyCount == changedKeys.length) {
+            changedKeys = Arrays.copyOf(changedKeys, 2 * changedKeyCount);
+        }
+
+        changedKeys[changedKeyCount++] = slotKeys[slot];
+        slotChanged[slot] = true;
+    }
+
+    int getCount(int key) {
+        int slot = getSlot(key);
+
+        return slot < 0
+               ? 0
+               : slotCounts[slot];
+    }
+
+    /**
+     * Returns the start offset of the first span of a key starting after an
+     * offset.
+     *
+     * @return start offset or -1
+     */
+    int getNext(int key, int offset) {
+        int slot = getSlot(key);
+        int count = slot < 0
+                    ? 0
+                    : slotCounts[slot];
+
+        if (count == 0) {
+            return -1;
+        }
+
+        int index = getFirstIndex(slotIds[slot], count, offset + 1);
+
+        return index < count
+               ? spans.getIdStart(slotIds[slot][index])
+               : -1;
+    }
+
+    /**
+     * Returns the start offset of the last span of a key starting before an
+     * offset.
+     *
+     * @return start offset or -1
+     */
+    int getPrevious(int key, int offset) {
+        int slot = getSlot(key);
+        int count = slot < 0
+                    ? 0
+                    : slotCounts[slot];
+
+        if (count == 0) {
+            return -1;
+        }
+
+        int index = getFirstIndex(slotIds[slot], count, offset) - 1;
+
+        return index >= 0
+               ? spans.getIdStart(slotIds[slot][index])
+               : -1;
+    }
+
+    /**
+     * Returns the start offsets of the spans of a key.
+     *
+     * @return start offsets in ascending order
+     */
+    int[] getStarts(int key) {
+        int slot = getSlot(key);
+        int count = slot < 0
+                    ? 0
+                    : slotCounts[slot];
+        int[] starts = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            starts[i] = spans.getIdStart(slotIds[slot][i]);
+        }
+
+        return starts;
+    }
+
+    /**
+     * Returns the keys of spans.
+     *
+     * @return keys in ascending order
+     */
+    int[] getKeys() {
+        int[] keys = new int[usedSlotCount];
+        int count = 0;
+
+        for (int slot = 0; slot < slotKeys.length; slot++) {
+            if (slotKeys[slot] != NO_KEY && slotCounts[slot] > 0) {
+                keys[count++] = slotKeys[slot];
+            }
+        }
+
+        keys = Arrays.copyOf(keys, count);
+        Arrays.sort(keys);
+
+        return keys;
+    }
+
+    /**
+     * Replaces the keys, the spans of keys mapped to no key are removed from
+     * the index.
+     *
+     * @param oldKeys keys in ascending order
+     * @param newKeys new key of each old key or -1, keys not within
+     *                <code>oldKeys</code> are mapped to -1
+     */
+    void mapKeys(int[] oldKeys, int[] newKeys) {
+        int[] oldSlotKeys = slotKeys;
+        int[][] oldSlotIds = slotIds;
+        int[] oldSlotCounts = slotCounts;
+
+        clear();
+
+        for (int oldSlot = 0; oldSlot < oldSlotKeys.length; oldSlot++) {
+            int index = oldSlotKeys[oldSlot] == NO_KEY || oldSlotCounts[oldSlot] == 0
+                        ? -1
+                        : Arrays.binarySearch(oldKeys, oldSlotKeys[oldSlot]);
+            int key = index < 0
+                      ? NO_KEY
+                      : newKeys[index];
+
+            if (key != NO_KEY) {
+                int slot = getSlot(key);
+
+                if (slot < 0) {
+                    slot = addSlot(key);
+                    slotIds[slot] = oldSlotIds[oldSlot];
+                    slotCounts[slot] = oldSlotCounts[oldSlot];
+                } else {
+                    // Equal entries, e.g. a pattern of two wordbooks
+                    slotIds[slot] = merge(slotIds[slot], slotCounts[slot], oldSlotIds[oldSlot],
+                                          oldSlotCounts[oldSlot]);
+                    slotCounts[slot] += oldSlotCounts[oldSlot];
+                }
+            }
+        }
+    }
+
+    private int[] merge(int[] ids1, int count1, int[] ids2, int count2) {
+        int[] ids = new int[count1 + count2];
+        int i1 = 0;
+        int i2 = 0;
+
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i2 == count2 || i1 < count1 && spans.getIdStart(ids1[i1]) <= spans.getIdStart(ids2[i2])
+                     ? ids1[i1++]
+                     : ids2[i2++];
+        }
+
+        return ids;
+    }
+
+    private int getSlot(int key) {
+        int mask = slotKeys.length - 1;
+
+        for (int slot = hash(key) & mask; slotKeys[slot] != NO_KEY; slot = (slot + 1) & mask) {
+            if (slotKeys[slot] == key) {
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Adds a slot of a key not yet added. Slots are not removed until
+     * {@link #clear()}, their ids are released when their count is 0.
+     */
+    private int addSlot(int key) {
+        if (2 * (usedSlotCount + 1) > slotKeys.length) {
+            rehash(2 * slotKeys.length);
+        }
+
+        int mask = slotKeys.length - 1;
+        int slot = hash(key) & mask;
+
+        while (slotKeys[slot] != NO_KEY) {
+            slot = (slot + 1) & mask;
+        }
+
+        slotKeys[slot] = key;
+        usedSlotCount++;
+
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = slotKeys;
+        int[][] oldIds = slotIds;
+        int[] oldCounts = slotCounts;
+        boolean[] oldChanged = slotChanged;
+        int mask = capacity - 1;
+
+        slotKeys = new int[capacity];
+        slotIds = new int[capacity][];
+        slotCounts = new int[capacity];
+        slotChanged = new boolean[capacity];
+        Arrays.fill(slotKeys, NO_KEY);
+
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            if (oldKeys[oldSlot] != NO_KEY) {
+                int slot = hash(oldKeys[oldSlot]) & mask;
+
+                while (slotKeys[slot] != NO_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+
+                slotKeys[slot] = oldKeys[oldSlot];
+                slotIds[slot] = oldIds[oldSlot];
+                slotCounts[slot] = oldCounts[oldSlot];
+                slotChanged[slot] = oldChanged[oldSlot];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the index of the first span starting at or after an offset.
+     */
+    private int getFirstIndex(int[] ids, int count, int offset) {
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (spans.getIdStart(ids[mid]) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
@@ -0,0 +1,438 @@
+package de.elmar_baumann.whl;
+
+import java.nio.CharBuffer;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of words packed into primitive arrays for wordbooks of millions of
+ * words.
+ * <p>
+ * The characters of all words are stored consecutively within one array, a
+ * word is identified by its index in order of addition. An open addressing
+ * hash table of word indices finds words without creating strings. A word
+ * takes about 12 bytes and 2 bytes per character instead of about 80 bytes
+ * and 2 bytes per character within a {@link java.util.HashSet}.
+ * <p>
+ * Words can be added but not removed. Strings are created only when
+ * iterating or calling {@link #get(int)}. A {@link WordMatcher} is built from
+ * the packed characters without copying them.
+ * <p>
+ * Not thread safe.
+ *
+ * @author Elmar Baumann
+ */
+public final class PackedWords extends AbstractSet<String> {
+
+    private static final int EMPTY_SLOT = 0;
+    private char[] chars;
+    private int[] starts;
+    private int[] slots;
+    private int size;
+    private boolean modifiable = true;
+
+    public PackedWords() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty set.
+     *
+     * @param expectedSize expected count of words
+     */
+    public PackedWords(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Negative size: " + expectedSize);
+        }
+
+        int capacity = Math.max(16, expectedSize);
+
+        chars = new char[capacity * 8];
+        starts = new int[capacity + 1];
+        slots = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    /**
+     * Adds a word.
+     *
+     * @param  word word
+     * @return      true if the word has not been added before
+     * @throws UnsupportedOperationException if this set is unmodifiable
+     */
+    @Override
+    public boolean add(String word) {
+        if (word == null) {
+            throw new NullPointerException("word == null");
+        }
+
+        return add((CharSequence) word);
+    }
+
+    /**
+     * Adds a word without creating a string.
+     *
+     * @param  word word
+     * @return      true if the word has not been added before
+     * @throws UnsupportedOperationException if this set is unmodifiable
+     */
+    public boolean add(CharSequence word) {
+        if (word == null) {
+            throw new NullPointerException("word == null");
+        }
+
+        if (!modifiable) {
+            throw new UnsupportedOperationException("Unmodifiable words");
+        }
+
+        int slot = findSlot(word);
+
+        if (slots[slot] != EMPTY_SLOT) {
+            return false;
+        }
+
+        int length = word.length();
+        int start = starts[size];
+
+        if (start + length > chars.length) {
+            long capacity = Math.max(2L * chars.length, (long) start + length);
+
+            chars = Arrays.copyOf(chars, (int) Math.min(Integer.MAX_VALUE - 8, capacity));
+        }
+
+        for (int i = 0; i < length; i++) {
+            chars[start + i] = word.charAt(i);
+        }
+
+        if (size + 2 > starts.length) {
+            starts = Arrays.copyOf(starts, 2 * starts.length);
+        }
+
+        starts[size + 1] = start + length;
+        slots[slot] = size + 1;
+        size++;
+
+        // Load factor at most 1/2
+        if (2 * size > slots.length) {
+            rehash(2 * slots.length);
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds words, the words of other packed words without creating strings.
+     *
+     * @param  words words
+     * @return       true if a word has not been added before
+     * @throws UnsupportedOperationException if this set is unmodifiable
+     */
+    @Override
+    public boolean addAll(Collection<? extends String> words) {
+        if (!(words instanceof PackedWords)) {
+            return super.addAll(words);
+        }
+
+        PackedWords packedWords = (PackedWords) words;
+        CharBuffer word = CharBuffer.wrap(packedWords.chars);
+        boolean added = false;
+
+        for (int index = 0; index < packedWords.size; index++) {
+            word.limit(packedWords.starts[index + 1]).position(packedWords.starts[index]);
+
+            if (add(word)) {
+                added = true;
+            }
+        }
+
+        return added;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof String && contains((CharSequence) o);
+    }
+
+    /**
+     * Returns whether a word has been added without creating a string.
+     *
+     * @param  word word
+     * @return      true if the word has been added
+     */
+    public boolean contains(CharSequence word) {
+        if (word == null) {
+            throw new NullPointerException("word == null");
+        }
+
+        return slots[findSlot(word)] != EMPTY_SLOT;
+    }
+
+    /**
+     * Returns the index of a word without creating a string.
+     *
+     * @param  word word
+     * @return      index of the word in order of addition or -1, if the word
+     *              hasn't been added
+     */
+    public int indexOf(CharSequence word) {
+        if (word == null) {
+            throw new NullPointerException("word == null");
+        }
+
+        return slots[findSlot(word)] - 1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a word.
+     *
+     * @param  index index of the word in order of addition
+     * @return       word
+     */
+    public String get(int index) {
+        checkIndex(index);
+
+        return new String(chars, starts[index], starts[index + 1] - starts[index]);
+    }
+
+    /**
+     * Returns the length of a word.
+     *
+     * @param  index index of the word in order of addition
+     * @return       length
+     */
+    public int getLength(int index) {
+        checkIndex(index);
+
+        return starts[index + 1] - starts[index];
+    }
+
+    /**
+     * Returns a character of a word.
+     *
+     * @param  index     index of the word in order of addition
+     * @param  charIndex index of the character within the word
+     * @return           character
+     */
+    public char getChar(int index, int charIndex) {
+        checkIndex(index);
+
+        if (charIndex < 0 || charIndex >= starts[index + 1] - starts[index]) {
+            throw new IndexOutOfBoundsException("Char index: " + charIndex);
+        }
+
+        return chars[starts[index] + charIndex];
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public String next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+
+                return get(index++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Words can't be removed");
+            }
+        };
+    }
+
+    /**
+     * Makes this set unmodifiable, e.g. before it is returned by a
+     * {@link TextfileWordbook}.
+     */
+    void setUnmodifiable() {
+        modifiable = false;
+    }
+
+    /**
+     * Returns the characters of all words, the word with index
+     * <code>i</code> starts at <code>getStart(i)</code>.
+     */
+    char[] getChars() {
+        return chars;
+    }
+
+    int getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Returns the indices of the words in order of
+     * {@link String#compareTo(String)}.
+     *
+     * @return indices
+     */
+    int[] getSortedIndices() {
+        int[] indices = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+        }
+
+        sort(indices, new int[size], 0, size);
+
+        return indices;
+    }
+
+    /**
+     * Merge sort, the sorted range is within <code>indices</code>.
+     */
+    private void sort(int[] indices, int[] buffer, int from, int to) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                int index = indices[i];
+                int j = i;
+
+                while (j > from && compare(indices[j - 1], index) > 0) {
+                    indices[j] = indices[j - 1];
+                    j--;
+                }
+
+                indices[j] = index;
+            }
+
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+
+        sort(indices, buffer, from, mid);
+        sort(indices, buffer, mid, to);
+
+        if (compare(indices[mid - 1], indices[mid]) <= 0) {
+            return;
+        }
+
+        System.arraycopy(indices, from, buffer, from, to - from);
+
+        for (int i = from, left = from, right = mid; i < to; i++) {
+            indices[i] = right >= to || left < mid && compare(buffer[left], buffer[right]) <= 0
+                         ? buffer[left++]
+                         : buffer[right++];
+        }
+    }
+
+    private int compare(int index1, int index2) {
+        int start1 = starts[index1];
+        int start2 = starts[index2];
+        int length1 = starts[index1 + 1] - start1;
+        int length2 = starts[index2 + 1] - start2;
+        int length = Math.min(length1, length2);
+
+        for (int i = 0; i < length; i++) {
+            char c1 = chars[start1 + i];
+            char c2 = chars[start2 + i];
+
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+
+        return length1 - length2;
+    }
+
+    /**
+     * Returns the slot of a word or the empty slot where it would be added.
+     */
+    private int findSlot(CharSequence word) {
+        int mask = slots.length - 1;
+        int slot = hash(word) & mask;
+
+        while (slots[slot] != EMPTY_SLOT && !equals(slots[slot] - 1, word)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int mask = capacity - 1;
+
+        slots = new int[capacity];
+
+        for (int index = 0; index < size; index++) {
+            int slot = hash(index) & mask;
+
+            while (slots[slot] != EMPTY_SLOT) {
+                slot = (slot + 1) & mask;
+            }
+
+            slots[slot] = index + 1;
+        }
+    }
+
+    private boolean equals(int index, CharSequence word) {
+        int start = starts[index];
+        int length = word.length();
+
+        if (starts[index + 1] - start != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int hash(CharSequence word) {
+        int h = 0;
+
+        for (int i = 0; i < word.length(); i++) {
+            h = 31 * h + word.charAt(i);
+        }
+
+        return spread(h);
+    }
+
+    private int hash(int index) {
+        int h = 0;
+
+        for (int i = starts[index]; i < starts[index + 1]; i++) {
+            h = 31 * h + chars[i];
+        }
+
+        return spread(h);
+    }
+
+    /**
+     * Spreads the upper bits of a string hash code to the lower bits, which
+     * select the slot.
+     */
+    private static int spread(int h) {
+        int spread = h * 0x9E3779B9;
+
+        return spread ^ (spread >>> 16);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
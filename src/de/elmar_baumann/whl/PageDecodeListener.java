@@ -0,0 +1,27 @@
+package de.elmar_baumann.whl;
+
+/**
+ * @author Elmar Baumann
+ */
+public interface PageDecodeListener {
+
+    /**
+     * Called after a page of a {@link MappedTextDocument} has been decoded and
+     * put into its page cache. Can be called on any thread, also while the
+     * document is rendered.
+     *
+     * @param doc  document
+     * @param page page index
+     */
+    public void pageDecoded(MappedTextDocument doc, int page);
+
+    /**
+     * Called before a page of a {@link MappedTextDocument} is removed from
+     * its page cache, because other pages have been decoded. Can be called on
+     * any thread, also while the document is rendered.
+     *
+     * @param doc  document
+     * @param page page index
+     */
+    public void pageEvicted(MappedTextDocument doc, int page);
+}
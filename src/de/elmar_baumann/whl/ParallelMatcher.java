@@ -0,0 +1,171 @@
+package de.elmar_baumann.whl;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Matches large texts in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * The text is split recursively into chunks at line breaks only, because
+ * phrases and patterns of a {@link WordMatcher} may span word boundaries but
+ * not line breaks. A line is never split, so texts without line breaks are
+ * matched sequentially. The chunks are
+ * matched with {@link TextMatcher#match(char[], int, int, boolean, int, Spans)}
+ * and the ordered results are concatenated, so that the result is the same as
+ * matching the text sequentially.
+ *
+ * @author Elmar Baumann
+ */
+public final class ParallelMatcher {
+
+    /**
+     * Texts shorter than twice this length are not worth to be split.
+     */
+    public static final int MIN_CHUNK_LENGTH = 128 * 1024;
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    /**
+     * Matches a text in parallel. See
+     * {@link TextMatcher#match(char[], int, int, boolean, int, Spans)} for
+     * the parameters.
+     *
+     * @return found words ordered by their start offsets
+     * @throws InterruptedException if the current thread has been interrupted
+     *                              while waiting; the matching will be
+     *                              cancelled
+     */
+    public static Spans match(TextMatcher matcher, char[] text, int start, int end, boolean ignoreCase, int offset)
+            throws InterruptedException {
+        if (matcher == null) {
+            throw new NullPointerException("matcher == null");
+        }
+
+        if (text == null) {
+            throw new NullPointerException("text == null");
+        }
+
+        MatchTask task = new MatchTask(matcher, text, start, end, ignoreCase, offset);
+
+        POOL.execute(task);
+
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            task.cancel(true);
+            throw ex;
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * Returns the end of a chunk: the first line break at or after an index.
+     *
+     * @param text  text
+     * @param index index of the minimum chunk end
+     * @param end   index after the last character in <code>text</code>
+     * @return      index of a line break or <code>end</code>
+     */
+    static int getChunkEnd(char[] text, int index, int end) {
+        for (int i = index; i < end; i++) {
+            if (WordMatcher.isLineBreak(text[i])) {
+                return i;
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * Returns the last line break before an index.
+     *
+     * @param text  text
+     * @param start index of the first character in <code>text</code>
+     * @param index index after the maximum chunk end
+     * @return      index of a line break after <code>start</code> or -1
+     */
+    static int getPreviousChunkEnd(char[] text, int start, int index) {
+        for (int i = index - 1; i > start; i--) {
+            if (WordMatcher.isLineBreak(text[i])) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static final class MatchTask extends RecursiveTask<Spans> {
+
+        private static final long serialVersionUID = 1L;
+        private final TextMatcher matcher;
+        private final char[] text;
+        private final int start;
+        private final int end;
+        private final boolean ignoreCase;
+        private final int offset;
+        private final MatchTask root;
+
+        private MatchTask(TextMatcher matcher, char[] text, int start, int end, boolean ignoreCase, int offset) {
+            this(matcher, text, start, end, ignoreCase, offset, null);
+        }
+
+        private MatchTask(TextMatcher matcher, char[] text, int start, int end, boolean ignoreCase, int offset,
+                MatchTask root) {
+            this.matcher = matcher;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.ignoreCase = ignoreCase;
+            this.offset = offset;
+            this.root = root == null ? this : root;
+        }
+
+        @Override
+        protected Spans compute() {
+            int split = getSplitIndex();
+
+            if (split < 0) {
+                Spans matches = new Spans();
+
+                if (!root.isCancelled()) {
+                    matcher.match(text, start, end, ignoreCase, offset, matches);
+                }
+
+                return matches;
+            }
+
+            MatchTask left = new MatchTask(matcher, text, start, split, ignoreCase, offset, root);
+            MatchTask right = new MatchTask(matcher, text, split, end, ignoreCase, offset, root);
+
+            left.fork();
+
+            Spans rightMatches = right.compute();
+            Spans matches = left.join();
+
+            matches.addAll(rightMatches);
+
+            return matches;
+        }
+
+        /**
+         * Returns the line break nearest after or before the middle of the
+         * text or -1 if the text shall or can not be split.
+         */
+        private int getSplitIndex() {
+            if (end - start < 2 * MIN_CHUNK_LENGTH) {
+                return -1;
+            }
+
+            int middle = start + (end - start) / 2;
+            int split = getChunkEnd(text, middle, end);
+
+            return split < end
+                   ? split
+                   : getPreviousChunkEnd(text, start, middle);
+        }
+    }
+
+    private ParallelMatcher() {
+    }
+}
@@ -0,0 +1,1074 @@
+package de.elmar_baumann.whl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deterministic automaton of wordbook entries being patterns. Patterns are
+ * regular expressions between slashes, e.g. <code>/AB-\d{4}/</code> or
+ * <code>/colou?r/</code>.
+ * <p>
+ * Supported are characters, <code>.</code>, the classes <code>\d</code>,
+ * <code>\w</code>, <code>\s</code> and their negations <code>\D</code>,
+ * <code>\W</code>, <code>\S</code>, character sets like <code>[a-z_]</code>
+ * or <code>[^0-9]</code>, groups, alternatives with <code>|</code> and the
+ * quantifiers <code>*</code>, <code>+</code>, <code>?</code>,
+ * <code>{n}</code>, <code>{n,}</code> and <code>{n,m}</code>. Other
+ * characters are escaped by <code>\</code>.
+ * <p>
+ * A pattern matches text starting at the beginning of a word of the text.
+ * The match has to end at the end of a word or with a character neither
+ * letter nor digit, it does not span lines and at most {@link #MAX_WORDS}
+ * words.
+ * <p>
+ * All patterns are compiled by subset construction into one automaton over
+ * classes of characters not distinguished by any pattern. Its states are
+ * sets of pattern positions together with the count of words since the
+ * start of the pattern, each word of the text starts all patterns again.
+ * The count of states is limited to {@link #MAX_STATES}.
+ * <p>
+ * Instances are immutable and thread safe.
+ *
+ * @author Elmar Baumann
+ */
+public final class PatternAutomaton {
+
+    public static final int MAX_WORDS = 8;
+    public static final int MAX_STATES = 10000;
+    static final int INITIAL_STATE = 0;
+    private static final int MAX_TRANSITIONS = 4 * 1024 * 1024;
+    private static final int MAX_POSITIONS = 100000;
+    private static final int MAX_REPETITIONS = 100;
+    private static final int MAX_CHAR_SETS = 1024;
+    private static final int CLASS_SEPARATOR = 0;
+    private static final int CLASS_LETTER = 1;
+    private static final int CLASS_LINE_BREAK = 2;
+    private final String[] patterns;
+    private final int[] wordbookIndices;
+    private final boolean ignoreCase;
+    private final char[] charClasses;
+    private final int classCount;
+    private final int[] transitions;
+    private final boolean[] idleStates;
+    private final int[][] acceptWordOffsets;
+    private final int[][] acceptPatterns;
+
+    /**
+     * Creates an automaton.
+     *
+     * @param patterns        patterns without the enclosing slashes
+     * @param wordbookIndices wordbook index of each pattern
+     * @param ignoreCase      true, if the automaton shall match characters
+     *                        differing only in case
+     * @throws IllegalArgumentException if a pattern is invalid or the
+     *                                  patterns are too complex
+     */
+    public PatternAutomaton(String[] patterns, int[] wordbookIndices, boolean ignoreCase) {
+        if (patterns == null) {
+            throw new NullPointerException("patterns == null");
+        }
+
+        if (wordbookIndices == null) {
+            throw new NullPointerException("wordbookIndices == null");
+        }
+
+        if (patterns.length != wordbookIndices.length) {
+            throw new IllegalArgumentException("Count of patterns and wordbook indices differ");
+        }
+
+        this.patterns = patterns.clone();
+        this.wordbookIndices = wordbookIndices.clone();
+        this.ignoreCase = ignoreCase;
+
+        Nfa nfa = new Nfa();
+
+        for (int i = 0; i < patterns.length; i++) {
+            nfa.addPattern(patterns[i]);
+        }
+
+        Alphabet alphabet = new Alphabet(nfa.charSets, ignoreCase);
+        Dfa dfa = new Dfa(nfa, alphabet);
+
+        charClasses = alphabet.classes;
+        classCount = alphabet.classCount;
+        transitions = Arrays.copyOf(dfa.transitions, dfa.stateCount * classCount);
+        idleStates = Arrays.copyOf(dfa.idleStates, dfa.stateCount);
+        acceptWordOffsets = Arrays.copyOf(dfa.acceptWordOffsets, dfa.stateCount);
+        acceptPatterns = Arrays.copyOf(dfa.acceptPatterns, dfa.stateCount);
+    }
+
+    /**
+     * Returns whether a wordbook entry is a pattern: It starts and ends with
+     * a slash and contains at least one character between.
+     *
+     * @param  entry entry
+     * @return       true if the entry is a pattern
+     */
+    public static boolean isPattern(String entry) {
+        if (entry == null) {
+            throw new NullPointerException("entry == null");
+        }
+
+        return entry.length() > 2 && entry.charAt(0) == '/' && entry.charAt(entry.length() - 1) == '/';
+    }
+
+    /**
+     * Returns a pattern entry without its enclosing slashes.
+     *
+     * @param  entry entry, see {@link #isPattern(String)}
+     * @return       pattern
+     */
+    public static String getPattern(String entry) {
+        if (!isPattern(entry)) {
+            throw new IllegalArgumentException("Not a pattern: " + entry);
+        }
+
+        return entry.substring(1, entry.length() - 1);
+    }
+
+    public int getPatternCount() {
+        return patterns.length;
+    }
+
+    public String getPattern(int index) {
+        return patterns[index];
+    }
+
+    public int getWordbookIndex(int index) {
+        return wordbookIndices[index];
+    }
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    public int getStateCount() {
+        return idleStates.length;
+    }
+
+    /**
+     * Returns the state after consuming a character of the text.
+     *
+     * @param state current state, {@link #INITIAL_STATE} at the start of a
+     *              text
+     * @param c     character
+     * @return      next state
+     */
+    int next(int state, char c) {
+        return transitions[state * classCount + charClasses[c]];
+    }
+
+    /**
+     * Returns whether no pattern is in progress in a state.
+     *
+     * @param state state
+     * @return      true if a state doesn't continue any pattern
+     */
+    boolean isIdle(int state) {
+        return idleStates[state];
+    }
+
+    /**
+     * Returns whether patterns end in a state.
+     *
+     * @param state state
+     * @return      true if {@link #addMatches(int, int[], int, int, int, int, Spans)}
+     *              adds matches
+     */
+    boolean isAccepting(int state) {
+        return acceptWordOffsets[state] != null;
+    }
+
+    /**
+     * Adds the matches of the patterns ending in a state. The style of a
+     * match is the wordbook index of its pattern, the key is the index of its
+     * pattern plus <code>firstKey</code>.
+     *
+     * @param state      state
+     * @param wordStarts text indices of the starts of the last words, a ring
+     *                   of at least {@link #MAX_WORDS} elements
+     * @param wordCount  count of words started so far
+     * @param end        text index after the last matched character
+     * @param offset     offset added to the indices
+     * @param firstKey   key of the first pattern
+     * @param matches    matches, ordered by their start within the state
+     */
+    void addMatches(int state, int[] wordStarts, int wordCount, int end, int offset, int firstKey, Spans matches) {
+        int[] wordOffsets = acceptWordOffsets[state];
+
+        for (int i = 0; i < wordOffsets.length; i++) {
+            int start = wordStarts[(wordCount - 1 - wordOffsets[i]) % wordStarts.length];
+            int pattern = acceptPatterns[state][i];
+
+            matches.add(start + offset, end + offset, wordbookIndices[pattern], firstKey + pattern);
+        }
+    }
+
+    private static boolean isLineBreak(char c) {
+        return WordMatcher.isLineBreak(c);
+    }
+
+    /**
+     * Set of characters of a pattern.
+     */
+    private static final class CharSet {
+
+        private static final int DIGITS = 1;
+        private static final int WORD_CHARS = 2;
+        private static final int SPACES = 4;
+        private static final int NO_DIGITS = 8;
+        private static final int NO_WORD_CHARS = 16;
+        private static final int NO_SPACES = 32;
+        private final StringBuilder ranges = new StringBuilder();
+        private int classes;
+        private boolean negated;
+
+        private void add(char from, char to) {
+            ranges.append(from).append(to);
+        }
+
+        private boolean contains(char c) {
+            return containsUnnegated(c) != negated;
+        }
+
+        private boolean containsUnnegated(char c) {
+            boolean contains = (classes & DIGITS) != 0 && Character.isDigit(c)
+                               || (classes & WORD_CHARS) != 0 && isWordChar(c)
+                               || (classes & SPACES) != 0 && isSpace(c)
+                               || (classes & NO_DIGITS) != 0 && !Character.isDigit(c)
+                               || (classes & NO_WORD_CHARS) != 0 && !isWordChar(c)
+                               || (classes & NO_SPACES) != 0 && !isSpace(c);
+
+            for (int i = 0; !contains && i < ranges.length(); i += 2) {
+                contains = c >= ranges.charAt(i) && c <= ranges.charAt(i + 1);
+            }
+
+            return contains;
+        }
+
+        private static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_';
+        }
+
+        private static boolean isSpace(char c) {
+            return Character.isWhitespace(c) && !isLineBreak(c);
+        }
+
+        private String getKey() {
+            return (negated ? "^" : "") + classes + ":" + ranges;
+        }
+    }
+
+    /**
+     * Node of a parsed pattern.
+     */
+    private static final class Node {
+
+        private static final int EMPTY = 0;
+        private static final int CHARS = 1;
+        private static final int CONCAT = 2;
+        private static final int ALTERNATIVE = 3;
+        private static final int REPEAT = 4;
+        private static final int UNLIMITED = -1;
+        private final int type;
+        private final Node left;
+        private final Node right;
+        private final int charSet;
+        private final int min;
+        private final int max;
+
+        private Node(int type, Node left, Node right, int charSet, int min, int max) {
+            this.type = type;
+            this.left = left;
+            this.right = right;
+            this.charSet = charSet;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /**
+     * Nondeterministic automaton of all patterns built backwards from the
+     * parsed patterns: Each position either consumes a character of a set,
+     * branches to up to two positions without consuming or accepts.
+     */
+    private static final class Nfa {
+
+        private final List<CharSet> charSets = new ArrayList<CharSet>();
+        private final Map<String, Integer> charSetIndices = new HashMap<String, Integer>();
+        private int[] positionCharSets = new int[64];
+        private int[] targets = new int[64];
+        private int[] branches = new int[64];
+        private int[] accepts = new int[64];
+        private final List<Integer> starts = new ArrayList<Integer>();
+        private int positionCount;
+
+        private void addPattern(String pattern) {
+            Node node = new Parser(pattern, this).parse();
+            int accept = addPosition(-1, -1, -1);
+
+            accepts[accept] = starts.size();
+            starts.add(compile(node, accept, pattern));
+        }
+
+        private int addPosition(int charSet, int target, int branch) {
+            if (positionCount == MAX_POSITIONS) {
+                throw new IllegalArgumentException("Patterns too long, more than " + MAX_POSITIONS + " positions");
+            }
+
+            if (positionCount == targets.length) {
+                int capacity = 2 * positionCount;
+
+                positionCharSets = Arrays.copyOf(positionCharSets, capacity);
+                targets = Arrays.copyOf(targets, capacity);
+                branches = Arrays.copyOf(branches, capacity);
+                accepts = Arrays.copyOf(accepts, capacity);
+            }
+
+            positionCharSets[positionCount] = charSet;
+            targets[positionCount] = target;
+            branches[positionCount] = branch;
+            accepts[positionCount] = -1;
+
+            return positionCount++;
+        }
+
+        private int addCharSet(CharSet charSet) {
+            String key = charSet.getKey();
+            Integer index = charSetIndices.get(key);
+
+            if (index == null) {
+                if (charSets.size() == MAX_CHAR_SETS) {
+                    throw new IllegalArgumentException("More than " + MAX_CHAR_SETS + " different character sets");
+                }
+
+                index = charSets.size();
+                charSets.add(charSet);
+                charSetIndices.put(key, index);
+            }
+
+            return index;
+        }
+
+        /**
+         * Returns the first position of a node continuing with a position.
+         */
+        private int compile(Node node, int next, String pattern) {
+            switch (node.type) {
+            case Node.EMPTY:
+                return next;
+
+            case Node.CHARS:
+                return addPosition(node.charSet, next, -1);
+
+            case Node.CONCAT:
+                return compile(node.left, compile(node.right, next, pattern), pattern);
+
+            case Node.ALTERNATIVE:
+                return addPosition(-1, compile(node.left, next, pattern), compile(node.right, next, pattern));
+
+            default:
+                return compileRepeat(node, next, pattern);
+            }
+        }
+
+        private int compileRepeat(Node node, int next, String pattern) {
+            int start = next;
+
+            if (node.max == Node.UNLIMITED) {
+                int loop = addPosition(-1, -1, next);
+                // Compiling may grow the arrays, assign to the grown ones
+                int body = compile(node.left, loop, pattern);
+
+                targets[loop] = body;
+                start = loop;
+            } else {
+                for (int i = node.min; i < node.max; i++) {
+                    start = addPosition(-1, compile(node.left, start, pattern), next);
+                }
+            }
+
+            for (int i = 0; i < node.min; i++) {
+                start = compile(node.left, start, pattern);
+            }
+
+            return start;
+        }
+    }
+
+    /**
+     * Recursive descent parser of a pattern.
+     */
+    private static final class Parser {
+
+        private final String pattern;
+        private final Nfa nfa;
+        private int pos;
+
+        private Parser(String pattern, Nfa nfa) {
+            this.pattern = pattern;
+            this.nfa = nfa;
+        }
+
+        private Node parse() {
+            Node node = parseAlternatives();
+
+            if (pos < pattern.length()) {
+                throw error("Unexpected '" + pattern.charAt(pos) + "'");
+            }
+
+            return node;
+        }
+
+        private Node parseAlternatives() {
+            Node node = parseConcatenation();
+
+            while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+                pos++;
+                node = new Node(Node.ALTERNATIVE, node, parseConcatenation(), -1, 0, 0);
+            }
+
+            return node;
+        }
+
+        private Node parseConcatenation() {
+            Node node = new Node(Node.EMPTY, null, null, -1, 0, 0);
+
+            while (pos < pattern.length() && pattern.charAt(pos) != '|' && pattern.charAt(pos) != ')') {
+                Node repetition = parseRepetition();
+
+                node = node.type == Node.EMPTY
+                       ? repetition
+                       : new Node(Node.CONCAT, node, repetition, -1, 0, 0);
+            }
+
+            return node;
+        }
+
+        private Node parseRepetition() {
+            Node node = parseAtom();
+
+            while (pos < pattern.length()) {
+                char c = pattern.charAt(pos);
+
+                if (c == '*') {
+                    node = repeat(node, 0, Node.UNLIMITED);
+                } else if (c == '+') {
+                    node = repeat(node, 1, Node.UNLIMITED);
+                } else if (c == '?') {
+                    node = repeat(node, 0, 1);
+                } else if (c == '{') {
+                    node = parseBounds(node);
+                    continue;
+                } else {
+                    return node;
+                }
+
+                pos++;
+            }
+
+            return node;
+        }
+
+        private Node parseBounds(Node node) {
+            int close = pattern.indexOf('}', pos);
+
+            if (close < 0) {
+                throw error("Missing '}'");
+            }
+
+            String bounds = pattern.substring(pos + 1, close);
+            int comma = bounds.indexOf(',');
+            int min;
+            int max;
+
+            try {
+                min = Integer.parseInt(comma < 0 ? bounds : bounds.substring(0, comma));
+                max = comma < 0
+                      ? min
+                      : comma == bounds.length() - 1
+                        ? Node.UNLIMITED
+                        : Integer.parseInt(bounds.substring(comma + 1));
+            } catch (NumberFormatException ex) {
+                throw error("Invalid bounds {" + bounds + "}");
+            }
+
+            if (min < 0 || min > MAX_REPETITIONS || max > MAX_REPETITIONS
+                    || max != Node.UNLIMITED && max < min) {
+                throw error("Invalid bounds {" + bounds + "}, at most " + MAX_REPETITIONS + " repetitions");
+            }
+
+            pos = close + 1;
+
+            return repeat(node, min, max);
+        }
+
+        private Node repeat(Node node, int min, int max) {
+            if (node.type == Node.EMPTY) {
+                throw error("Nothing to repeat");
+            }
+
+            return new Node(Node.REPEAT, node, null, -1, min, max);
+        }
+
+        private Node parseAtom() {
+            char c = pattern.charAt(pos++);
+            CharSet charSet = new CharSet();
+
+            switch (c) {
+            case '(':
+                Node node = parseAlternatives();
+
+                if (pos >= pattern.length() || pattern.charAt(pos) != ')') {
+                    throw error("Missing ')'");
+                }
+
+                pos++;
+
+                return node;
+
+            case '[':
+                parseCharSet(charSet);
+                break;
+
+            case '.':
+                charSet.negated = true;
+                break;
+
+            case '\\':
+                parseEscape(charSet);
+                break;
+
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw error("Nothing to repeat");
+
+            default:
+                charSet.add(c, c);
+            }
+
+            return new Node(Node.CHARS, null, null, nfa.addCharSet(charSet), 0, 0);
+        }
+
+        private void parseEscape(CharSet charSet) {
+            if (pos >= pattern.length()) {
+                throw error("Incomplete escape");
+            }
+
+            char c = pattern.charAt(pos++);
+
+            switch (c) {
+            case 'd':
+                charSet.classes |= CharSet.DIGITS;
+                break;
+
+            case 'w':
+                charSet.classes |= CharSet.WORD_CHARS;
+                break;
+
+            case 's':
+                charSet.classes |= CharSet.SPACES;
+                break;
+
+            case 'D':
+                charSet.classes |= CharSet.NO_DIGITS;
+                break;
+
+            case 'W':
+                charSet.classes |= CharSet.NO_WORD_CHARS;
+                break;
+
+            case 'S':
+                charSet.classes |= CharSet.NO_SPACES;
+                break;
+
+            case 't':
+                charSet.add('\t', '\t');
+                break;
+
+            default:
+                if (Character.isLetterOrDigit(c)) {
+                    throw error("Unsupported escape \\" + c);
+                }
+
+                charSet.add(c, c);
+            }
+        }
+
+        private void parseCharSet(CharSet charSet) {
+            if (pos < pattern.length() && pattern.charAt(pos) == '^') {
+                charSet.negated = true;
+                pos++;
+            }
+
+            boolean first = true;
+
+            while (pos < pattern.length() && (first || pattern.charAt(pos) != ']')) {
+                char from = pattern.charAt(pos++);
+
+                first = false;
+
+                if (from == '\\') {
+                    CharSet escaped = new CharSet();
+
+                    parseEscape(escaped);
+
+                    if (escaped.classes != 0) {
+                        charSet.classes |= escaped.classes;
+                        continue;
+                    }
+
+                    from = escaped.ranges.charAt(0);
+                }
+
+                char to = from;
+
+                if (pos + 1 < pattern.length() && pattern.charAt(pos) == '-' && pattern.charAt(pos + 1) != ']') {
+                    to = pattern.charAt(pos + 1);
+                    pos += 2;
+
+                    if (to == '\\') {
+                        if (pos >= pattern.length()) {
+                            throw error("Incomplete escape");
+                        }
+
+                        to = pattern.charAt(pos++);
+                    }
+
+                    if (to < from) {
+                        throw error("Invalid range " + from + "-" + to);
+                    }
+                }
+
+                charSet.add(from, to);
+            }
+
+            if (pos >= pattern.length()) {
+                throw error("Missing ']'");
+            }
+
+            pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid pattern /" + pattern + "/: " + message + " at index "
+                                                + Math.min(pos, pattern.length()));
+        }
+    }
+
+    /**
+     * Classes of characters: Characters of the same class are contained in
+     * the same character sets and are the same kind of text character: word
+     * character, separator or line break.
+     */
+    private static final class Alphabet {
+
+        private final char[] classes = new char[Character.MAX_VALUE + 1];
+        private final int classCount;
+        private final boolean[] letterClasses;
+        private final boolean[] lineBreakClasses;
+        private final boolean[][] charSetClasses;
+        private final List<CharSet> charSets;
+        private final boolean ignoreCase;
+        private int[] foldGroupStarts;
+        private char[] foldGroups;
+
+        private Alphabet(List<CharSet> charSets, boolean ignoreCase) {
+            this.charSets = charSets;
+            this.ignoreCase = ignoreCase;
+
+            if (ignoreCase) {
+                initFoldGroups();
+            }
+
+            int[] ids = new int[classes.length];
+            int count = CLASS_LINE_BREAK + 1;
+
+            for (int c = 0; c < ids.length; c++) {
+                ids[c] = isLineBreak((char) c)
+                         ? CLASS_LINE_BREAK
+                         : Character.isLetterOrDigit((char) c)
+                           ? CLASS_LETTER
+                           : CLASS_SEPARATOR;
+            }
+
+            // Splitting the classes by the members of each character set
+            for (int set = 0; set < charSets.size(); set++) {
+                int[] memberIds = new int[count];
+
+                Arrays.fill(memberIds, -1);
+
+                for (int c = 0; c < ids.length; c++) {
+                    if (contains(set, (char) c)) {
+                        int id = ids[c];
+
+                        if (memberIds[id] < 0) {
+                            memberIds[id] = count++;
+                        }
+
+                        ids[c] = memberIds[id];
+                    }
+                }
+            }
+
+            // Numbering the classes without gaps
+            int[] classIndices = new int[count];
+            int classIndex = 0;
+
+            Arrays.fill(classIndices, -1);
+
+            for (int c = 0; c < ids.length; c++) {
+                if (classIndices[ids[c]] < 0) {
+                    classIndices[ids[c]] = classIndex++;
+                }
+
+                classes[c] = (char) classIndices[ids[c]];
+            }
+
+            classCount = classIndex;
+            letterClasses = new boolean[classCount];
+            lineBreakClasses = new boolean[classCount];
+            charSetClasses = new boolean[charSets.size()][classCount];
+
+            boolean[] visited = new boolean[classCount];
+
+            // All characters of a class are the same kind and within the same
+            // character sets as the first character of the class
+            for (int c = 0; c < classes.length; c++) {
+                int charClass = classes[c];
+
+                if (!visited[charClass]) {
+                    visited[charClass] = true;
+                    letterClasses[charClass] = Character.isLetterOrDigit((char) c);
+                    lineBreakClasses[charClass] = isLineBreak((char) c);
+
+                    for (int set = 0; set < charSets.size(); set++) {
+                        charSetClasses[set][charClass] = contains(set, (char) c);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Groups the characters with the same case folding.
+         */
+        private void initFoldGroups() {
+            int size = Character.MAX_VALUE + 1;
+
+            foldGroupStarts = new int[size + 1];
+            foldGroups = new char[size];
+
+            for (int c = 0; c < size; c++) {
+                foldGroupStarts[CaseFolding.fold((char) c) + 1]++;
+            }
+
+            for (int i = 0; i < size; i++) {
+                foldGroupStarts[i + 1] += foldGroupStarts[i];
+            }
+
+            int[] next = Arrays.copyOf(foldGroupStarts, size);
+
+            for (int c = 0; c < size; c++) {
+                foldGroups[next[CaseFolding.fold((char) c)]++] = (char) c;
+            }
+        }
+
+        private boolean contains(int set, char c) {
+            CharSet charSet = charSets.get(set);
+
+            if (!ignoreCase) {
+                return charSet.contains(c);
+            }
+
+            // A negated set contains no character differing only in case from
+            // a character of the set
+            char folded = CaseFolding.fold(c);
+            boolean contains = false;
+
+            for (int i = foldGroupStarts[folded]; !contains && i < foldGroupStarts[folded + 1]; i++) {
+                contains = charSet.containsUnnegated(foldGroups[i]);
+            }
+
+            return contains != charSet.negated;
+        }
+    }
+
+    /**
+     * Subset construction of the deterministic automaton. A thread is a
+     * position of the nondeterministic automaton and the count of words
+     * since the start of its pattern, encoded as
+     * <code>position * MAX_WORDS + words</code>.
+     */
+    private static final class Dfa {
+
+        private final Nfa nfa;
+        private final Alphabet alphabet;
+        private final Map<StateKey, Integer> states = new HashMap<StateKey, Integer>();
+        private final List<StateKey> stateKeys = new ArrayList<StateKey>();
+        private final int[][] startSuccessors;
+        private final int[] threadMarks;
+        private int mark;
+        private int[] transitions;
+        private boolean[] idleStates = new boolean[16];
+        private int[][] acceptWordOffsets = new int[16][];
+        private int[][] acceptPatterns = new int[16][];
+        private int stateCount;
+
+        private Dfa(Nfa nfa, Alphabet alphabet) {
+            this.nfa = nfa;
+            this.alphabet = alphabet;
+            threadMarks = new int[nfa.positionCount * MAX_WORDS];
+            transitions = new int[16 * alphabet.classCount];
+
+            IntList starts = new IntList();
+
+            mark++;
+
+            for (int start : nfa.starts) {
+                addClosure(start, 0, starts);
+            }
+
+            startSuccessors = new int[alphabet.classCount][];
+
+            for (int charClass = 0; charClass < alphabet.classCount; charClass++) {
+                IntList successors = new IntList();
+
+                mark++;
+
+                for (int i = 0; i < starts.size; i++) {
+                    addSuccessors(starts.values[i], charClass, successors);
+                }
+
+                startSuccessors[charClass] = successors.toSortedArray();
+            }
+
+            addState(new StateKey(true, new int[0]));
+
+            for (int state = 0; state < stateCount; state++) {
+                addTransitions(state);
+            }
+        }
+
+        private void addTransitions(int state) {
+            StateKey key = stateKeys.get(state);
+            int classCount = alphabet.classCount;
+
+            for (int charClass = 0; charClass < classCount; charClass++) {
+                int target = alphabet.lineBreakClasses[charClass]
+                             ? INITIAL_STATE
+                             : getState(next(key, charClass, alphabet.letterClasses[charClass]));
+
+                transitions[state * classCount + charClass] = target;
+            }
+        }
+
+        /**
+         * Returns the state after consuming a character of a class: At the
+         * start of a word the words of the running threads are counted and
+         * all patterns are started.
+         */
+        private StateKey next(StateKey key, int charClass, boolean letter) {
+            IntList threads = new IntList();
+            boolean wordStart = letter && key.separated;
+
+            mark++;
+
+            for (int thread : key.threads) {
+                if (!wordStart) {
+                    addSuccessors(thread, charClass, threads);
+                } else if (thread % MAX_WORDS < MAX_WORDS - 1) {
+                    addSuccessors(thread + 1, charClass, threads);
+                }
+            }
+
+            if (wordStart) {
+                for (int thread : startSuccessors[charClass]) {
+                    if (threadMarks[thread] != mark) {
+                        threadMarks[thread] = mark;
+                        threads.add(thread);
+                    }
+                }
+            }
+
+            return new StateKey(!letter, threads.toSortedArray());
+        }
+
+        private void addSuccessors(int thread, int charClass, IntList threads) {
+            int position = thread / MAX_WORDS;
+            int charSet = nfa.positionCharSets[position];
+
+            if (charSet >= 0 && alphabet.charSetClasses[charSet][charClass]) {
+                addClosure(nfa.targets[position], thread % MAX_WORDS, threads);
+            }
+        }
+
+        /**
+         * Adds the character consuming and accepting positions reachable
+         * without consuming a character, marked by {@link #mark}.
+         */
+        private void addClosure(int position, int words, IntList threads) {
+            IntList stack = new IntList();
+
+            stack.add(position);
+
+            while (stack.size > 0) {
+                int p = stack.values[--stack.size];
+                int thread = p * MAX_WORDS + words;
+
+                if (p < 0 || threadMarks[thread] == mark) {
+                    continue;
+                }
+
+                threadMarks[thread] = mark;
+
+                if (nfa.positionCharSets[p] >= 0 || nfa.accepts[p] >= 0) {
+                    threads.add(thread);
+                } else {
+                    stack.add(nfa.targets[p]);
+                    stack.add(nfa.branches[p]);
+                }
+            }
+        }
+
+        private int getState(StateKey key) {
+            Integer state = states.get(key);
+
+            return state == null
+                   ? addState(key)
+                   : state;
+        }
+
+        private int addState(StateKey key) {
+            int classCount = alphabet.classCount;
+
+            if (stateCount == MAX_STATES || (long) (stateCount + 1) * classCount > MAX_TRANSITIONS) {
+                throw new IllegalArgumentException("Patterns too complex, more than " + stateCount + " states");
+            }
+
+            if (stateCount == idleStates.length) {
+                int capacity = 2 * stateCount;
+
+                idleStates = Arrays.copyOf(idleStates, capacity);
+                acceptWordOffsets = Arrays.copyOf(acceptWordOffsets, capacity);
+                acceptPatterns = Arrays.copyOf(acceptPatterns, capacity);
+            }
+
+            if ((stateCount + 1) * classCount > transitions.length) {
+                transitions = Arrays.copyOf(transitions, Math.min(2 * transitions.length, MAX_TRANSITIONS));
+            }
+
+            int state = stateCount++;
+
+            states.put(key, state);
+            stateKeys.add(key);
+            idleStates[state] = key.threads.length == 0;
+            setAccepts(state, key.threads);
+
+            return state;
+        }
+
+        /**
+         * Sets the patterns ending in a state, per start word the lowest
+         * pattern index, ordered by their start words. The patterns are
+         * ordered by their wordbooks, hence the lowest pattern index has the
+         * lowest wordbook index.
+         */
+        private void setAccepts(int state, int[] threads) {
+            int[] patterns = new int[MAX_WORDS];
+            int count = 0;
+
+            Arrays.fill(patterns, -1);
+
+            for (int thread : threads) {
+                int accept = nfa.accepts[thread / MAX_WORDS];
+                int words = thread % MAX_WORDS;
+
+                if (accept >= 0 && (patterns[words] < 0 || accept < patterns[words])) {
+                    if (patterns[words] < 0) {
+                        count++;
+                    }
+
+                    patterns[words] = accept;
+                }
+            }
+
+            if (count == 0) {
+                return;
+            }
+
+            acceptWordOffsets[state] = new int[count];
+            acceptPatterns[state] = new int[count];
+
+            for (int words = MAX_WORDS - 1, i = 0; words >= 0; words--) {
+                if (patterns[words] >= 0) {
+                    acceptWordOffsets[state][i] = words;
+                    acceptPatterns[state][i] = patterns[words];
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * State of the deterministic automaton: whether the last character was
+     * not a letter or digit and the sorted threads.
+     */
+    private static final class StateKey {
+
+        private final boolean separated;
+        private final int[] threads;
+        private final int hashCode;
+
+        private StateKey(boolean separated, int[] threads) {
+            this.separated = separated;
+            this.threads = threads;
+            hashCode = 31 * Arrays.hashCode(threads) + (separated ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof StateKey)) {
+                return false;
+            }
+
+            StateKey other = (StateKey) obj;
+
+            return separated == other.separated && Arrays.equals(threads, other.threads);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Growable array of <code>int</code>s.
+     */
+    private static final class IntList {
+
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+
+            values[size++] = value;
+        }
+
+        private int[] toSortedArray() {
+            int[] array = Arrays.copyOf(values, size);
+
+            Arrays.sort(array);
+
+            return array;
+        }
+    }
+}
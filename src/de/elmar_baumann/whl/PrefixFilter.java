@@ -0,0 +1,93 @@
+package de.elmar_baumann.whl;
+
+/**
+ * Blocked Bloom filter of the edges of a trie: An edge is a state and a
+ * character, that is a prefix of a word of the trie.
+ * <p>
+ * The bits of an edge are within one block of 512 bits, so that checking an
+ * edge reads one cache line. About 1 of 100 edges not added is reported as
+ * contained.
+ *
+ * @author Elmar Baumann
+ */
+final class PrefixFilter {
+
+    private static final int BITS_PER_EDGE = 10;
+    private static final int BITS_PER_BLOCK = 512;
+    private static final int LONGS_PER_BLOCK = BITS_PER_BLOCK / 64;
+    private static final int HASH_COUNT = 6;
+    private final long[] bits;
+    private final int blockCount;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param edgeCount count of edges to be added
+     */
+    PrefixFilter(int edgeCount) {
+        long bitCount = Math.max(1, (long) edgeCount) * BITS_PER_EDGE;
+
+        blockCount = (int) Math.min(Integer.MAX_VALUE / LONGS_PER_BLOCK,
+                                    (bitCount + BITS_PER_BLOCK - 1) / BITS_PER_BLOCK);
+        bits = new long[blockCount * LONGS_PER_BLOCK];
+    }
+
+    void add(int state, char c) {
+        long hash = hash(state, c);
+        int base = getBlock(hash) * LONGS_PER_BLOCK;
+        int h = (int) hash;
+        int delta = (h >>> 9) | 1;
+
+        for (int i = 0; i < HASH_COUNT; i++, h += delta) {
+            int bit = h & (BITS_PER_BLOCK - 1);
+
+            bits[base + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Returns whether an edge may have been added.
+     *
+     * @param state state
+     * @param c     character
+     * @return      false if the edge has not been added, true if it has been
+     *              added or rarely if not
+     */
+    boolean mightContain(int state, char c) {
+        long hash = hash(state, c);
+        int base = getBlock(hash) * LONGS_PER_BLOCK;
+        int h = (int) hash;
+        int delta = (h >>> 9) | 1;
+
+        for (int i = 0; i < HASH_COUNT; i++, h += delta) {
+            int bit = h & (BITS_PER_BLOCK - 1);
+
+            if ((bits[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the block of a hash by its upper 32 bits, the lower 32 bits
+     * select the bits within the block by double hashing.
+     */
+    private int getBlock(long hash) {
+        return (int) (((hash >>> 32) * blockCount) >>> 32);
+    }
+
+    private static long hash(int state, char c) {
+        long h = ((long) state << 16 | c) * 0x9E3779B97F4A7C15L;
+
+        // Finalizer of MurmurHash3
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE53BA6CDL;
+        h ^= h >>> 33;
+
+        return h;
+    }
+}
@@ -0,0 +1,672 @@
+package de.elmar_baumann.whl;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Insets;
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+
+/**
+ * Highlighter painting large numbers of ranges ("spans") stored in sorted
+ * primitive arrays in addition to the highlights of a
+ * {@link DefaultHighlighter}, e.g. the selection.
+ * <p>
+ * Spans are painted behind the other highlights, only spans intersecting the
+ * clip bounds are painted. They are not part of {@link #getHighlights()}.
+ * Each style of the spans has its own painter. Spans with lower styles are
+ * painted above spans with higher styles, so that overlapping spans show the
+ * lowest style.
+ * <p>
+ * The spans of each key are indexed, see {@link #getOccurrenceCount(int)}.
+ * The index references the spans by ids, so that it is not changed when the
+ * spans are moved.
+ * <p>
+ * Unlike highlights, spans are not tracking document changes by positions:
+ * The owner has to call {@link #documentChanged(DocumentEvent)} for each
+ * document change <em>before</em> changing spans within its document listener.
+ * <p>
+ * The arrays are a gap buffer: The gap is moved to the spans at a change, the
+ * offsets of the spans after the gap are stored relative to a common delta.
+ * Hence a document change moves only the spans between the previous and the
+ * current change and the spans overlapping the change, not all spans after
+ * it, so that typing costs the same independent of the count of spans.
+ *
+ * @author Elmar Baumann
+ */
+public final class SpanHighlighter extends DefaultHighlighter {
+
+    private List<HighlightPainter> spanPainters =
+            Collections.<HighlightPainter>singletonList(new DefaultHighlightPainter(Color.YELLOW));
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] styles = new int[16];
+    private int[] keys = new int[16];
+
+    /**
+     * Id of each span with a key, referenced by the occurrence index, -1 if
+     * the span has no key.
+     */
+    private int[] ids = new int[16];
+
+    /**
+     * Array index of the span of each id.
+     */
+    private int[] idArrayIndices = new int[16];
+    private int[] freeIds = new int[16];
+    private int freeIdCount;
+    private int idCount;
+    private final OccurrenceIndex occurrences = new OccurrenceIndex(this);
+    private int size;
+
+    /**
+     * Index of the first span after the gap, the gap starts at this array
+     * index and has the length of the arrays minus {@link #size}.
+     */
+    private int gapStart;
+
+    /**
+     * Offset to add to the stored offsets of the spans after the gap.
+     */
+    private int gapDelta;
+    private int maxSpanLength;
+    private JTextComponent component;
+
+    /**
+     * Sets the painter of all span styles.
+     *
+     * @param painter painter
+     */
+    public void setSpanPainter(HighlightPainter painter) {
+        if (painter == null) {
+            throw new NullPointerException("painter == null");
+        }
+
+        setSpanPainters(Collections.singletonList(painter));
+    }
+
+    /**
+     * Sets the painters of the span styles.
+     *
+     * @param painters painter of each style, the last painter paints also
+     *                 spans of higher styles
+     */
+    public void setSpanPainters(List<? extends HighlightPainter> painters) {
+        if (painters == null) {
+            throw new NullPointerException("painters == null");
+        }
+
+        if (painters.isEmpty() || painters.contains(null)) {
+            throw new IllegalArgumentException("Empty painters or null painter");
+        }
+
+        spanPainters = new ArrayList<HighlightPainter>(painters);
+        repaint();
+    }
+
+    /**
+     * Replaces all spans.
+     *
+     * @param spans spans ordered by their start offsets
+     */
+    public void setSpans(Spans spans) {
+        if (spans == null) {
+            throw new NullPointerException("spans == null");
+        }
+
+        clear();
+        insert(0, spans);
+        repaint();
+    }
+
+    /**
+     * Replaces the spans starting within a range.
+     *
+     * @param start start offset
+     * @param end   end offset (inclusive)
+     * @param spans spans ordered by their start offsets, each has to start
+     *              within the range
+     */
+    public void replaceSpans(int start, int end, Spans spans) {
+        if (spans == null) {
+            throw new NullPointerException("spans == null");
+        }
+
+        int fromIndex = getFirstIndex(start);
+        int toIndex = getFirstIndex(end + 1);
+        int damageEnd = Math.max(end, getMaxEnd(fromIndex, toIndex));
+
+        remove(fromIndex, toIndex);
+        insert(fromIndex, spans);
+        damageRange(start, Math.max(damageEnd, getMaxEnd(fromIndex, fromIndex + spans.size())));
+    }
+
+    /**
+     * Removes the spans starting within a range.
+     *
+     * @param start start offset
+     * @param end   end offset (inclusive)
+     */
+    public void removeSpans(int start, int end) {
+        int fromIndex = getFirstIndex(start);
+        int toIndex = getFirstIndex(end + 1);
+        int damageEnd = Math.max(end, getMaxEnd(fromIndex, toIndex));
+
+        remove(fromIndex, toIndex);
+        damageRange(start, damageEnd);
+    }
+
+    public int getSpanCount() {
+        return size;
+    }
+
+    public int getSpanStart(int index) {
+        checkIndex(index);
+
+        return getStart(index);
+    }
+
+    public int getSpanEnd(int index) {
+        checkIndex(index);
+
+        return getEnd(index);
+    }
+
+    public int getSpanStyle(int index) {
+        checkIndex(index);
+
+        return styles[toArrayIndex(index)];
+    }
+
+    public int getSpanKey(int index) {
+        checkIndex(index);
+
+        return keys[toArrayIndex(index)];
+    }
+
+    /**
+     * Returns the index of the first span starting at or after an offset.
+     *
+     * @param  offset offset
+     * @return        index, the span count if no span starts at or after the
+     *                offset
+     */
+    public int getSpanIndex(int offset) {
+        return getFirstIndex(offset);
+    }
+
+    /**
+     * Returns the count of the spans of a key.
+     *
+     * @param  key key, see {@link Spans#add(int, int, int, int)}
+     * @return     count
+     */
+    public int getOccurrenceCount(int key) {
+        return occurrences.getCount(key);
+    }
+
+    /**
+     * Returns the start offset of the first span of a key starting after an
+     * offset.
+     *
+     * @param  key    key
+     * @param  offset offset
+     * @return        start offset or -1
+     */
+    public int getNextOccurrence(int key, int offset) {
+        return occurrences.getNext(key, offset);
+    }
+
+    /**
+     * Returns the start offset of the last span of a key starting before an
+     * offset.
+     *
+     * @param  key    key
+     * @param  offset offset
+     * @return        start offset or -1
+     */
+    public int getPreviousOccurrence(int key, int offset) {
+        return occurrences.getPrevious(key, offset);
+    }
+
+    /**
+     * Returns the start offsets of the spans of a key.
+     *
+     * @param  key key
+     * @return     start offsets in ascending order
+     */
+    public int[] getOccurrences(int key) {
+        return occurrences.getStarts(key);
+    }
+
+    /**
+     * Returns the keys of the spans.
+     *
+     * @return keys in ascending order
+     */
+    public int[] getOccurrenceKeys() {
+        return occurrences.getKeys();
+    }
+
+    /**
+     * Returns the keys whose spans have been added or removed since the last
+     * call, e.g. to refresh the counts of these keys only.
+     *
+     * @return keys or null, if the spans of all keys may have been changed,
+     *         e.g. after the spans have been set or the keys have been
+     *         replaced
+     */
+    public int[] takeChangedOccurrenceKeys() {
+        return occurrences.takeChangedKeys();
+    }
+
+    /**
+     * Replaces the keys of the spans, e.g. after the keys of the matched
+     * words have been changed, without moving the spans.
+     *
+     * @param oldKeys keys in ascending order, e.g. returned by
+     *                {@link #getOccurrenceKeys()}
+     * @param newKeys new key of each old key or {@link Spans#NO_KEY}, keys
+     *                not within <code>oldKeys</code> are replaced by
+     *                {@link Spans#NO_KEY}
+     */
+    public void mapKeys(int[] oldKeys, int[] newKeys) {
+        if (oldKeys == null) {
+            throw new NullPointerException("oldKeys == null");
+        }
+
+        if (newKeys == null) {
+            throw new NullPointerException("newKeys == null");
+        }
+
+        if (oldKeys.length != newKeys.length) {
+            throw new IllegalArgumentException("Count of old and new keys differ");
+        }
+
+        for (int i = 0; i < size; i++) {
+            int arrayIndex = toArrayIndex(i);
+
+            if (keys[arrayIndex] != Spans.NO_KEY) {
+                int index = Arrays.binarySearch(oldKeys, keys[arrayIndex]);
+
+                keys[arrayIndex] = index < 0
+                                   ? Spans.NO_KEY
+                                   : newKeys[index];
+
+                if (keys[arrayIndex] == Spans.NO_KEY) {
+                    freeId(ids[arrayIndex]);
+                    ids[arrayIndex] = -1;
+                }
+            }
+        }
+
+        occurrences.mapKeys(oldKeys, newKeys);
+    }
+
+    /**
+     * Moves the spans as a document change moves their text.
+     *
+     * @param e document event of an insert or remove
+     */
+    public void documentChanged(DocumentEvent e) {
+        int changeOffset = e.getOffset();
+        int changeLength = e.getLength();
+        boolean insert = e.getType() == DocumentEvent.EventType.INSERT;
+
+        if (!insert && e.getType() != DocumentEvent.EventType.REMOVE) {
+            return;
+        }
+
+        // The spans starting after the changed text are moved by the delta,
+        // the spans before it only if they overlap the change
+        int gapIndex = getFirstIndex(insert
+                                     ? changeOffset + 1
+                                     : changeOffset + changeLength);
+
+        moveGap(gapIndex);
+        gapDelta += insert
+                    ? changeLength
+                    : -changeLength;
+
+        for (int i = getFirstIndex(changeOffset - maxSpanLength); i < gapIndex; i++) {
+            starts[i] = insert
+                        ? moveInsert(starts[i], changeOffset, changeLength)
+                        : moveRemove(starts[i], changeOffset, changeLength);
+            ends[i] = insert
+                      ? moveInsert(ends[i], changeOffset, changeLength)
+                      : moveRemove(ends[i], changeOffset, changeLength);
+
+            // Text inserted into a span lengthens it
+            maxSpanLength = Math.max(maxSpanLength, ends[i] - starts[i]);
+        }
+    }
+
+    /**
+     * Returns the start offset of the span with an id.
+     */
+    int getIdStart(int id) {
+        int arrayIndex = idArrayIndices[id];
+
+        return arrayIndex < gapStart
+               ? starts[arrayIndex]
+               : starts[arrayIndex] + gapDelta;
+    }
+
+    private static int moveInsert(int offset, int changeOffset, int changeLength) {
+        return offset > changeOffset ? offset + changeLength : offset;
+    }
+
+    private static int moveRemove(int offset, int changeOffset, int changeLength) {
+        if (offset <= changeOffset) {
+            return offset;
+        }
+
+        return offset >= changeOffset + changeLength ? offset - changeLength : changeOffset;
+    }
+
+    @Override
+    public void install(JTextComponent c) {
+        super.install(c);
+        component = c;
+    }
+
+    @Override
+    public void deinstall(JTextComponent c) {
+        super.deinstall(c);
+        component = null;
+    }
+
+    @Override
+    public void removeAllHighlights() {
+        super.removeAllHighlights();
+        clear();
+        repaint();
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        if (component != null && size > 0) {
+            paintSpans(g);
+        }
+
+        super.paint(g);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void paintSpans(Graphics g) {
+        Rectangle bounds = component.getBounds();
+        Insets insets = component.getInsets();
+        Rectangle clip = g.getClipBounds();
+        Document doc = component.getDocument();
+        int clipStart = 0;
+        int clipEnd = doc.getLength();
+
+        bounds.x = insets.left;
+        bounds.y = insets.top;
+        bounds.width -= insets.left + insets.right;
+        bounds.height -= insets.top + insets.bottom;
+
+        if (clip != null) {
+            Element root = doc.getDefaultRootElement();
+            int viewStart = component.viewToModel(clip.getLocation());
+            int viewEnd = component.viewToModel(new Point(clip.x + clip.width, clip.y + clip.height));
+
+            if (viewStart >= 0 && viewEnd >= 0) {
+                clipStart = root.getElement(root.getElementIndex(viewStart)).getStartOffset();
+                clipEnd = root.getElement(root.getElementIndex(viewEnd)).getEndOffset();
+            }
+        }
+
+        int firstIndex = getFirstIndex(clipStart - maxSpanLength);
+        int lastStyle = spanPainters.size() - 1;
+
+        for (int style = lastStyle; style >= 0; style--) {
+            HighlightPainter painter = spanPainters.get(style);
+
+            for (int i = firstIndex; i < size; i++) {
+                int start = getStart(i);
+
+                if (start > clipEnd) {
+                    break;
+                }
+
+                int end = getEnd(i);
+
+                if (Math.min(styles[toArrayIndex(i)], lastStyle) == style && end >= clipStart && end > start) {
+                    painter.paint(g, start, end, bounds, component);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first span starting at or after an offset.
+     */
+    private int getFirstIndex(int offset) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (getStart(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private int toArrayIndex(int index) {
+        return index < gapStart
+               ? index
+               : index + starts.length - size;
+    }
+
+    private int getStart(int index) {
+        return index < gapStart
+               ? starts[index]
+               : starts[index + starts.length - size] + gapDelta;
+    }
+
+    private int getEnd(int index) {
+        return index < gapStart
+               ? ends[index]
+               : ends[index + starts.length - size] + gapDelta;
+    }
+
+    /**
+     * Moves the gap before a span, converting the offsets of the spans
+     * passing the gap.
+     */
+    private void moveGap(int index) {
+        int gapLength = starts.length - size;
+
+        if (index < gapStart) {
+            for (int i = gapStart - 1; i >= index; i--) {
+                moveSpan(i, i + gapLength, -gapDelta);
+            }
+        } else {
+            for (int i = gapStart; i < index; i++) {
+                moveSpan(i + gapLength, i, gapDelta);
+            }
+        }
+
+        gapStart = index;
+
+        if (gapStart == size) {
+            gapDelta = 0;
+        }
+    }
+
+    private void moveSpan(int fromArrayIndex, int toArrayIndex, int delta) {
+        starts[toArrayIndex] = starts[fromArrayIndex] + delta;
+        ends[toArrayIndex] = ends[fromArrayIndex] + delta;
+        styles[toArrayIndex] = styles[fromArrayIndex];
+        keys[toArrayIndex] = keys[fromArrayIndex];
+        ids[toArrayIndex] = ids[fromArrayIndex];
+
+        if (ids[toArrayIndex] >= 0) {
+            idArrayIndices[ids[toArrayIndex]] = toArrayIndex;
+        }
+    }
+
+    private void clear() {
+        size = 0;
+        gapStart = 0;
+        gapDelta = 0;
+        maxSpanLength = 0;
+        freeIdCount = 0;
+        idCount = 0;
+        occurrences.clear();
+    }
+
+    private void remove(int fromIndex, int toIndex) {
+        if (toIndex > fromIndex) {
+            moveGap(fromIndex);
+
+            for (int i = fromIndex; i < toIndex; i++) {
+                int arrayIndex = toArrayIndex(i);
+
+                if (ids[arrayIndex] >= 0) {
+                    occurrences.remove(keys[arrayIndex], ids[arrayIndex]);
+                    freeId(ids[arrayIndex]);
+                }
+            }
+
+            // The removed spans become part of the gap
+            size -= toIndex - fromIndex;
+        }
+    }
+
+    private void insert(int index, Spans spans) {
+        int count = spans.size();
+
+        if (count == 0) {
+            return;
+        }
+
+        moveGap(index);
+        ensureCapacity(size + count);
+
+        for (int i = 0; i < count; i++) {
+            int start = spans.getStart(i);
+            int end = spans.getEnd(i);
+            int key = spans.getKey(i);
+
+            starts[gapStart] = start;
+            ends[gapStart] = end;
+            styles[gapStart] = spans.getStyle(i);
+            keys[gapStart] = key;
+            ids[gapStart] = key == Spans.NO_KEY
+                            ? -1
+                            : newId(gapStart);
+            gapStart++;
+            size++;
+            maxSpanLength = Math.max(maxSpanLength, end - start);
+
+            if (key != Spans.NO_KEY) {
+                occurrences.add(key, ids[gapStart - 1]);
+            }
+        }
+    }
+
+    private int newId(int arrayIndex) {
+        int id;
+
+        if (freeIdCount > 0) {
+            id = freeIds[--freeIdCount];
+        } else {
+            if (idCount == idArrayIndices.length) {
+                idArrayIndices = Arrays.copyOf(idArrayIndices, 2 * idCount);
+            }
+
+            id = idCount++;
+        }
+
+        idArrayIndices[id] = arrayIndex;
+
+        return id;
+    }
+
+    private void freeId(int id) {
+        if (freeIdCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, 2 * freeIdCount);
+        }
+
+        freeIds[freeIdCount++] = id;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > starts.length) {
+            int newCapacity = Math.max(capacity, starts.length * 2);
+            int afterGapCount = size - gapStart;
+
+            starts = copyGapArray(starts, newCapacity, afterGapCount);
+            ends = copyGapArray(ends, newCapacity, afterGapCount);
+            styles = copyGapArray(styles, newCapacity, afterGapCount);
+            keys = copyGapArray(keys, newCapacity, afterGapCount);
+            ids = copyGapArray(ids, newCapacity, afterGapCount);
+
+            // The spans after the gap have new array indices
+            for (int i = newCapacity - afterGapCount; i < newCapacity; i++) {
+                if (ids[i] >= 0) {
+                    idArrayIndices[ids[i]] = i;
+                }
+            }
+        }
+    }
+
+    private int[] copyGapArray(int[] array, int newCapacity, int afterGapCount) {
+        int[] newArray = new int[newCapacity];
+
+        System.arraycopy(array, 0, newArray, 0, gapStart);
+        System.arraycopy(array, array.length - afterGapCount, newArray, newCapacity - afterGapCount, afterGapCount);
+
+        return newArray;
+    }
+
+    private int getMaxEnd(int fromIndex, int toIndex) {
+        int maxEnd = 0;
+
+        for (int i = fromIndex; i < toIndex; i++) {
+            maxEnd = Math.max(maxEnd, getEnd(i));
+        }
+
+        return maxEnd;
+    }
+
+    private void damageRange(int start, int end) {
+        if (component != null) {
+            int len = component.getDocument().getLength();
+            int damageStart = Math.max(0, Math.min(start, len));
+            int damageEnd = Math.max(damageStart, Math.min(end, len));
+
+            component.getUI().damageRange(component, damageStart, damageEnd);
+        }
+    }
+
+    private void repaint() {
+        if (component != null) {
+            component.repaint();
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package de.elmar_baumann.whl;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of text ranges stored in primitive arrays. Each range has a
+ * style, e.g. the index of the wordbook containing the highlighted word, and
+ * a key, e.g. identifying the highlighted word, see
+ * {@link SpanHighlighter#getOccurrenceCount(int)}.
+ *
+ * @author Elmar Baumann
+ */
+public final class Spans {
+
+    /**
+     * Key of ranges without key.
+     */
+    public static final int NO_KEY = -1;
+    private int[] starts;
+    private int[] ends;
+    private int[] styles;
+    private int[] keys;
+    private int size;
+
+    public Spans() {
+        this(16);
+    }
+
+    public Spans(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        starts = new int[capacity];
+        ends = new int[capacity];
+        styles = new int[capacity];
+        keys = new int[capacity];
+    }
+
+    /**
+     * Adds a range with style 0.
+     *
+     * @param start start offset
+     * @param end   end offset (exclusive)
+     */
+    public void add(int start, int end) {
+        add(start, end, 0);
+    }
+
+    /**
+     * Adds a range without key.
+     *
+     * @param start start offset
+     * @param end   end offset (exclusive)
+     * @param style style, at least 0
+     */
+    public void add(int start, int end, int style) {
+        add(start, end, style, NO_KEY);
+    }
+
+    /**
+     * Adds a range.
+     *
+     * @param start start offset
+     * @param end   end offset (exclusive)
+     * @param style style, at least 0
+     * @param key   key, at least 0, or {@link #NO_KEY}
+     */
+    public void add(int start, int end, int style, int key) {
+        if (size == starts.length) {
+            ensureCapacity(size * 2);
+        }
+
+        starts[size] = start;
+        ends[size] = end;
+        styles[size] = style;
+        keys[size] = key;
+        size++;
+    }
+
+    /**
+     * Appends all ranges of other spans.
+     *
+     * @param spans spans
+     */
+    public void addAll(Spans spans) {
+        if (spans == null) {
+            throw new NullPointerException("spans == null");
+        }
+
+        int capacity = size + spans.size;
+
+        if (capacity > starts.length) {
+            ensureCapacity(Math.max(capacity, starts.length * 2));
+        }
+
+        System.arraycopy(spans.starts, 0, starts, size, spans.size);
+        System.arraycopy(spans.ends, 0, ends, size, spans.size);
+        System.arraycopy(spans.styles, 0, styles, size, spans.size);
+        System.arraycopy(spans.keys, 0, keys, size, spans.size);
+        size = capacity;
+    }
+
+    /**
+     * Sorts a range of spans by their start and end offsets. Spans nearly in
+     * order are sorted fastest.
+     *
+     * @param fromIndex index of the first span to sort
+     * @param toIndex   index after the last span to sort
+     */
+    public void sort(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size);
+        }
+
+        for (int i = fromIndex + 1; i < toIndex; i++) {
+            int start = starts[i];
+            int end = ends[i];
+            int style = styles[i];
+            int key = keys[i];
+            int j = i - 1;
+
+            while (j >= fromIndex && (starts[j] > start || starts[j] == start && ends[j] > end)) {
+                starts[j + 1] = starts[j];
+                ends[j + 1] = ends[j];
+                styles[j + 1] = styles[j];
+                keys[j + 1] = keys[j];
+                j--;
+            }
+
+            starts[j + 1] = start;
+            ends[j + 1] = end;
+            styles[j + 1] = style;
+            keys[j + 1] = key;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        styles = Arrays.copyOf(styles, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+    }
+
+    public int getStart(int index) {
+        checkIndex(index);
+
+        return starts[index];
+    }
+
+    public int getEnd(int index) {
+        checkIndex(index);
+
+        return ends[index];
+    }
+
+    public int getStyle(int index) {
+        checkIndex(index);
+
+        return styles[index];
+    }
+
+    public int getKey(int index) {
+        checkIndex(index);
+
+        return keys[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
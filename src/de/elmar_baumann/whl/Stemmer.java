@@ -0,0 +1,21 @@
+package de.elmar_baumann.whl;
+
+/**
+ * Reduces words to their stems, so that inflected words match, e.g.
+ * <code>"connected"</code> and <code>"connections"</code> the stem
+ * <code>"connect"</code>. Implementations are thread safe.
+ *
+ * @author Elmar Baumann
+ */
+public interface Stemmer {
+
+    /**
+     * Returns the stem of a word.
+     *
+     * @param  word word consisting of letters and digits, lowercase or case
+     *              folded by {@link CaseFolding}
+     * @return      stem, <code>word</code> itself if it has no suffix to
+     *              remove
+     */
+    public String stem(String word);
+}
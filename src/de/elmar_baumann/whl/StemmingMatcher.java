@@ -0,0 +1,151 @@
+package de.elmar_baumann.whl;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Finds the words of a matcher within the stems of the words of a text, e.g.
+ * the word <code>"connect"</code> in <code>"connected"</code> and
+ * <code>"connections"</code>. The words of the matcher have to be stemmed by
+ * the same {@link Stemmer}, see {@link StemmingTextConverter}.
+ * <p>
+ * Each word of the text is replaced by its stem before matching, found words
+ * are mapped back to the text: A word ending at the end of a stem ends at the
+ * end of the word of the text. Words with uppercase characters are stemmed
+ * case folded and keep their case, see
+ * {@link StemmingTextConverter#stem(Stemmer, String)}. Found words keep their
+ * keys, so that all inflected words count for the stemmed entry, see
+ * {@link WordMatcher#getKey(String)}. The stems of the most recently matched
+ * words are cached, so that rematching an edited text stems only changed
+ * words.
+ *
+ * @author Elmar Baumann
+ */
+public final class StemmingMatcher implements TextMatcher {
+
+    private static final int CACHED_STEM_COUNT = 16 * 1024;
+    private final TextMatcher matcher;
+    private final Stemmer stemmer;
+    private final Map<String, String> stemCache = new LinkedHashMap<String, String>(CACHED_STEM_COUNT, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CACHED_STEM_COUNT;
+        }
+    };
+
+    /**
+     * Creates a matcher.
+     *
+     * @param matcher matcher of the stemmed words
+     * @param stemmer stemmer of the words of the text
+     */
+    public StemmingMatcher(TextMatcher matcher, Stemmer stemmer) {
+        if (matcher == null) {
+            throw new NullPointerException("matcher == null");
+        }
+
+        if (stemmer == null) {
+            throw new NullPointerException("stemmer == null");
+        }
+
+        this.matcher = matcher;
+        this.stemmer = stemmer;
+    }
+
+    public Stemmer getStemmer() {
+        return stemmer;
+    }
+
+    @Override
+    public void match(char[] text, int start, int end, boolean ignoreCase, int offset, Spans matches) {
+        if (text == null) {
+            throw new NullPointerException("text == null");
+        }
+
+        if (matches == null) {
+            throw new NullPointerException("matches == null");
+        }
+
+        StringBuilder stemmedText = new StringBuilder(end - start);
+        // Text index of each stemmed text index as end of a found word
+        int[] indices = new int[end - start + 1];
+        int i = start;
+
+        while (i < end) {
+            int wordEnd = i;
+
+            while (wordEnd < end && Character.isLetterOrDigit(text[wordEnd])) {
+                wordEnd++;
+            }
+
+            if (wordEnd == i) {
+                indices = ensureCapacity(indices, stemmedText.length() + 2);
+                indices[stemmedText.length()] = i;
+                stemmedText.append(text[i++]);
+                continue;
+            }
+
+            String stem = getStem(text, i, wordEnd, ignoreCase);
+
+            indices = ensureCapacity(indices, stemmedText.length() + stem.length() + 1);
+
+            for (int j = 0; j < stem.length(); j++) {
+                indices[stemmedText.length()] = i + Math.min(j, wordEnd - i);
+                stemmedText.append(stem.charAt(j));
+            }
+
+            i = wordEnd;
+        }
+
+        int length = stemmedText.length();
+        char[] stemmedChars = new char[length];
+        Spans stemMatches = new Spans();
+
+        indices[length] = end;
+        stemmedText.getChars(0, length, stemmedChars, 0);
+        matcher.match(stemmedChars, 0, length, ignoreCase, 0, stemMatches);
+
+        for (int k = 0; k < stemMatches.size(); k++) {
+            int matchStart = indices[stemMatches.getStart(k)];
+            int matchEnd = indices[stemMatches.getEnd(k)];
+
+            if (matchEnd > matchStart) {
+                matches.add(matchStart + offset, matchEnd + offset, stemMatches.getStyle(k), stemMatches.getKey(k));
+            }
+        }
+    }
+
+    private static int[] ensureCapacity(int[] indices, int capacity) {
+        return capacity > indices.length
+               ? Arrays.copyOf(indices, Math.max(capacity, 2 * indices.length))
+               : indices;
+    }
+
+    private String getStem(char[] text, int start, int end, boolean ignoreCase) {
+        String word = new String(text, start, end - start);
+
+        if (ignoreCase) {
+            word = CaseFolding.fold(word);
+        }
+
+        String stem;
+
+        synchronized (stemCache) {
+            stem = stemCache.get(word);
+        }
+
+        if (stem == null) {
+            stem = StemmingTextConverter.stem(stemmer, word);
+
+            synchronized (stemCache) {
+                stemCache.put(word, stem);
+            }
+        }
+
+        return stem;
+    }
+}
@@ -0,0 +1,81 @@
+package de.elmar_baumann.whl;
+
+/**
+ * Stems each word of a text, e.g. the words of a wordbook, so that they match
+ * the words of a text highlighted with the same {@link Stemmer}, see
+ * {@link TextHighlighter#setStemmer(Stemmer)}. Characters neither letters nor
+ * digits are not converted.
+ * <p>
+ * With ignored case, add this converter after a
+ * {@link CaseFoldingTextConverter}. Else words with uppercase characters are
+ * stemmed case folded and keep their case, see
+ * {@link #stem(Stemmer, String)}.
+ *
+ * @author Elmar Baumann
+ */
+public final class StemmingTextConverter implements TextConverter {
+
+    private final Stemmer stemmer;
+
+    public StemmingTextConverter(Stemmer stemmer) {
+        if (stemmer == null) {
+            throw new NullPointerException("stemmer == null");
+        }
+
+        this.stemmer = stemmer;
+    }
+
+    @Override
+    public String convert(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        int length = text.length();
+        int i = 0;
+
+        while (i < length) {
+            int wordEnd = i;
+
+            while (wordEnd < length && Character.isLetterOrDigit(text.charAt(wordEnd))) {
+                wordEnd++;
+            }
+
+            if (wordEnd > i) {
+                sb.append(stem(stemmer, text.substring(i, wordEnd)));
+                i = wordEnd;
+            } else {
+                sb.append(text.charAt(i++));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Stems a word of any case. The stemmer gets the word case folded,
+     * characters of the stem equal to the folded characters of the word keep
+     * the case of the word, e.g. <code>"Connected"</code> is stemmed to
+     * <code>"Connect"</code>.
+     *
+     * @param  stemmer stemmer
+     * @param  word    word consisting of letters and digits
+     * @return         stem
+     */
+    static String stem(Stemmer stemmer, String word) {
+        String foldedWord = CaseFolding.fold(word);
+        String stem = stemmer.stem(foldedWord);
+
+        // Folding may change the length, e.g. of a sharp s
+        if (foldedWord.equals(word) || foldedWord.length() != word.length()) {
+            return stem;
+        }
+
+        char[] chars = stem.toCharArray();
+
+        for (int i = 0; i < chars.length && i < word.length(); i++) {
+            if (chars[i] == foldedWord.charAt(i)) {
+                chars[i] = word.charAt(i);
+            }
+        }
+
+        return new String(chars);
+    }
+}
@@ -0,0 +1,186 @@
+package de.elmar_baumann.whl;
+
+/**
+ * Finds the words of a {@link WordMatcher} anywhere within the words of a
+ * text, e.g. <code>"the"</code> in <code>"leather"</code>.
+ * <p>
+ * The trie of the word matcher is extended to an Aho-Corasick automaton by
+ * failure links, so that a text is matched in one pass independent of the
+ * count of words. The nodes of the trie are in breadth first order, hence
+ * the links are computed in node order. Phrases of the word matcher are
+ * found across each run of characters neither letters nor digits within a
+ * line.
+ *
+ * @author Elmar Baumann
+ */
+public final class SubstringMatcher implements TextMatcher {
+
+    private static final int ROOT_STATE = 0;
+    private final WordMatcher matcher;
+    private final int[] failStates;
+    private final int[] outputStates;
+    private final int[] depths;
+    private final int maxDepth;
+
+    /**
+     * Creates a matcher.
+     *
+     * @param matcher matcher of the words
+     */
+    public SubstringMatcher(WordMatcher matcher) {
+        if (matcher == null) {
+            throw new NullPointerException("matcher == null");
+        }
+
+        int nodeCount = matcher.getNodeCount();
+        int depth = 0;
+
+        this.matcher = matcher;
+        failStates = new int[nodeCount];
+        outputStates = new int[nodeCount];
+        depths = new int[nodeCount];
+        outputStates[ROOT_STATE] = WordMatcher.NO_STATE;
+
+        for (int node = 0; node < nodeCount; node++) {
+            int edgeEnd = matcher.getFirstEdge(node + 1);
+
+            for (int edge = matcher.getFirstEdge(node); edge < edgeEnd; edge++) {
+                char c = matcher.getEdgeChar(edge);
+                int child = matcher.getEdgeTarget(edge);
+                int failState = node == ROOT_STATE
+                                ? ROOT_STATE
+                                : next(failStates[node], c);
+
+                failStates[child] = failState;
+                outputStates[child] = matcher.isWord(failState)
+                                      ? failState
+                                      : outputStates[failState];
+                depths[child] = depths[node] + 1;
+                depth = Math.max(depth, depths[child]);
+            }
+        }
+
+        maxDepth = depth;
+    }
+
+    /**
+     * Returns the state after consuming a character following failure links.
+     */
+    private int next(int state, char c) {
+        int s = state;
+
+        while (true) {
+            int nextState = matcher.next(s, c);
+
+            if (nextState != WordMatcher.NO_STATE) {
+                return nextState;
+            }
+
+            if (s == ROOT_STATE) {
+                return ROOT_STATE;
+            }
+
+            s = failStates[s];
+        }
+    }
+
+    /**
+     * Finds the words within the words of a text. Words overlapping each
+     * other are all found. Patterns are found as by the word matcher from
+     * the start to the end of words of the text. See
+     * {@link TextMatcher#match(char[], int, int, boolean, int, Spans)}.
+     */
+    @Override
+    public void match(char[] text, int start, int end, boolean ignoreCase, int offset, Spans matches) {
+        if (text == null) {
+            throw new NullPointerException("text == null");
+        }
+
+        if (matches == null) {
+            throw new NullPointerException("matches == null");
+        }
+
+        // Text index of the last consumed characters, negative for folded
+        // characters not being the first of their text character
+        int[] indices = new int[Math.max(1, maxDepth)];
+        int consumed = 0;
+        int state = ROOT_STATE;
+        int wordFirstMatch = matches.size();
+        boolean separated = true;
+        PatternAutomaton automaton = matcher.getPatterns(ignoreCase);
+        int[] wordStarts = new int[PatternAutomaton.MAX_WORDS];
+        int wordCount = 0;
+        int patternState = PatternAutomaton.INITIAL_STATE;
+        int nodeCount = matcher.getNodeCount();
+
+        for (int i = start; i < end; i++) {
+            char c = text[i];
+            boolean letter = Character.isLetterOrDigit(c);
+
+            if (!letter) {
+                if (WordMatcher.isLineBreak(c) || !matcher.hasPhrases()) {
+                    state = ROOT_STATE;
+                } else if (!separated && state != ROOT_STATE) {
+                    state = next(state, WordMatcher.PHRASE_SEPARATOR);
+                    indices[consumed++ % indices.length] = i;
+                }
+
+                separated = true;
+            } else {
+                if (separated) {
+                    wordStarts[wordCount++ % wordStarts.length] = i;
+                    separated = false;
+                }
+
+                char[] expansion = ignoreCase
+                                   ? CaseFolding.getExpansion(c)
+                                   : null;
+
+                if (expansion == null) {
+                    state = next(state, ignoreCase ? CaseFolding.fold(c) : c);
+                    indices[consumed++ % indices.length] = i;
+                } else {
+                    for (int j = 0; j < expansion.length; j++) {
+                        state = next(state, expansion[j]);
+                        indices[consumed++ % indices.length] = j == 0 ? i : -1;
+                    }
+                }
+
+                int output = matcher.isWord(state)
+                             ? state
+                             : outputStates[state];
+
+                while (output != WordMatcher.NO_STATE && output != ROOT_STATE) {
+                    int startIndex = indices[(consumed - depths[output]) % indices.length];
+
+                    // Words starting within the folded characters of a text
+                    // character are not words of the text
+                    if (startIndex >= 0) {
+                        matches.add(startIndex + offset, i + 1 + offset, matcher.getWordbookIndex(output), output);
+                    }
+
+                    output = outputStates[output];
+                }
+            }
+
+            if (automaton != null) {
+                patternState = automaton.next(patternState, c);
+
+                if (automaton.isAccepting(patternState)
+                        && (!letter || i + 1 == end || !Character.isLetterOrDigit(text[i + 1]))) {
+                    automaton.addMatches(patternState, wordStarts, wordCount, i + 1, offset, nodeCount, matches);
+                }
+            }
+
+            // No phrase or pattern continues, words found later start behind
+            // the words found so far
+            if (!letter && state == ROOT_STATE && (automaton == null || automaton.isIdle(patternState))) {
+                matches.sort(wordFirstMatch, matches.size());
+                wordFirstMatch = matches.size();
+                consumed = 0;
+            }
+        }
+
+        matches.sort(wordFirstMatch, matches.size());
+    }
+}
@@ -0,0 +1,193 @@
+package de.elmar_baumann.whl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.GapContent;
+import javax.swing.text.PlainDocument;
+
+/**
+ * Loads a text file into a new document chunk by chunk without holding the
+ * whole text as string.
+ * <p>
+ * The bytes are read through a {@link FileChannel} and decoded by a
+ * {@link CharsetDecoder} into a small buffer, which is appended to the
+ * document. Line separators will be converted to <code>'\n'</code> as expected
+ * by {@link PlainDocument}. The document content is presized to the file size,
+ * so that it don't has to grow while loading.
+ *
+ * @author Elmar Baumann
+ */
+public final class TextFileLoader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final Charset charset;
+
+    /**
+     * Creates a loader for files encoded with {@link Properties#TEXT_ENCODING}.
+     */
+    public TextFileLoader() {
+        this(Charset.forName(Properties.TEXT_ENCODING));
+    }
+
+    public TextFileLoader(Charset charset) {
+        if (charset == null) {
+            throw new NullPointerException("charset == null");
+        }
+
+        this.charset = charset;
+    }
+
+    /**
+     * Loads a text file. Can be called from any thread. If the current thread
+     * will be interrupted, loading stops with an
+     * {@link InterruptedIOException}.
+     *
+     * @param file     text file
+     * @param listener listener notified after each chunk or null
+     * @return         document with the text of the file
+     * @throws IOException on read errors
+     */
+    public Document load(File file, LoadProgressListener listener) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+
+        long fileSize = file.length();
+
+        if (fileSize >= Integer.MAX_VALUE) {
+            throw new IOException("File too large: " + file);
+        }
+
+        PlainDocument doc = new PlainDocument(new GapContent((int) fileSize + 1));
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        LineSeparatorConverter converter = new LineSeparatorConverter(doc);
+        FileInputStream fis = new FileInputStream(file);
+        FileChannel channel = fis.getChannel();
+        long bytesRead = 0;
+
+        try {
+            boolean eof = false;
+
+            while (!eof) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Loading has been interrupted: " + file);
+                }
+
+                int count = channel.read(bytes);
+
+                eof = count < 0;
+
+                if (count > 0) {
+                    bytesRead += count;
+                }
+
+                bytes.flip();
+                decode(decoder, bytes, chars, eof, converter);
+                bytes.compact();
+
+                if (listener != null) {
+                    listener.progress(bytesRead, fileSize);
+                }
+            }
+
+            flush(decoder, chars, converter);
+        } catch (BadLocationException ex) {
+            throw new IOException(ex);
+        } finally {
+            try {
+                fis.close();
+            } catch (IOException ex) {
+                Logger.getLogger(TextFileLoader.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+
+        return doc;
+    }
+
+    private static void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, boolean eof,
+            LineSeparatorConverter converter) throws BadLocationException {
+        CoderResult result;
+
+        do {
+            result = decoder.decode(bytes, chars, eof);
+            chars.flip();
+            converter.append(chars);
+            chars.clear();
+        } while (result.isOverflow());
+    }
+
+    private static void flush(CharsetDecoder decoder, CharBuffer chars, LineSeparatorConverter converter)
+            throws BadLocationException {
+        CoderResult result;
+
+        do {
+            result = decoder.flush(chars);
+            chars.flip();
+            converter.append(chars);
+            chars.clear();
+        } while (result.isOverflow());
+    }
+
+    /**
+     * Appends decoded chunks to the document, converting <code>"\r\n"</code>
+     * and <code>"\r"</code> to <code>"\n"</code>, also if a
+     * <code>"\r\n"</code> is split between two chunks.
+     */
+    private static final class LineSeparatorConverter {
+
+        private final Document doc;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private boolean pendingCarriageReturn;
+
+        private LineSeparatorConverter(Document doc) {
+            this.doc = doc;
+        }
+
+        private void append(CharBuffer chars) throws BadLocationException {
+            int count = 0;
+
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+
+                if (pendingCarriageReturn) {
+                    pendingCarriageReturn = false;
+
+                    if (c == '\n') {
+                        continue;    // '\n' already appended for the '\r'
+                    }
+                }
+
+                if (c == '\r') {
+                    pendingCarriageReturn = true;
+                    c = '\n';
+                }
+
+                buffer[count++] = c;
+            }
+
+            if (count > 0) {
+                doc.insertString(doc.getLength(), new String(buffer, 0, count), null);
+            }
+        }
+    }
+}
@@ -1,35 +1,214 @@
 package de.elmar_baumann.whl;
 
 import java.awt.Color;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.Set;
 
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultHighlighter;
-import javax.swing.text.Highlighter;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
 import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
 
 /**
  * @author Elmar Baumann
  */
 public final class TextHighlighter implements DocumentListener {
 
-    private final Highlighter hilit = new DefaultHighlighter();
-    private Highlighter.HighlightPainter painter = new DefaultHighlighter.DefaultHighlightPainter(Color.YELLOW);
+    private final SpanHighlighter hilit = new SpanHighlighter();
     private final JTextComponent tc;
-    private final Set<String> hlWords = new HashSet<String>();
+    private WordMatcher wordMatcher = new WordMatcher(Collections.<String>emptySet());
+    private TextMatcher matcher = wordMatcher;
+    private Stemmer stemmer;
+
+    /**
+     * Words stemmed by {@link #setStemmer(Stemmer)} before stemming, else
+     * null.
+     */
+    private WordMatcher unstemmedMatcher;
+    private boolean multiWordMatches;
+    private final Set<HighlightListener> highlightListeners = new CopyOnWriteArraySet<HighlightListener>();
     private final Set<Option> options = EnumSet.noneOf(Option.class);
-    private boolean inWord;
-    private int wordStartIndex = -1;
+    private static final int WORD_BOUNDARY_READ_LENGTH = 64;
+    private static final int COALESCE_DELAY_MILLISECONDS = 150;
+    private static final int BACKGROUND_CHUNK_LENGTH = 64 * 1024;
+    private static final int PARALLEL_CHUNK_LENGTH = 16 * ParallelMatcher.MIN_CHUNK_LENGTH;
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "WordHighlighter: Background highlighting");
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    });
+    private static final ExecutorService COUNT_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "WordHighlighter: Counting");
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    });
+    private static final int FILL_LENGTH = 512 * 1024;
+    private static final int COUNT_BATCH_PAGE_COUNT = 16;
+    private final Timer coalesceTimer;
+    private Future<?> pass;
+    private int passGeneration;
+
+    /**
+     * Ranges scanned by the running pass and the start offsets of their
+     * snapshots.
+     */
+    private List<Range> passRanges = Collections.emptyList();
+    private int[] passSnapshotStarts = new int[0];
+
+    /**
+     * Ranges waiting for a background pass ordered by their start offsets.
+     * Only overlapping ranges are merged, so that e.g. an edit and a region
+     * scrolled to far away are scanned without the text between them.
+     */
+    private final List<Range> dirtyRanges = new ArrayList<Range>();
+    private static final long EVICT_DELAY_MILLISECONDS = 30 * 1000;
+    private final JViewport viewport;
+
+    /**
+     * Highlighted ranges ordered by their start offsets, if the option
+     * {@link Option#VISIBLE_AREA} is set.
+     */
+    private final List<Region> regions = new ArrayList<Region>();
+    private MappedTextDocument pagedDoc;
+
+    /**
+     * Pages of {@link #pagedDoc} already highlighted.
+     */
+    private final BitSet highlightedPages = new BitSet();
+
+    /**
+     * Counts of the entries in all pages of {@link #pagedDoc} by their keys,
+     * if the option {@link Option#COUNT_ALL} is set, else null.
+     */
+    private int[] pageCounts;
+    private Future<?> countPass;
+    private int countGeneration;
+    private boolean fillScheduled;
+    private final PageDecodeListener pageDecodeListener = new PageDecodeListener() {
+
+        @Override
+        public void pageDecoded(final MappedTextDocument doc, final int page) {
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    highlightPage(doc, page);
+                }
+            });
+        }
+
+        @Override
+        public void pageEvicted(final MappedTextDocument doc, final int page) {
+            SwingUtilities.invokeLater(new Runnable() {
 
-    public enum Option { NO_OPTON, IGNORE_CASE,}
+                @Override
+                public void run() {
+                    removePageHighlights(doc, page);
+                }
+            });
+        }
+    };
+    private final Runnable visibleAreaHighlighter = new Runnable() {
+
+        @Override
+        public void run() {
+            highlightVisibleArea();
+        }
+    };
+    private final Runnable filler = new Runnable() {
+
+        @Override
+        public void run() {
+            fillNextRegion();
+        }
+    };
+
+    /**
+     * Options.
+     * <p>
+     * With {@link #IGNORE_CASE} text and words are compared case folded by
+     * {@link CaseFolding}, independent of the default locale.
+     * <p>
+     * With {@link #BACKGROUND} the text is scanned on a worker thread instead
+     * of within the document listener. Changes in quick succession are
+     * coalesced into one pass, a running pass is cancelled by a newer change.
+     * <p>
+     * With {@link #VISIBLE_AREA} only the lines visible in the viewport and
+     * a margin of as many lines above and below will be highlighted, further
+     * lines when scrolling. Highlights of lines not visible for a while will
+     * be removed. The text component has to be the view of a
+     * {@link JViewport} when the highlighter is created.
+     * <p>
+     * With {@link #PARALLEL} large ranges are matched in parallel by the
+     * {@link ParallelMatcher}.
+     * <p>
+     * With {@link #SUBSTRINGS} words will be highlighted also within words of
+     * the text, e.g. <code>"the"</code> in <code>"leather"</code>, by a
+     * {@link SubstringMatcher}.
+     * <p>
+     * With {@link #PREFILTER} a Bloom filter of the prefixes of the words is
+     * built when the words are set, so that most characters of the text not
+     * continuing a word are rejected before searching the trie, see
+     * {@link WordMatcher#withPrefixFilter()}. Worthwhile for wordbooks of
+     * millions of words.
+     * <p>
+     * With {@link #COUNT_ALL} the entries are counted in the whole text, also
+     * with {@link #VISIBLE_AREA}: after the visible area the remaining text
+     * is highlighted range by range and its highlights are not removed. The
+     * pages of a {@link MappedTextDocument} are counted once on a worker
+     * thread without caching them, see {@link #getMatchCount(String)}.
+     * <p>
+     * Independent of the options, a {@link MappedTextDocument} is highlighted
+     * page by page when its pages are decoded. The highlights of a page are
+     * removed when the page is evicted from the document's page cache and
+     * restored when it is decoded again, so that the highlights don't grow
+     * with the pages viewed.
+     */
+    public enum Option { NO_OPTON, IGNORE_CASE, BACKGROUND, VISIBLE_AREA, PARALLEL, SUBSTRINGS, PREFILTER, COUNT_ALL,}
 
     public TextHighlighter(JTextComponent tc, Option... options) {
         if (tc == null) {
@@ -38,8 +217,129 @@ public final class TextHighlighter implements DocumentListener {
 
         this.tc = tc;
         this.options.addAll(Arrays.asList(options));
+        coalesceTimer = new Timer(COALESCE_DELAY_MILLISECONDS, new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                startBackgroundPass();
+            }
+        });
+        coalesceTimer.setRepeats(false);
         tc.setHighlighter(hilit);
         tc.getDocument().addDocumentListener(this);
+        tc.addPropertyChangeListener("document", new PropertyChangeListener() {
+
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                documentReplaced((Document) evt.getOldValue(), (Document) evt.getNewValue());
+            }
+        });
+        viewport = getVisibleAreaViewport();
+        setPagedDocument(tc.getDocument());
+    }
+
+    private synchronized void documentReplaced(Document oldDoc, Document newDoc) {
+        if (oldDoc != null) {
+            oldDoc.removeDocumentListener(this);
+        }
+
+        if (pagedDoc != null) {
+            pagedDoc.removePageDecodeListener(pageDecodeListener);
+        }
+
+        setPagedDocument(newDoc);
+
+        cancelBackgroundPass();
+        dirtyRanges.clear();
+        regions.clear();
+        hilit.setSpans(new Spans());
+        fireHighlightsChanged();
+
+        if (newDoc != null) {
+            newDoc.addDocumentListener(this);
+            highlight();
+        }
+    }
+
+    private void setPagedDocument(Document doc) {
+        highlightedPages.clear();
+        pagedDoc = doc instanceof MappedTextDocument
+                   ? (MappedTextDocument) doc
+                   : null;
+
+        if (pagedDoc != null) {
+            pagedDoc.addPageDecodeListener(pageDecodeListener);
+        }
+
+        startPageCount();
+    }
+
+    /**
+     * Counts the entries of all pages of a {@link MappedTextDocument} on a
+     * worker thread with the option {@link Option#COUNT_ALL}, cancelling a
+     * running count. The counts grow as the pages are counted.
+     */
+    private void startPageCount() {
+        countGeneration++;
+
+        if (countPass != null) {
+            countPass.cancel(true);
+            countPass = null;
+        }
+
+        if (pagedDoc == null || !options.contains(Option.COUNT_ALL)) {
+            pageCounts = null;
+            return;
+        }
+
+        pageCounts = new int[wordMatcher.getKeyCount()];
+        countPass = COUNT_EXECUTOR.submit(new CountPass(pagedDoc, countGeneration, matcher));
+        fireHighlightsChanged(null);
+    }
+
+    private synchronized void addPageCounts(int generation, int[] keys) {
+        if (generation != countGeneration) {
+            return;    // The document or the words have been changed
+        }
+
+        int[] changedKeys = new int[keys.length];
+        int changedKeyCount = 0;
+
+        Arrays.sort(keys);
+
+        for (int key : keys) {
+            if (key >= 0 && key < pageCounts.length) {
+                pageCounts[key]++;
+
+                if (changedKeyCount == 0 || changedKeys[changedKeyCount - 1] != key) {
+                    changedKeys[changedKeyCount++] = key;
+                }
+            }
+        }
+
+        fireHighlightsChanged(Arrays.copyOf(changedKeys, changedKeyCount));
+    }
+
+    private JViewport getVisibleAreaViewport() {
+        if (!options.contains(Option.VISIBLE_AREA)) {
+            return null;
+        }
+
+        if (!(tc.getParent() instanceof JViewport)) {
+            throw new IllegalArgumentException("The text component isn't the view of a viewport");
+        }
+
+        JViewport vp = (JViewport) tc.getParent();
+
+        vp.addChangeListener(new ChangeListener() {
+
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                highlightVisibleArea();
+            }
+        });
+
+        return vp;
     }
 
     public synchronized void setHighlightColor(Color color) {
@@ -47,9 +347,40 @@ public final class TextHighlighter implements DocumentListener {
             throw new NullPointerException("color == null");
         }
 
-        painter = new DefaultHighlighter.DefaultHighlightPainter(color);
+        hilit.setSpanPainter(new DefaultHighlighter.DefaultHighlightPainter(color));
+    }
+
+    /**
+     * Sets the colors of the wordbooks of a merged matcher, see
+     * {@link WordMatcher#merge(List)}. Where words of several wordbooks
+     * overlap, the color of the wordbook with the lowest index is visible.
+     *
+     * @param colors color of each wordbook, the last color is also used for
+     *               wordbooks with higher indices
+     */
+    public synchronized void setHighlightColors(List<Color> colors) {
+        if (colors == null) {
+            throw new NullPointerException("colors == null");
+        }
+
+        List<DefaultHighlighter.DefaultHighlightPainter> painters =
+                new ArrayList<DefaultHighlighter.DefaultHighlightPainter>(colors.size());
+
+        for (Color color : colors) {
+            if (color == null) {
+                throw new NullPointerException("color == null");
+            }
+
+            painters.add(new DefaultHighlighter.DefaultHighlightPainter(color));
+        }
+
+        hilit.setSpanPainters(painters);
     }
 
+    /**
+     * Conversion of words. With the option {@link Option#IGNORE_CASE},
+     * {@link #TO_LOWERCASE} case folds the words by {@link CaseFolding}.
+     */
     public enum Convert { NONE, TO_LOWERCASE,}
 
     /**
@@ -60,7 +391,19 @@ public final class TextHighlighter implements DocumentListener {
      * beginning of the word, not substrings within a word. E.g. if
      * <code>words</code> containing <code>"the"</code>, then the
      * <code>"the"</code> itself and in <code>"theology"</code> will
-     * be highlighted, but <em>not</em> in <code>"leather"</code>).
+     * be highlighted, but <em>not</em> in <code>"leather"</code>). With the
+     * option {@link Option#SUBSTRINGS} also <code>"leather"</code> will be
+     * highlighted.
+     * <p>
+     * Words containing characters neither letters nor digits are phrases,
+     * e.g. <code>"service level agreement"</code>. They will be highlighted
+     * across each run of such characters within a line, see
+     * {@link WordMatcher#WordMatcher(java.util.Collection)}. Words between
+     * slashes are patterns, e.g. <code>"/AB-\d{4}/"</code>, see
+     * {@link PatternAutomaton}.
+     * <p>
+     * If a stemmer is set, the words will be stemmed by it, see
+     * {@link #setStemmer(Stemmer)}.
      *
      * @param words   words
      * @param convert conversion <code>words</code>. If the option
@@ -77,78 +420,1328 @@ public final class TextHighlighter implements DocumentListener {
             throw new NullPointerException("convert == null");
         }
 
-        hlWords.clear();
+        setMatcher(createMatcher(words, convert, options.contains(Option.IGNORE_CASE), stemmer));
+        unstemmedMatcher = null;
+        highlight();
+    }
 
-        if (options.contains(Option.IGNORE_CASE) && convert.equals(Convert.TO_LOWERCASE)) {
-            addAsLowercase(words);
-        } else {
-            hlWords.addAll(words);
+    /**
+     * Sets the words to highlight from a matcher, e.g. of a
+     * {@link CompiledWordbook}.
+     *
+     * @param matcher matcher. If the option {@link Option#IGNORE_CASE} is
+     *                set, its words have to be case folded. If a stemmer is
+     *                set, its words have to be stemmed by the stemmer, see
+     *                {@link StemmingTextConverter}.
+     */
+    public synchronized void setHighlightWords(WordMatcher matcher) {
+        if (matcher == null) {
+            throw new NullPointerException("matcher == null");
         }
 
+        setMatcher(matcher);
+        unstemmedMatcher = null;
         highlight();
     }
 
-    private synchronized void addAsLowercase(Set<String> wds) {
-        for (String word : wds) {
-            hlWords.add(word.toLowerCase());
+    /**
+     * Sets the words to highlight after some words have been added or
+     * removed, e.g. after a wordbook file has been changed. Instead of
+     * highlighting the whole text again, only the occurrences of the changed
+     * words are highlighted again, extended to the word or, if the changed
+     * words contain phrases or patterns, line boundaries. The highlights of
+     * removed words are looked up in the occurrence index, see
+     * {@link #getMatchCount(String)}, the highlighted text is scanned only
+     * for added words. Highlighted pages of a
+     * {@link MappedTextDocument} containing changed words are highlighted
+     * again completely.
+     *
+     * @param matcher        matcher of all words, see
+     *                       {@link #setHighlightWords(WordMatcher)}
+     * @param changedMatcher matcher of the added and removed words converted
+     *                       like the words of <code>matcher</code>, see
+     *                       {@link WordMatcher#getChangedEntries(WordMatcher, WordMatcher)}
+     */
+    public synchronized void updateHighlightWords(WordMatcher matcher, WordMatcher changedMatcher) {
+        if (matcher == null) {
+            throw new NullPointerException("matcher == null");
+        }
+
+        if (changedMatcher == null) {
+            throw new NullPointerException("changedMatcher == null");
         }
-    }
 
-    public synchronized void highlight() {
-        highlight(0);
-    }
+        PackedWords scannedWords = new PackedWords();
+        // Removed words are looked up by the keys of the current matcher
+        Spans removedOccurrences = pagedDoc == null
+                                   ? getRemovedOccurrences(changedMatcher.getEntries(), matcher, scannedWords)
+                                   : new Spans();
+
+        setMatcher(matcher);
+        unstemmedMatcher = null;
 
-    // Bug: Does only support adding words. Using offset 0 (zero) if words
-    // were removed
-    private synchronized void highlight(int offset) {
-        if (offset < 1) {
-            hilit.removeAllHighlights();
-            wordStartIndex = -1;
+        if (changedMatcher.getWordCount() == 0) {
+            return;
         }
 
-        String text = tc.getText();
-        int len = text.length();
-        String currentWord = "";
+        // Pending and running passes have to use the new words
+        if (options.contains(Option.BACKGROUND)) {
+            cancelBackgroundPass();
 
-        for (int i = offset; i < len; i++) {
-            inWord = Character.isLetterOrDigit(text.charAt(i));
+            if (!dirtyRanges.isEmpty()) {
+                coalesceTimer.restart();
+            }
+        }
+
+        TextMatcher changed = toTextMatcher(changedMatcher);
+        boolean lines = changedMatcher.hasPhrases() || changedMatcher.hasPatterns();
+
+        if (pagedDoc != null) {
+            for (int page = highlightedPages.nextSetBit(0); page >= 0; page = highlightedPages.nextSetBit(page + 1)) {
+                if (!pagedDoc.isPageCached(page)) {
+                    removePageHighlights(pagedDoc, page);    // Will be highlighted when decoded again
+                } else if (containsChanges(changed, pagedDoc.getPageStartOffset(page),
+                                           pagedDoc.getPageEndOffset(page))) {
+                    highlightedPages.clear(page);
+                    highlightPage(pagedDoc, page);
+                }
+            }
+            return;
+        }
+
+        highlightOccurrences(removedOccurrences, lines);
+
+        if (scannedWords.isEmpty()) {
+            return;
+        }
+
+        changed = toTextMatcher(new WordMatcher(scannedWords));
+
+        if (viewport != null) {
+            for (Region region : new ArrayList<Region>(regions)) {
+                highlightChanges(changed, lines, region.start, region.end);
+            }
+        } else {
+            highlightChanges(changed, lines, 0, tc.getDocument().getLength());
+        }
+    }
 
-            if (inWord && (wordStartIndex == -1)) {
-                wordStartIndex = i;
-            } else if (!inWord) {
-                wordStartIndex = -1;
+    /**
+     * Returns the indexed occurrences of words no longer highlighted.
+     *
+     * @param changedWords changed words
+     * @param newMatcher   matcher of all words after the change
+     * @param scannedWords the words to scan for will be added to it: the
+     *                     added words
+     * @return             occurrences ordered by their start offsets
+     */
+    private Spans getRemovedOccurrences(PackedWords changedWords, WordMatcher newMatcher, PackedWords scannedWords) {
+        long[] ranges = new long[16];
+        int rangeCount = 0;
+
+        for (String word : changedWords) {
+            if (newMatcher.getKey(word) != Spans.NO_KEY) {
+                scannedWords.add(word);
+                continue;
             }
 
-            if (inWord) {
-                currentWord = text.substring(wordStartIndex, i + 1);
+            int key = wordMatcher.getKey(word);
 
-                if (options.contains(Option.IGNORE_CASE)) {
-                    currentWord = currentWord.toLowerCase();
+            for (int start : hilit.getOccurrences(key)) {
+                if (rangeCount == ranges.length) {
+                    ranges = Arrays.copyOf(ranges, 2 * rangeCount);
                 }
 
-                if (hlWords.contains(currentWord)) {
-                    try {
-                        hilit.addHighlight(wordStartIndex, i + 1, painter);
-                    } catch (BadLocationException ex) {
-                        Logger.getLogger(TextHighlighter.class.getName()).log(Level.SEVERE, null, ex);
-                    }
+                ranges[rangeCount++] = (long) start << 32 | getMatchEnd(key, start);
+            }
+        }
+
+        // Ordering the occurrences of all words by their start offsets
+        Arrays.sort(ranges, 0, rangeCount);
+
+        Spans occurrences = new Spans(Math.max(1, rangeCount));
+
+        for (int i = 0; i < rangeCount; i++) {
+            occurrences.add((int) (ranges[i] >>> 32), (int) ranges[i]);
+        }
+
+        return occurrences;
+    }
+
+    private boolean containsChanges(TextMatcher changed, int start, int end) {
+        Segment text = new Segment();
+        Spans occurrences = new Spans();
+
+        try {
+            pagedDoc.getText(start, end - start, text);
+            changed.match(text.array, text.offset, text.offset + text.count, options.contains(Option.IGNORE_CASE),
+                          start - text.offset, occurrences);
+        } catch (BadLocationException ex) {
+            Logger.getLogger(TextHighlighter.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
+        return occurrences.size() > 0;
+    }
+
+    /**
+     * Highlights the occurrences of changed words within a range again
+     * without waiting for a background pass: the occurrences are short and
+     * the changed words shall replace the highlights of the old ones at
+     * once.
+     */
+    private void highlightChanges(TextMatcher changed, boolean lines, int start, int end) {
+        Document doc = tc.getDocument();
+        Element root = doc.getDefaultRootElement();
+
+        try {
+            // Removed phrases may have been highlighted beyond the range
+            int scanStart = root.getElement(root.getElementIndex(start)).getStartOffset();
+            int scanEnd = Math.min(doc.getLength(), root.getElement(root.getElementIndex(end)).getEndOffset());
+            Segment text = new Segment();
+
+            doc.getText(scanStart, scanEnd - scanStart, text);
+
+            highlightOccurrences(match(changed, text.array, text.offset, text.offset + text.count,
+                                       scanStart - text.offset), lines);
+        } catch (BadLocationException ex) {
+            Logger.getLogger(TextHighlighter.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Highlights the ranges of occurrences again, merging overlapping ranges.
+     *
+     * @param occurrences occurrences ordered by their start offsets
+     * @param lines       true, if the ranges shall be extended to lines
+     */
+    private void highlightOccurrences(Spans occurrences, boolean lines) {
+        Document doc = tc.getDocument();
+        Element root = doc.getDefaultRootElement();
+        int rangeStart = -1;
+        int rangeEnd = -1;
+
+        for (int i = 0; i < occurrences.size(); i++) {
+            int occurrenceStart = occurrences.getStart(i);
+            int occurrenceEnd = occurrences.getEnd(i);
+
+            if (lines) {
+                occurrenceStart = root.getElement(root.getElementIndex(occurrenceStart)).getStartOffset();
+                occurrenceEnd = Math.min(doc.getLength(),
+                        root.getElement(root.getElementIndex(occurrenceEnd)).getEndOffset());
+            }
+
+            if (occurrenceStart > rangeEnd) {
+                if (rangeStart >= 0) {
+                    highlightNow(rangeStart, rangeEnd);
                 }
+
+                rangeStart = occurrenceStart;
             }
+
+            rangeEnd = Math.max(rangeEnd, occurrenceEnd);
+        }
+
+        if (rangeStart >= 0) {
+            highlightNow(rangeStart, rangeEnd);
         }
     }
 
-    @Override
-    public void insertUpdate(DocumentEvent e) {
-        highlight(0);
+    /**
+     * Sets the stemmer of the words of the text, so that words will be
+     * highlighted also in inflected words, e.g. <code>"connect"</code> in
+     * <code>"connected"</code> and <code>"connections"</code>. Each word of
+     * the text is stemmed before matching, the stems are cached.
+     * <p>
+     * Words already set are stemmed by the stemmer, words set later by
+     * {@link #setHighlightWords(Set, Convert)} will be stemmed by the stemmer
+     * set at that time. Patterns are matched against the stemmed text.
+     * Words stemmed by this method are stemmed again from the unstemmed words
+     * when the stemmer is changed, but words set while a stemmer is set are
+     * stemmed and can't be restored: set them again after changing the
+     * stemmer.
+     *
+     * @param stemmer stemmer, e.g. {@link EnglishStemmer} or
+     *                {@link GermanStemmer}, or null, if the words of the text
+     *                shall not be stemmed. Default: null.
+     * @throws IllegalStateException if the stemmer is changed while words
+     *                               set with another stemmer are set
+     */
+    public synchronized void setStemmer(Stemmer stemmer) {
+        if (stemmer == this.stemmer) {
+            return;
+        }
+
+        WordMatcher words = unstemmedMatcher;
+
+        if (words == null) {
+            if (this.stemmer != null && wordMatcher.getWordCount() > 0) {
+                throw new IllegalStateException("The words have been stemmed by another stemmer");
+            }
+
+            words = wordMatcher;
+        }
+
+        this.stemmer = stemmer;
+
+        if (stemmer == null || words.getWordCount() == 0) {
+            setMatcher(words);
+            unstemmedMatcher = null;
+        } else {
+            setMatcher(words.convert(new StemmingTextConverter(stemmer)));
+            unstemmedMatcher = words;
+        }
+
+        highlight();
     }
 
-    @Override
-    public void removeUpdate(DocumentEvent e) {
-        highlight(0);
+    private void setMatcher(WordMatcher newMatcher) {
+        WordMatcher oldMatcher = wordMatcher;
+
+        wordMatcher = options.contains(Option.PREFILTER)
+                      ? newMatcher.withPrefixFilter()
+                      : newMatcher;
+        multiWordMatches = wordMatcher.hasPhrases() || wordMatcher.hasPatterns();
+        matcher = toTextMatcher(wordMatcher);
+        mapKeys(oldMatcher, wordMatcher);
+        startPageCount();
     }
 
-    @Override
-    public void changedUpdate(DocumentEvent e) {
-        highlight(0);
+    /**
+     * Replaces the keys of the highlights by the keys of the same entries of
+     * a new matcher, so that the highlights not highlighted again keep being
+     * counted. Only the keys of highlighted entries are looked up.
+     */
+    private void mapKeys(WordMatcher oldMatcher, WordMatcher newMatcher) {
+        if (oldMatcher == newMatcher) {
+            return;
+        }
+
+        int[] oldKeys = hilit.getOccurrenceKeys();
+        int[] newKeys = new int[oldKeys.length];
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            String entry = oldMatcher.getEntry(oldKeys[i]);
+
+            newKeys[i] = entry == null
+                         ? Spans.NO_KEY
+                         : newMatcher.getKey(entry);
+        }
+
+        hilit.mapKeys(oldKeys, newKeys);
+    }
+
+    /**
+     * Returns a matcher matching the text as set by the options and the
+     * stemmer.
+     */
+    private TextMatcher toTextMatcher(WordMatcher m) {
+        TextMatcher textMatcher = options.contains(Option.SUBSTRINGS)
+                                  ? new SubstringMatcher(m)
+                                  : m;
+
+        return stemmer == null
+               ? textMatcher
+               : new StemmingMatcher(textMatcher, stemmer);
+    }
+
+    /**
+     * Creates the matcher used by {@link #setHighlightWords(Set, Convert)},
+     * e.g. for matching text outside of a text component with the same rules.
+     *
+     * @param words      words
+     * @param convert    conversion of <code>words</code>
+     * @param ignoreCase true, if the matcher will be used with the option
+     *                   {@link Option#IGNORE_CASE}
+     * @return           matcher
+     */
+    public static WordMatcher createMatcher(Set<String> words, Convert convert, boolean ignoreCase) {
+        return createMatcher(words, convert, ignoreCase, null);
+    }
+
+    /**
+     * Creates the matcher used by {@link #setHighlightWords(Set, Convert)}
+     * with a stemmer, see {@link #setStemmer(Stemmer)}. The returned matcher
+     * has to be wrapped into a {@link StemmingMatcher} with the same stemmer.
+     *
+     * @param words      words
+     * @param convert    conversion of <code>words</code>
+     * @param ignoreCase true, if the matcher will be used with the option
+     *                   {@link Option#IGNORE_CASE}
+     * @param stemmer    stemmer of the words or null
+     * @return           matcher
+     */
+    public static WordMatcher createMatcher(Set<String> words, Convert convert, boolean ignoreCase, Stemmer stemmer) {
+        if (words == null) {
+            throw new NullPointerException("words == null");
+        }
+
+        if (convert == null) {
+            throw new NullPointerException("convert == null");
+        }
+
+        boolean fold = ignoreCase && convert.equals(Convert.TO_LOWERCASE);
+
+        return fold || stemmer != null
+               ? new WordMatcher(convert(words, fold, stemmer))
+               : new WordMatcher(words);
+    }
+
+    private static Collection<String> convert(Set<String> words, boolean fold, Stemmer stemmer) {
+        PackedWords convertedWords = new PackedWords(words.size());
+        TextConverter stemmingConverter = stemmer == null
+                                          ? null
+                                          : new StemmingTextConverter(stemmer);
+
+        for (String word : words) {
+            // Patterns are compiled case insensitive instead and not stemmed
+            if (PatternAutomaton.isPattern(word)) {
+                convertedWords.add(word);
+            } else {
+                String convertedWord = fold
+                                       ? CaseFolding.fold(word)
+                                       : word;
+
+                convertedWords.add(stemmingConverter == null
+                                   ? convertedWord
+                                   : stemmingConverter.convert(convertedWord));
+            }
+        }
+
+        return convertedWords;
+    }
+
+    public void addHighlightListener(HighlightListener listener) {
+        highlightListeners.add(listener);
+    }
+
+    public void removeHighlightListener(HighlightListener listener) {
+        highlightListeners.remove(listener);
+    }
+
+    private void fireHighlightsChanged() {
+        fireHighlightsChanged(hilit.takeChangedOccurrenceKeys());
+    }
+
+    private void fireHighlightsChanged(int[] keys) {
+        for (HighlightListener listener : highlightListeners) {
+            listener.highlightsChanged(keys);
+        }
+    }
+
+    /**
+     * Returns how often an entry is highlighted. Each highlight is indexed
+     * by the entry producing it, see {@link WordMatcher#getKey(String)}, as
+     * it is highlighted and moved as the document changes, so that counting
+     * and navigating doesn't read the text. A pattern counts all its matches
+     * and, if a stemmer is set, a word all inflected words. Only highlighted
+     * text is indexed, e.g. only the highlighted regions with the option
+     * {@link Option#VISIBLE_AREA}, unless the option
+     * {@link Option#COUNT_ALL} is set. A {@link MappedTextDocument} is
+     * counted then by scanning all its pages, the navigation still finds only
+     * the highlights of the cached pages.
+     *
+     * @param  word entry, e.g. <code>"/AB-\d{4}/"</code>, or word converted
+     *              into an entry as by
+     *              {@link #setHighlightWords(Set, Convert)} with
+     *              {@link Convert#TO_LOWERCASE}
+     * @return      count of highlights
+     */
+    public synchronized int getMatchCount(String word) {
+        if (word == null) {
+            throw new NullPointerException("word == null");
+        }
+
+        return getCount(getEntryKey(word));
+    }
+
+    private int getCount(int key) {
+        if (pageCounts != null) {
+            return key >= 0 && key < pageCounts.length
+                   ? pageCounts[key]
+                   : 0;
+        }
+
+        return hilit.getOccurrenceCount(key);
+    }
+
+    /**
+     * Returns the highlighted entries with their counts, see
+     * {@link #getMatchCount(String)}.
+     *
+     * @return entries with at least one highlight as returned by
+     *         {@link WordMatcher#getEntries()} and their counts
+     */
+    public synchronized Map<String, Integer> getMatchCounts() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+
+        for (int key : getCountedKeys()) {
+            String entry = wordMatcher.getEntry(key);
+
+            if (entry != null) {
+                counts.put(entry, getCount(key));
+            }
+        }
+
+        return counts;
+    }
+
+    private int[] getCountedKeys() {
+        if (pageCounts == null) {
+            return hilit.getOccurrenceKeys();
+        }
+
+        int[] keys = new int[16];
+        int keyCount = 0;
+
+        for (int key = 0; key < pageCounts.length; key++) {
+            if (pageCounts[key] > 0) {
+                if (keyCount == keys.length) {
+                    keys = Arrays.copyOf(keys, 2 * keyCount);
+                }
+
+                keys[keyCount++] = key;
+            }
+        }
+
+        return Arrays.copyOf(keys, keyCount);
+    }
+
+    /**
+     * Returns how often entries are highlighted by their keys, e.g. to
+     * refresh the counts of the keys passed to a {@link HighlightListener}.
+     *
+     * @param  keys keys of entries of the matcher set by
+     *              {@link #setHighlightWords(WordMatcher)}, see
+     *              {@link WordMatcher#getEntryKeys()}
+     * @return      count of highlights of each key by its index, see
+     *              {@link #getMatchCount(String)}
+     */
+    public synchronized int[] getMatchCounts(int[] keys) {
+        if (keys == null) {
+            throw new NullPointerException("keys == null");
+        }
+
+        int[] counts = new int[keys.length];
+
+        for (int index = 0; index < keys.length; index++) {
+            counts[index] = getCount(keys[index]);
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns how often each of some entries is highlighted, e.g. of all
+     * entries of a wordbook, see {@link #getMatchCount(String)}.
+     *
+     * @param  words entries, e.g. of a matcher, see
+     *               {@link WordMatcher#getEntries()}
+     * @return       count of highlights of each entry by its index
+     */
+    public synchronized int[] getMatchCounts(PackedWords words) {
+        if (words == null) {
+            throw new NullPointerException("words == null");
+        }
+
+        int[] counts = new int[words.size()];
+
+        for (int index = 0; index < counts.length; index++) {
+            counts[index] = getCount(getEntryKey(words.get(index)));
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns the key of an entry, of the converted word if the word is no
+     * entry.
+     */
+    private int getEntryKey(String word) {
+        int key = wordMatcher.getKey(word);
+        boolean fold = options.contains(Option.IGNORE_CASE);
+
+        if (key == Spans.NO_KEY && !PatternAutomaton.isPattern(word) && (fold || stemmer != null)) {
+            for (String entry : convert(Collections.singleton(word), fold, stemmer)) {
+                key = wordMatcher.getKey(entry);
+            }
+        }
+
+        return key;
+    }
+
+    /**
+     * Returns the start of the first highlighted word starting after an
+     * offset, e.g. to navigate to the next match.
+     *
+     * @param  offset offset, e.g. of the caret
+     * @return        start offset or -1
+     */
+    public synchronized int getNextMatch(int offset) {
+        int index = hilit.getSpanIndex(offset + 1);
+
+        return index < hilit.getSpanCount()
+               ? hilit.getSpanStart(index)
+               : -1;
+    }
+
+    /**
+     * Returns the start of the last highlighted word starting before an
+     * offset.
+     *
+     * @param  offset offset, e.g. of the caret
+     * @return        start offset or -1
+     */
+    public synchronized int getPreviousMatch(int offset) {
+        int index = hilit.getSpanIndex(offset) - 1;
+
+        return index >= 0
+               ? hilit.getSpanStart(index)
+               : -1;
+    }
+
+    /**
+     * Returns the start of the first highlight of a word starting after an
+     * offset, see {@link #getMatchCount(String)}.
+     *
+     * @param  word   word
+     * @param  offset offset, e.g. of the caret
+     * @return        start offset or -1
+     */
+    public synchronized int getNextMatch(String word, int offset) {
+        if (word == null) {
+            throw new NullPointerException("word == null");
+        }
+
+        return hilit.getNextOccurrence(getEntryKey(word), offset);
+    }
+
+    /**
+     * Returns the start of the last highlight of a word starting before an
+     * offset, see {@link #getMatchCount(String)}.
+     *
+     * @param  word   word
+     * @param  offset offset, e.g. of the caret
+     * @return        start offset or -1
+     */
+    public synchronized int getPreviousMatch(String word, int offset) {
+        if (word == null) {
+            throw new NullPointerException("word == null");
+        }
+
+        return hilit.getPreviousOccurrence(getEntryKey(word), offset);
+    }
+
+    /**
+     * Returns the end of the longest highlighted word starting at an offset.
+     *
+     * @param  start start offset, e.g. returned by {@link #getNextMatch(int)}
+     * @return       end offset (exclusive) or -1, if no highlighted word
+     *               starts at that offset
+     */
+    public synchronized int getMatchEnd(int start) {
+        int end = -1;
+
+        for (int i = hilit.getSpanIndex(start); i < hilit.getSpanCount() && hilit.getSpanStart(i) == start; i++) {
+            end = Math.max(end, hilit.getSpanEnd(i));
+        }
+
+        return end;
+    }
+
+    private int getMatchEnd(int key, int start) {
+        for (int i = hilit.getSpanIndex(start); i < hilit.getSpanCount() && hilit.getSpanStart(i) == start; i++) {
+            if (hilit.getSpanKey(i) == key) {
+                return hilit.getSpanEnd(i);
+            }
+        }
+
+        return start;
+    }
+
+    /**
+     * Highlights the whole text of the text component.
+     */
+    public synchronized void highlight() {
+        if (pagedDoc != null) {
+            highlightedPages.clear();
+            hilit.setSpans(new Spans());
+            fireHighlightsChanged();
+
+            for (int page : pagedDoc.getCachedPages()) {
+                highlightPage(pagedDoc, page);
+            }
+        } else if (viewport != null) {
+            cancelBackgroundPass();
+            dirtyRanges.clear();
+            hilit.removeSpans(0, tc.getDocument().getLength());
+            fireHighlightsChanged();
+            regions.clear();
+            highlightVisibleArea();
+        } else {
+            highlight(0, tc.getDocument().getLength());
+        }
+    }
+
+    /**
+     * Replaces the highlights of all words touching a text range.
+     * <p>
+     * The range will be extended to the word boundaries, so that words
+     * partially within the range will be rescanned completely. If the words
+     * contain phrases or patterns, the range will be extended to the line
+     * boundaries. With the option
+     * {@link Option#BACKGROUND} the range is scanned later on a worker thread.
+     *
+     * @param start start offset
+     * @param end   end offset (exclusive)
+     */
+    private synchronized void highlight(int start, int end) {
+        if (options.contains(Option.BACKGROUND)) {
+            scheduleBackgroundHighlight(start, end);
+            return;
+        }
+
+        highlightNow(start, end);
+    }
+
+    private void highlightNow(int start, int end) {
+        Document doc = tc.getDocument();
+        long startNanos = System.nanoTime();
+
+        try {
+            int wordStart = getWordStart(doc, start);
+            int wordEnd = getWordEnd(doc, end);
+            Segment text = new Segment();
+
+            doc.getText(wordStart, wordEnd - wordStart, text);
+
+            Spans matches = match(matcher, text.array, text.offset, text.offset + text.count,
+                                  wordStart - text.offset);
+
+            if (wordStart == 0 && wordEnd == doc.getLength()) {
+                hilit.setSpans(matches);
+            } else {
+                hilit.replaceSpans(wordStart, wordEnd, matches);
+            }
+
+            fireHighlightsChanged();
+
+            HighlightMetrics.getInstance().passFinished(System.nanoTime() - startNanos, text.count, matches.size());
+        } catch (BadLocationException ex) {
+            Logger.getLogger(TextHighlighter.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Matches a text, in parallel if the option {@link Option#PARALLEL} is
+     * set and the text is large enough.
+     */
+    private Spans match(TextMatcher m, char[] text, int start, int end, int offset) throws InterruptedException {
+        boolean ignoreCase = options.contains(Option.IGNORE_CASE);
+
+        if (options.contains(Option.PARALLEL) && end - start >= 2 * ParallelMatcher.MIN_CHUNK_LENGTH) {
+            return ParallelMatcher.match(m, text, start, end, ignoreCase, offset);
+        }
+
+        Spans matches = new Spans();
+
+        m.match(text, start, end, ignoreCase, offset, matches);
+
+        return matches;
+    }
+
+    private int getWordStart(Document doc, int offset) throws BadLocationException {
+        if (multiWordMatches) {
+            Element root = doc.getDefaultRootElement();
+
+            return root.getElement(root.getElementIndex(offset)).getStartOffset();
+        }
+
+        Segment text = new Segment();
+        int start = offset;
+
+        while (start > 0) {
+            int readStart = Math.max(0, start - WORD_BOUNDARY_READ_LENGTH);
+
+            doc.getText(readStart, start - readStart, text);
+
+            for (int i = text.offset + text.count - 1; i >= text.offset; i--) {
+                if (!Character.isLetterOrDigit(text.array[i])) {
+                    return start;
+                }
+                start--;
+            }
+        }
+
+        return start;
+    }
+
+    private int getWordEnd(Document doc, int offset) throws BadLocationException {
+        int len = doc.getLength();
+
+        if (multiWordMatches) {
+            Element root = doc.getDefaultRootElement();
+
+            return Math.min(len, root.getElement(root.getElementIndex(offset)).getEndOffset() - 1);
+        }
+
+        Segment text = new Segment();
+        int end = offset;
+
+        while (end < len) {
+            doc.getText(end, Math.min(WORD_BOUNDARY_READ_LENGTH, len - end), text);
+
+            for (int i = text.offset; i < text.offset + text.count; i++) {
+                if (!Character.isLetterOrDigit(text.array[i])) {
+                    return end;
+                }
+                end++;
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * Adds a range to the ranges waiting for a background highlight pass and
+     * restarts the coalesce timer. A running pass is cancelled, its range will
+     * be scanned again by the next pass.
+     */
+    private void scheduleBackgroundHighlight(int start, int end) {
+        cancelBackgroundPass();
+        addDirtyRange(start, end);
+        coalesceTimer.restart();
+    }
+
+    /**
+     * Adds a range to the dirty ranges, merging it with the ranges it
+     * overlaps.
+     */
+    private void addDirtyRange(int start, int end) {
+        addRange(dirtyRanges, start, end);
+    }
+
+    private static void addRange(List<Range> ranges, int start, int end) {
+        int index = 0;
+        Range range = new Range(start, end);
+
+        while (index < ranges.size() && ranges.get(index).end < start) {
+            index++;
+        }
+
+        while (index < ranges.size() && ranges.get(index).start <= range.end) {
+            Range overlapped = ranges.remove(index);
+
+            range.start = Math.min(range.start, overlapped.start);
+            range.end = Math.max(range.end, overlapped.end);
+        }
+
+        ranges.add(index, range);
+    }
+
+    private void cancelBackgroundPass() {
+        passGeneration++;
+
+        if (pass != null) {
+            pass.cancel(true);
+            pass = null;
+
+            for (Range range : passRanges) {
+                addDirtyRange(range.start, range.end);
+            }
+        }
+    }
+
+    private synchronized void startBackgroundPass() {
+        if (dirtyRanges.isEmpty()) {
+            return;
+        }
+
+        Document doc = tc.getDocument();
+
+        try {
+            int len = doc.getLength();
+            List<Range> ranges = new ArrayList<Range>(dirtyRanges.size());
+
+            // Ranges extended to the same word are scanned once
+            for (Range dirtyRange : dirtyRanges) {
+                addRange(ranges, getWordStart(doc, Math.min(dirtyRange.start, len)),
+                         getWordEnd(doc, Math.min(dirtyRange.end, len)));
+            }
+
+            char[][] snapshots = new char[ranges.size()][];
+            int[] snapshotStarts = new int[ranges.size()];
+            Segment text = new Segment();
+
+            for (int i = 0; i < snapshots.length; i++) {
+                Range range = ranges.get(i);
+
+                doc.getText(range.start, range.end - range.start, text);
+
+                // Copying, the segment may share the document's array
+                snapshots[i] = Arrays.copyOfRange(text.array, text.offset, text.offset + text.count);
+                snapshotStarts[i] = range.start;
+            }
+
+            dirtyRanges.clear();
+            passRanges = ranges;
+            passSnapshotStarts = snapshotStarts;
+            pass = EXECUTOR.submit(new BackgroundPass(snapshots, snapshotStarts, ++passGeneration, matcher));
+        } catch (BadLocationException ex) {
+            Logger.getLogger(TextHighlighter.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private synchronized void finishBackgroundPass(int generation, Spans[] matches) {
+        if (generation != passGeneration) {
+            return;    // The document has been changed since the pass started
+        }
+
+        pass = null;
+
+        for (int i = 0; i < matches.length; i++) {
+            Range range = passRanges.get(i);
+
+            // Changes not touching a range have moved it since the pass
+            // started
+            hilit.replaceSpans(range.start, range.end, move(matches[i], range.start - passSnapshotStarts[i]));
+        }
+
+        fireHighlightsChanged();
+        scheduleFill();
+    }
+
+    private static Spans move(Spans spans, int delta) {
+        if (delta == 0) {
+            return spans;
+        }
+
+        Spans movedSpans = new Spans(Math.max(1, spans.size()));
+
+        for (int i = 0; i < spans.size(); i++) {
+            movedSpans.add(spans.getStart(i) + delta, spans.getEnd(i) + delta, spans.getStyle(i), spans.getKey(i));
+        }
+
+        return movedSpans;
+    }
+
+    /**
+     * Moves a document offset of a pending or running pass as the document
+     * change moves the text at that offset.
+     */
+    private static int moveOffset(int offset, DocumentEvent e) {
+        int changeOffset = e.getOffset();
+        int changeLength = e.getLength();
+
+        if (e.getType() == DocumentEvent.EventType.INSERT) {
+            return offset > changeOffset ? offset + changeLength : offset;
+        } else if (e.getType() == DocumentEvent.EventType.REMOVE) {
+            if (offset <= changeOffset) {
+                return offset;
+            }
+
+            return offset >= changeOffset + changeLength ? offset - changeLength : changeOffset;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Highlights a page of a {@link MappedTextDocument} once, if it is still
+     * cached. Pages end at word boundaries, so that a page can be scanned
+     * without reading its neighbours.
+     */
+    private synchronized void highlightPage(MappedTextDocument doc, int page) {
+        if (doc != pagedDoc || highlightedPages.get(page) || !doc.isPageCached(page)) {
+            return;
+        }
+
+        int start = doc.getPageStartOffset(page);
+        int end = doc.getPageEndOffset(page);
+        Segment text = new Segment();
+        Spans matches = new Spans();
+        long startNanos = System.nanoTime();
+
+        try {
+            doc.getText(start, end - start, text);
+            matcher.match(text.array, text.offset, text.offset + text.count,
+                    options.contains(Option.IGNORE_CASE), start - text.offset, matches);
+            hilit.replaceSpans(start, end - 1, matches);
+            fireHighlightsChanged();
+            highlightedPages.set(page);
+            HighlightMetrics.getInstance().passFinished(System.nanoTime() - startNanos, text.count, matches.size());
+        } catch (BadLocationException ex) {
+            Logger.getLogger(TextHighlighter.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Removes the highlights of a page of a {@link MappedTextDocument}
+     * evicted from its page cache, if it hasn't been decoded again meanwhile.
+     */
+    private synchronized void removePageHighlights(MappedTextDocument doc, int page) {
+        if (doc != pagedDoc || !highlightedPages.get(page) || doc.isPageCached(page)) {
+            return;
+        }
+
+        hilit.removeSpans(doc.getPageStartOffset(page), doc.getPageEndOffset(page) - 1);
+        highlightedPages.clear(page);
+        fireHighlightsChanged();
+    }
+
+    /**
+     * Highlights the not yet highlighted text of the visible lines and of as
+     * many lines above and below and removes the highlights of regions which
+     * haven't been visible for {@link #EVICT_DELAY_MILLISECONDS}, unless the
+     * option {@link Option#COUNT_ALL} is set.
+     */
+    private synchronized void highlightVisibleArea() {
+        if (pagedDoc != null) {
+            return;    // Visible pages are highlighted when decoded
+        }
+
+        Rectangle viewRect = viewport.getViewRect();
+        Document doc = tc.getDocument();
+        Element root = doc.getDefaultRootElement();
+        int firstLine = root.getElementIndex(tc.viewToModel(viewRect.getLocation()));
+        int lastLine = root.getElementIndex(tc.viewToModel(
+                new Point(viewRect.x + viewRect.width, viewRect.y + viewRect.height)));
+        int marginLines = lastLine - firstLine + 1;
+        int start = root.getElement(Math.max(0, firstLine - marginLines)).getStartOffset();
+        int end = Math.min(doc.getLength(),
+                root.getElement(Math.min(root.getElementCount() - 1, lastLine + marginLines)).getEndOffset());
+        long now = System.currentTimeMillis();
+        int uncoveredStart = start;
+
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = regions.get(i);
+
+            if (region.end < start || region.start > end) {
+                if (now - region.lastVisible > EVICT_DELAY_MILLISECONDS && !options.contains(Option.COUNT_ALL)) {
+                    hilit.removeSpans(region.start, region.end - 1);
+                    fireHighlightsChanged();
+                    regions.remove(i--);
+                }
+                continue;
+            }
+
+            region.lastVisible = now;
+
+            if (region.start > uncoveredStart) {
+                highlightRegion(i++, uncoveredStart, region.start, now);
+            }
+
+            uncoveredStart = Math.max(uncoveredStart, region.end);
+        }
+
+        if (uncoveredStart < end) {
+            highlightRegion(getRegionIndex(uncoveredStart), uncoveredStart, end, now);
+        }
+
+        scheduleFill();
+    }
+
+    /**
+     * Highlights the next not highlighted range after the visible area has
+     * been highlighted, if the option {@link Option#COUNT_ALL} is set.
+     */
+    private void scheduleFill() {
+        if (viewport != null && options.contains(Option.COUNT_ALL) && !fillScheduled) {
+            fillScheduled = true;
+            SwingUtilities.invokeLater(filler);
+        }
+    }
+
+    /**
+     * Highlights the first not highlighted range of at most
+     * {@link #FILL_LENGTH} characters, extended to the line end. One range is
+     * highlighted at a time: with the option {@link Option#BACKGROUND} the
+     * next after the pass, else in the next event, so that the Event
+     * Dispatch Thread isn't blocked until the whole text is highlighted.
+     */
+    private synchronized void fillNextRegion() {
+        fillScheduled = false;
+
+        if (pagedDoc != null || pass != null || !dirtyRanges.isEmpty()) {
+            return;    // Continued after the pass
+        }
+
+        Document doc = tc.getDocument();
+        Element root = doc.getDefaultRootElement();
+        int len = doc.getLength();
+        int start = 0;
+        int index = 0;
+
+        while (index < regions.size() && regions.get(index).start <= start) {
+            start = Math.max(start, regions.get(index).end);
+            index++;
+        }
+
+        if (start >= len) {
+            return;
+        }
+
+        int end = index < regions.size()
+                  ? regions.get(index).start
+                  : len;
+
+        if (end - start > FILL_LENGTH) {
+            end = Math.min(end, root.getElement(root.getElementIndex(start + FILL_LENGTH)).getEndOffset());
+        }
+
+        highlightRegion(index, start, end, System.currentTimeMillis());
+
+        if (!options.contains(Option.BACKGROUND)) {
+            scheduleFill();
+        }
+    }
+
+    private void highlightRegion(int index, int start, int end, long now) {
+        Region region = new Region(start, end);
+
+        region.lastVisible = now;
+        regions.add(index, region);
+        highlight(start, end);
+    }
+
+    private int getRegionIndex(int offset) {
+        int index = 0;
+
+        while (index < regions.size() && regions.get(index).start < offset) {
+            index++;
+        }
+
+        return index;
+    }
+
+    /**
+     * Moves the highlighted regions as the document change moves their text,
+     * text inserted at the end of a region becomes part of it.
+     *
+     * @return true, if the changed range touches a highlighted region
+     */
+    private boolean moveRegions(DocumentEvent e, int start, int end) {
+        boolean touched = false;
+
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = regions.get(i);
+            int regionEnd = region.end;
+
+            if (e.getType() == DocumentEvent.EventType.INSERT && regionEnd == e.getOffset()) {
+                regionEnd += e.getLength();
+            }
+
+            region.start = moveOffset(region.start, e);
+            region.end = moveOffset(regionEnd, e);
+            touched |= region.start <= end && region.end >= start;
+
+            if (region.start >= region.end) {
+                regions.remove(i--);
+            }
+        }
+
+        return touched;
+    }
+
+    private static void moveRanges(List<? extends Range> ranges, DocumentEvent e) {
+        for (Range range : ranges) {
+            range.start = moveOffset(range.start, e);
+            range.end = moveOffset(range.end, e);
+        }
+    }
+
+    private synchronized void documentChanged(DocumentEvent e, int start, int end) {
+        hilit.documentChanged(e);
+
+        if (options.contains(Option.BACKGROUND)) {
+            moveRanges(dirtyRanges, e);
+
+            if (pass != null) {
+                moveRanges(passRanges, e);
+            }
+        }
+
+        if (viewport != null) {
+            boolean touched = moveRegions(e, start, end);
+
+            SwingUtilities.invokeLater(visibleAreaHighlighter);
+
+            if (!touched) {
+                return;
+            }
+        }
+
+        highlight(start, end);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        documentChanged(e, e.getOffset(), e.getOffset() + e.getLength());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        documentChanged(e, e.getOffset(), e.getOffset());
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        documentChanged(e, e.getOffset(), e.getOffset() + e.getLength());
+    }
+
+    /**
+     * Range of the document.
+     */
+    private static class Range {
+
+        int start;
+        int end;
+
+        private Range(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Highlighted range of the document while highlighting the visible area.
+     */
+    private static final class Region extends Range {
+
+        private long lastVisible;
+
+        private Region(int start, int end) {
+            super(start, end);
+        }
+    }
+
+    /**
+     * Counts the entries of the pages of a {@link MappedTextDocument} on a
+     * worker thread and adds the counts on the Event Dispatch Thread every
+     * {@link #COUNT_BATCH_PAGE_COUNT} pages.
+     */
+    private class CountPass implements Runnable {
+
+        private final MappedTextDocument doc;
+        private final int generation;
+        private final TextMatcher passMatcher;
+
+        private CountPass(MappedTextDocument doc, int generation, TextMatcher passMatcher) {
+            this.doc = doc;
+            this.generation = generation;
+            this.passMatcher = passMatcher;
+        }
+
+        @Override
+        public void run() {
+            int pageCount = doc.getPageCount();
+            Spans matches = new Spans();
+
+            try {
+                for (int page = 0; page < pageCount; page++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+
+                    char[] text = doc.getPageText(page);
+
+                    matches.addAll(match(passMatcher, text, 0, text.length, 0));
+
+                    if ((page + 1) % COUNT_BATCH_PAGE_COUNT == 0 || page == pageCount - 1) {
+                        addCounts(matches);
+                        matches = new Spans();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                return;    // Cancelled by other words or another document
+            }
+        }
+
+        private void addCounts(Spans matches) {
+            final int[] keys = new int[matches.size()];
+
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = matches.getKey(i);
+            }
+
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    addPageCounts(generation, keys);
+                }
+            });
+        }
+    }
+
+    /**
+     * Scans text snapshots on a worker thread and applies the found words on
+     * the Event Dispatch Thread in one batch, if the document hasn't been
+     * changed meanwhile. The texts are scanned in chunks ending at line breaks
+     * to check for cancellation, so that no phrase or pattern is split.
+     */
+    private class BackgroundPass implements Runnable {
+
+        private final char[][] texts;
+        private final int[] offsets;
+        private final int generation;
+        private final TextMatcher passMatcher;
+
+        private BackgroundPass(char[][] texts, int[] offsets, int generation, TextMatcher passMatcher) {
+            this.texts = texts;
+            this.offsets = offsets;
+            this.generation = generation;
+            this.passMatcher = passMatcher;
+        }
+
+        @Override
+        public void run() {
+            final Spans[] matches = new Spans[texts.length];
+            int chunkLength = options.contains(Option.PARALLEL)
+                              ? PARALLEL_CHUNK_LENGTH
+                              : BACKGROUND_CHUNK_LENGTH;
+            long startNanos = System.nanoTime();
+            int textLength = 0;
+            int matchCount = 0;
+
+            try {
+                for (int i = 0; i < texts.length; i++) {
+                    char[] text = texts[i];
+                    int chunkStart = 0;
+
+                    matches[i] = new Spans();
+
+                    while (chunkStart < text.length) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+
+                        int chunkEnd = ParallelMatcher.getChunkEnd(text,
+                                Math.min(chunkStart + chunkLength, text.length), text.length);
+
+                        matches[i].addAll(match(passMatcher, text, chunkStart, chunkEnd, offsets[i]));
+                        chunkStart = chunkEnd;
+                    }
+
+                    textLength += text.length;
+                    matchCount += matches[i].size();
+                }
+            } catch (InterruptedException ex) {
+                return;    // Cancelled by a newer change
+            }
+
+            HighlightMetrics.getInstance().passFinished(System.nanoTime() - startNanos, textLength, matchCount);
+
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    finishBackgroundPass(generation, matches);
+                }
+            });
+        }
     }
 }
@@ -0,0 +1,31 @@
+package de.elmar_baumann.whl;
+
+/**
+ * Finds words in a text without creating strings. Implementations are thread
+ * safe.
+ *
+ * @author Elmar Baumann
+ */
+public interface TextMatcher {
+
+    /**
+     * Finds words in a text. Only words within a word of the text will be
+     * found, words of the text are separated by characters neither letters
+     * nor digits, so that a text can be matched in parts split at word
+     * separators.
+     *
+     * @param text       text
+     * @param start      index of the first character in <code>text</code>,
+     *                   has to be the start of a word or a word separator
+     * @param end        index after the last character in <code>text</code>
+     * @param ignoreCase true, if the characters of the text shall be case
+     *                   folded by {@link CaseFolding} before matching
+     * @param offset     offset added to the indices of found words, e.g.
+     *                   the document offset of <code>text[0]</code>
+     * @param matches    found words will be added to it in order of their
+     *                   start offsets, their style is their wordbook index,
+     *                   their key identifies the matched entry, see
+     *                   {@link WordMatcher#getKey(String)}
+     */
+    public void match(char[] text, int start, int end, boolean ignoreCase, int offset, Spans matches);
+}
@@ -2,16 +2,25 @@ package de.elmar_baumann.whl;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.Scanner;
 import java.util.Set;
 
 /**
@@ -19,13 +28,26 @@ import java.util.Set;
  */
 public final class TextfileWordbook {
 
+    /**
+     * Files are split into chunks of at least this size to be read in
+     * parallel.
+     */
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Chunks are not larger than this size, so that a decoded chunk fits into
+     * an array.
+     */
+    private static final long MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
     private boolean read;
-    private final Set<String> words = new HashSet<String>(250);
+    private PackedWords words = new PackedWords();
     private final List<TextConverter> converters = new ArrayList<TextConverter>();
 
     /**
      * Adds a converter for earch read word. Multiple converters are called in
-     * the order as they has been added.
+     * the order as they has been added. Converters are called concurrently
+     * by {@link #read(File, int)} and have to be thread safe.
      *
      * @param converter converter. Default: Words will not be converted.
      */
@@ -38,54 +60,245 @@ public final class TextfileWordbook {
     }
 
     /**
-     * Reads the words from a text file, each line contains a single word.
+     * Reads the words from a text file with one thread per processor, see
+     * {@link #read(File, int)}.
      *
      * @param file text file
-     * @throws  FileNotFoundException
+     * @throws IOException if the file couldn't be read
      */
-    public synchronized void read(File file) throws FileNotFoundException {
+    public synchronized void read(File file) throws IOException {
+        read(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads the words from a text file, each line contains a single word or a
+     * phrase of words separated by whitespace or punctuation, e.g.
+     * <code>"service level agreement"</code>, or a pattern between slashes,
+     * see {@link PatternAutomaton}. Patterns are not converted.
+     * <p>
+     * Lines end with the line separators recognized by
+     * {@link java.util.Scanner#nextLine()}. Files larger than twice 1 MB are
+     * split into chunks at line breaks, which are decoded and converted in
+     * parallel. The words of the chunks are added in the order of the chunks,
+     * so that the words are the same as read sequentially.
+     *
+     * @param file        text file
+     * @param threadCount count of threads reading chunks
+     * @throws IOException if the file couldn't be read
+     */
+    public synchronized void read(File file, int threadCount) throws IOException {
         if (file == null) {
             throw new NullPointerException("file == null");
         }
 
-        words.clear();
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+        }
 
+        long startNanos = System.nanoTime();
         FileInputStream fis = new FileInputStream(file);
-        Scanner scanner = new Scanner(fis, Properties.TEXT_ENCODING);
 
         try {
-            while (scanner.hasNextLine()) {
-                words.add(convert(scanner.nextLine().trim()));
-            }
+            FileChannel channel = fis.getChannel();
+            long[] bounds = getChunkBounds(channel, threadCount);
+            TextConverter[] chunkConverters = converters.toArray(new TextConverter[converters.size()]);
+            PackedWords readWords = bounds.length > 2
+                                    ? readChunks(channel, bounds, chunkConverters, threadCount)
+                                    : new ChunkReader(channel, 0, bounds[1], chunkConverters).call();
 
+            readWords.setUnmodifiable();
+            words = readWords;
             read = true;
+            HighlightMetrics.getInstance().wordbookLoaded(System.nanoTime() - startNanos, words.size());
+        } finally {
+            try {
+                fis.close();
+            } catch (IOException ex) {
+                Logger.getLogger(TextfileWordbook.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    private static PackedWords readChunks(FileChannel channel, long[] bounds, TextConverter[] converters,
+            int threadCount) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, bounds.length - 1));
+        List<Future<PackedWords>> futures = new ArrayList<Future<PackedWords>>(bounds.length - 1);
+
+        try {
+            for (int i = 0; i < bounds.length - 1; i++) {
+                futures.add(executor.submit(new ChunkReader(channel, bounds[i], bounds[i + 1], converters)));
+            }
+
+            PackedWords readWords = new PackedWords(futures.get(0).get().size() * futures.size());
+
+            // Merging while the following chunks are read
+            for (int i = 0; i < futures.size(); i++) {
+                readWords.addAll(futures.get(i).get());
+                futures.set(i, null);
+            }
+
+            return readWords;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Reading has been interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IllegalStateException(cause);
         } finally {
-            scanner.close();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the bounds of the chunks of a file: the first is 0, the last
+     * the size of the file, each other is the index after a
+     * <code>'\n'</code>, which can't be a part of a multibyte character
+     * encoded in UTF-8.
+     */
+    private static long[] getChunkBounds(FileChannel channel, int threadCount) throws IOException {
+        long size = channel.size();
+        long chunkCount = Math.max((size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE,
+                                   Math.min((long) threadCount * CHUNKS_PER_THREAD, size / MIN_CHUNK_SIZE));
+
+        if (chunkCount < 2) {
+            return new long[] {0, size};
+        }
+
+        List<Long> bounds = new ArrayList<Long>();
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+
+        bounds.add(0L);
+
+        for (long i = 1; i < chunkCount; i++) {
+            long bound = getLineStart(channel, Math.max(size * i / chunkCount, bounds.get(bounds.size() - 1)),
+                                      buffer);
 
-            if (fis != null) {
-                try {
-                    fis.close();
-                } catch (IOException ex) {
-                    Logger.getLogger(TextfileWordbook.class.getName()).log(Level.SEVERE, null, ex);
+            if (bound > bounds.get(bounds.size() - 1) && bound < size) {
+                bounds.add(bound);
+            }
+        }
+
+        bounds.add(size);
+
+        long[] chunkBounds = new long[bounds.size()];
+
+        for (int i = 0; i < chunkBounds.length; i++) {
+            chunkBounds[i] = bounds.get(i);
+        }
+
+        return chunkBounds;
+    }
+
+    /**
+     * Returns the index after the first <code>'\n'</code> at or after an
+     * index or the size of the file.
+     */
+    private static long getLineStart(FileChannel channel, long index, ByteBuffer buffer) throws IOException {
+        long position = index;
+
+        while (true) {
+            buffer.clear();
+
+            int count = channel.read(buffer, position);
+
+            if (count < 0) {
+                return channel.size();
+            }
+
+            for (int i = 0; i < count; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
                 }
             }
+
+            position += count;
         }
     }
 
-    private String convert(String word) {
-        String convertedWord = word;
+    /**
+     * Decodes the lines of a chunk of a file and converts them into words.
+     */
+    private static final class ChunkReader implements Callable<PackedWords> {
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final TextConverter[] converters;
+
+        private ChunkReader(FileChannel channel, long start, long end, TextConverter[] converters) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.converters = converters;
+        }
+
+        @Override
+        public PackedWords call() throws IOException {
+            CharsetDecoder decoder = Charset.forName(Properties.TEXT_ENCODING).newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer text = decoder.decode(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            char[] chars = text.array();
+            int length = text.limit();
+            PackedWords chunkWords = new PackedWords(length / 16);
+            int lineStart = 0;
+            int i = 0;
+
+            while (i < length) {
+                char c = chars[i];
+
+                if (isLineSeparator(c)) {
+                    addLine(chunkWords, new String(chars, lineStart, i - lineStart));
+                    i += c == '\r' && i + 1 < length && chars[i + 1] == '\n'
+                         ? 2
+                         : 1;
+                    lineStart = i;
+                } else {
+                    i++;
+                }
+            }
+
+            // The last line of a file may not end with a separator
+            if (lineStart < length) {
+                addLine(chunkWords, new String(chars, lineStart, length - lineStart));
+            }
 
-        for (TextConverter converter : converters) {
-            convertedWord = converter.convert(word);
+            return chunkWords;
         }
 
-        return convertedWord;
+        private void addLine(PackedWords chunkWords, String line) {
+            String word = line.trim();
+
+            chunkWords.add(PatternAutomaton.isPattern(word)
+                           ? word
+                           : convert(word));
+        }
+
+        private String convert(String word) {
+            String convertedWord = word;
+
+            for (TextConverter converter : converters) {
+                convertedWord = converter.convert(convertedWord);
+            }
+
+            return convertedWord;
+        }
+
+        private static boolean isLineSeparator(char c) {
+            return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085';
+        }
     }
 
     /**
-     * Returns the read words.
+     * Returns the read words packed into primitive arrays, see
+     * {@link PackedWords}.
      *
-     * @return Words
+     * @return Unmodifiable words
      * @throws IllegalStateException if the file hasn't been read
      */
     public synchronized Set<String> getWords() {
@@ -93,7 +306,7 @@ public final class TextfileWordbook {
             throw new IllegalStateException("File has not been read!");
         }
 
-        return Collections.unmodifiableSet(words);
+        return words;
     }
 
     /**
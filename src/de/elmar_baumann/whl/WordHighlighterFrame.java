@@ -42,6 +42,7 @@ public class WordHighlighterFrame extends javax.swing.JFrame implements RecentFi
 
         public void textFileRead(File file) {
             setTitle(Properties.APP_NAME + " - " + file.getName());
+            recentFiles.setMostRecentFile(file);
         }
 
         public void contentChanged() {
@@ -138,19 +139,11 @@ public class WordHighlighterFrame extends javax.swing.JFrame implements RecentFi
     }
 
     private void readFile() {
-        File file = panel.readTextFile();
-
-        if (file != null) {
-            recentFiles.setMostRecentFile(file);
-        }
+        panel.readTextFile();
     }
 
     private void readFile(File file) {
-        File f = panel.readTextFile(file);
-
-        if (f != null) {
-            recentFiles.setMostRecentFile(f);
-        }
+        panel.readTextFile(file);
     }
 
     /** This method is called from within the constructor to
@@ -1,21 +1,37 @@
 package de.elmar_baumann.whl;
 
+import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 
+import javax.swing.AbstractAction;
 import javax.swing.JFileChooser;
+import javax.swing.KeyStroke;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.View;
 
 /**
  * @author Elmar Baumann
@@ -24,21 +40,76 @@ public class WordHighlighterPanel extends javax.swing.JPanel {
     private static final long serialVersionUID = 1L;
     private final TextHighlighter hl;
     private static final String KEY_WORDBOOK = "Wordbook";
+    private static final String KEY_WORDBOOKS = "Wordbooks";
+    private static final long LARGE_FILE_SIZE = 128L * 1024 * 1024;
     private static final String KEY_TEXTFILE_DIR = "TextfileDir";
     private static final String KEY_WORDBOOK_DIR = "WordbookDir";
     private static final ResourceBundle BUNDLE =
         ResourceBundle.getBundle("de/elmar_baumann/whl/Bundle");
     private File wordbookDir;
     private File textfileDir;
+    private List<ColoredWordbook> wordbooks =
+            new ArrayList<ColoredWordbook>();
+
+    /**
+     * Count of the reloads of each wordbook file, so that only the result of
+     * the latest reload is applied.
+     */
+    private final Map<File, Integer> reloadGenerations =
+            new HashMap<File, Integer>();
     private final Set<ContentChangeListener> contentChangeListeners =
             new CopyOnWriteArraySet<ContentChangeListener>();
-    private boolean textfileRead;
+    private final ContentChangedListener contentChangedListener =
+            new ContentChangedListener();
+    private final WordbookWatcher wordbookWatcher = createWordbookWatcher();
 
     public WordHighlighterPanel() {
         initComponents();
-        hl = new TextHighlighter(textArea, TextHighlighter.Option.IGNORE_CASE);
+        hl = new TextHighlighter(textArea, TextHighlighter.Option.IGNORE_CASE,
+                                 TextHighlighter.Option.BACKGROUND,
+                                 TextHighlighter.Option.VISIBLE_AREA,
+                                 TextHighlighter.Option.PARALLEL,
+                                 TextHighlighter.Option.COUNT_ALL);
+        statisticsPanel.setHighlighter(hl);
+
+        if (wordbookWatcher != null) {
+            wordbookWatcher.addWordbookChangeListener(new WordbookReloader());
+        }
+
         readWordbookFromPrefs();
-        textArea.getDocument().addDocumentListener(new ContentChangedListener());
+        textArea.getDocument().addDocumentListener(contentChangedListener);
+        addMatchNavigation();
+    }
+
+    /**
+     * Selects the next highlighted word with F3 and the previous with
+     * Shift+F3.
+     */
+    private void addMatchNavigation() {
+        textArea.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), "nextMatch");
+        textArea.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, InputEvent.SHIFT_DOWN_MASK), "previousMatch");
+        textArea.getActionMap().put("nextMatch", new AbstractAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                selectMatch(hl.getNextMatch(textArea.getSelectionStart()));
+            }
+        });
+        textArea.getActionMap().put("previousMatch", new AbstractAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                selectMatch(hl.getPreviousMatch(textArea.getSelectionStart()));
+            }
+        });
+    }
+
+    private void selectMatch(int start) {
+        if (start >= 0) {
+            textArea.select(start, hl.getMatchEnd(start));
+        }
     }
 
     public void addContentChangeListener(ContentChangeListener listener) {
@@ -64,38 +135,167 @@ public class WordHighlighterPanel extends javax.swing.JPanel {
     private class ContentChangedListener implements DocumentListener {
 
         public void insertUpdate(DocumentEvent e) {
-            checkNotify();
+            notifyContentChanged();
         }
 
         public void removeUpdate(DocumentEvent e) {
-            checkNotify();
+            notifyContentChanged();
         }
 
         public void changedUpdate(DocumentEvent e) {
-            checkNotify();
+            notifyContentChanged();
+        }
+    }
+
+    private static WordbookWatcher createWordbookWatcher() {
+        try {
+            return new WordbookWatcher();
+        } catch (IOException ex) {
+            Logger.getLogger(WordHighlighterPanel.class.getName()).log(
+                             Level.WARNING, null, ex);
         }
 
-        private void checkNotify() {
-            if (!textfileRead) {
-                notifyContentChanged();
+        return null;
+    }
+
+    /**
+     * Reloads a changed wordbook in the background and highlights only the
+     * added and removed words.
+     */
+    private class WordbookReloader implements WordbookChangeListener {
+
+        @Override
+        public void wordbookChanged(final File wordbook) {
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (ColoredWordbook wb : wordbooks) {
+                        if (wb.getFile().getAbsoluteFile().equals(wordbook)) {
+                            Integer generation = reloadGenerations.get(wordbook);
+                            int nextGeneration = generation == null
+                                                 ? 1
+                                                 : generation + 1;
+
+                            reloadGenerations.put(wordbook, nextGeneration);
+                            new WordbookReader(wb, nextGeneration).execute();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the index of the loaded wordbook of a file.
+     *
+     * @return index or -1, if the file isn't loaded
+     */
+    private int getWordbookIndex(File file) {
+        for (int i = 0; i < wordbooks.size(); i++) {
+            if (wordbooks.get(i).getFile().getAbsoluteFile().equals(file)) {
+                return i;
             }
         }
 
+        return -1;
+    }
+
+    private class WordbookReader extends SwingWorker<WordMatcher, Void> {
+
+        private final ColoredWordbook wordbook;
+        private final int generation;
+        private WordMatcher changedMatcher;
+
+        private WordbookReader(ColoredWordbook wordbook, int generation) {
+            this.wordbook = wordbook;
+            this.generation = generation;
+        }
+
+        @Override
+        protected WordMatcher doInBackground() throws Exception {
+            WordMatcher matcher = WordbookCache.getDefault().readMatcher(
+                    wordbook.getFile(), true);
+
+            changedMatcher = new WordMatcher(WordMatcher.getChangedEntries(
+                    wordbook.getMatcher(), matcher));
+
+            return matcher;
+        }
+
+        @Override
+        protected void done() {
+            File file = wordbook.getFile().getAbsoluteFile();
+
+            if (!Integer.valueOf(generation).equals(reloadGenerations.get(file))) {
+                return;    // A later reload applies the newer contents
+            }
+
+            int index = getWordbookIndex(file);
+
+            if (index < 0) {
+                return;    // Removed meanwhile
+            }
+
+            try {
+                ColoredWordbook current = wordbooks.get(index);
+                WordMatcher matcher = get();
+                // E.g. set again by the user since the reload started
+                WordMatcher changed = current.getMatcher() == wordbook.getMatcher()
+                                      ? changedMatcher
+                                      : new WordMatcher(WordMatcher.getChangedEntries(
+                                              current.getMatcher(), matcher));
+                List<ColoredWordbook> wbs =
+                        new ArrayList<ColoredWordbook>(wordbooks);
+
+                wbs.set(index, new ColoredWordbook(current.getFile(),
+                        current.getColor(), matcher));
+                wordbooks = wbs;
+                WordMatcher wbsMatcher = getMatcher(wbs);
+
+                showWordbooks(wbs);
+                hl.updateHighlightWords(wbsMatcher, changed);
+                statisticsPanel.setWords(wbsMatcher);
+            } catch (Exception ex) {
+                // E.g. deleted or partially written, keeping the loaded words
+                Logger.getLogger(WordHighlighterPanel.class.getName()).log(
+                                 Level.WARNING, null, ex);
+            }
+        }
     }
 
     private void readWordbookFromPrefs() {
         try {
             Preferences prefs  =
                     Preferences.userNodeForPackage(WordHighlighterPanel.class);
+            String      wbs    = prefs.get(KEY_WORDBOOKS, null);
             String      wbPath = prefs.get(KEY_WORDBOOK, null);
+            List<ColoredWordbook> wordbooks = new ArrayList<ColoredWordbook>();
+
+            if (wbs == null && wbPath != null) {
+                wbs = toPrefsValue(ColoredWordbook.getDefaultColor(0), new File(wbPath));
+            }
+
+            if (wbs != null) {
+                for (String entry : wbs.split("\n")) {
+                    int tabIndex = entry.indexOf('\t');
+
+                    if (tabIndex > 0) {
+                        Color color = new Color(Integer.parseInt(entry.substring(0, tabIndex), 16));
+                        File wb = new File(entry.substring(tabIndex + 1));
 
-            if (wbPath != null) {
-                File wb = new File(wbPath);
+                        if (wb.exists() && wb.isFile()) {
+                            ColoredWordbook cwb = readWordbook(wb, color);
 
-                if (wb.exists() && wb.isFile()) {
-                    readWordbook(wb);
+                            if (cwb != null) {
+                                wordbooks.add(cwb);
+                            }
+                        }
+                    }
                 }
             }
+
+            setWordbooks(wordbooks);
         } catch (Exception ex) {
             Logger.getLogger(WordHighlighterPanel.class.getName()).log(
                              Level.SEVERE, null, ex);
@@ -103,87 +303,250 @@ public class WordHighlighterPanel extends javax.swing.JPanel {
         }
     }
 
-    private void readWordbook(File wb) {
-        TextfileWordbook tfwb = new TextfileWordbook();
+    private static String toPrefsValue(Color color, File wb) {
+        return String.format("%06x\t%s", color.getRGB() & 0xFFFFFF,
+                             wb.getAbsolutePath());
+    }
+
+    private ColoredWordbook readWordbook(File wb, Color color) {
         try {
-            tfwb.read(wb);
-            Set<String> words = tfwb.getWords();
-            hl.setHighlightWords(words,
-                                 TextHighlighter.Convert.TO_LOWERCASE);
-            labelWordbook.setText(wb.getName());
-            addWordbookWordCount(words.size());
-            Preferences.userNodeForPackage(WordHighlighterPanel.class).put(
-                                           KEY_WORDBOOK, wb.getAbsolutePath());
-        } catch (FileNotFoundException ex) {
+            WordMatcher matcher =
+                    WordbookCache.getDefault().readMatcher(wb, true);
+
+            return new ColoredWordbook(wb, color, matcher);
+        } catch (IOException ex) {
             Logger.getLogger(WordHighlighterPanel.class.getName()).log(
                              Level.SEVERE, null, ex);
             Messages.errorMessage("WordHighlighterPanel.Error.ReadWordbook");
         }
+
+        return null;
+    }
+
+    /**
+     * Highlights the words of wordbooks, all wordbooks are merged into one
+     * matcher.
+     *
+     * @param wbs wordbooks ordered by descending priority
+     */
+    private void setWordbooks(List<ColoredWordbook> wbs) {
+        List<Color> colors = new ArrayList<Color>(wbs.size());
+        List<File> files = new ArrayList<File>(wbs.size());
+
+        for (ColoredWordbook wb : wbs) {
+            colors.add(wb.getColor());
+            files.add(wb.getFile());
+        }
+
+        wordbooks = new ArrayList<ColoredWordbook>(wbs);
+
+        if (!colors.isEmpty()) {
+            hl.setHighlightColors(colors);
+        }
+
+        WordMatcher wbsMatcher = getMatcher(wbs);
+
+        hl.setHighlightWords(wbsMatcher);
+        statisticsPanel.setWords(wbsMatcher);
+        showWordbooks(wbs);
+
+        if (wordbookWatcher != null) {
+            wordbookWatcher.setWordbooks(files);
+        }
     }
 
-    private void addWordbookWordCount(int count) {
-        String text = labelWordbook.getText();
+    private static WordMatcher getMatcher(List<ColoredWordbook> wbs) {
+        List<WordMatcher> matchers = new ArrayList<WordMatcher>(wbs.size());
 
-        labelWordbook.setText(text + " (" + Integer.toString(count) + " W)");
+        for (ColoredWordbook wb : wbs) {
+            matchers.add(wb.getMatcher());
+        }
+
+        return matchers.size() == 1
+               ? matchers.get(0)
+               : WordMatcher.merge(matchers);
     }
 
-    private void readWordbook() {
-        File selFile = selectTextfile(getWordbookDir());
+    private void showWordbooks(List<ColoredWordbook> wbs) {
+        StringBuilder label = new StringBuilder("<html>");
+        StringBuilder prefsValue = new StringBuilder();
 
-        if (selFile != null) {
-            wordbookDir = selFile.getParentFile();
-            readWordbook(selFile);
+        for (ColoredWordbook wb : wbs) {
+            if (prefsValue.length() > 0) {
+                label.append(", ");
+                prefsValue.append('\n');
+            }
+
+            label.append(String.format("<span style=\"background: #%06x\">",
+                                       wb.getColor().getRGB() & 0xFFFFFF));
+            label.append(escapeHtml(wb.toString())).append("</span>");
+            prefsValue.append(toPrefsValue(wb.getColor(), wb.getFile()));
+        }
+
+        labelWordbook.setText(wbs.isEmpty()
+                              ? "-"
+                              : label.toString());
+        Preferences.userNodeForPackage(WordHighlighterPanel.class).put(
+                                       KEY_WORDBOOKS, prefsValue.toString());
+    }
+
+    private static String escapeHtml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private void editWordbooks() {
+        WordbooksDialog dlg = new WordbooksDialog(
+                SwingUtilities.getWindowAncestor(this), wordbooks,
+                getWordbookDir());
+
+        dlg.setVisible(true);
+        wordbookDir = dlg.getDirectory();
+
+        if (dlg.isChanged()) {
+            setWordbooks(dlg.getWordbooks());
         }
     }
 
+    /**
+     * Reads a text file into the text area in the background, displaying the
+     * progress. When the file has been read, the content change listeners
+     * will be notified through {@link ContentChangeListener#textFileRead(File)}.
+     * <p>
+     * Files larger than {@link #LARGE_FILE_SIZE} are displayed read-only
+     * without line wrap through a {@link MappedTextDocument}.
+     *
+     * @param  file text file
+     * @return file
+     */
     public File readTextFile(File file) {
         if (file == null) {
             throw new NullPointerException("file == null");
         }
-            InputStream is = null;
-            Scanner     scanner = null;
 
-        try {
-            textfileDir = file.getParentFile();
-            is          = new FileInputStream(file);
-            scanner     = new Scanner(is, Properties.TEXT_ENCODING);
+        textfileDir = file.getParentFile();
+        new TextFileReader(file).execute();
 
-            StringBuilder text    = new StringBuilder();
-            String        NL      = System.getProperty("line.separator");
+        return file;
+    }
+
+    private class TextFileReader extends SwingWorker<Document, Void>
+            implements LoadProgressListener, PropertyChangeListener {
+
+        private final File file;
+        private final ProgressMonitor progressMonitor;
+
+        private TextFileReader(File file) {
+            this.file = file;
+            progressMonitor = new ProgressMonitor(WordHighlighterPanel.this,
+                    MessageFormat.format(BUNDLE.getString(
+                        "WordHighlighterPanel.ProgressMonitor.ReadTextfile"),
+                        file.getName()), null, 0, 100);
+            addPropertyChangeListener(this);
+        }
+
+        @Override
+        protected Document doInBackground() throws Exception {
+            long startNanos = System.nanoTime();
+            long size = file.length();
+            Document doc = size > LARGE_FILE_SIZE
+                           ? new MappedTextDocument(file, this)
+                           : new TextFileLoader().load(file, this);
+
+            HighlightMetrics.getInstance().fileLoaded(System.nanoTime() - startNanos, size);
+
+            return doc;
+        }
 
-            while (scanner.hasNextLine()){
-                text.append(scanner.nextLine()).append(NL);
+        @Override
+        public void progress(long bytesRead, long bytesTotal) {
+            if (bytesTotal > 0) {
+                setProgress((int) Math.min(100, bytesRead * 100 / bytesTotal));
             }
+        }
 
-            textfileRead = true;
-            textArea.setText(text.toString());
-            notifyTextfileRead(file);
-            textfileRead = false;
-            return file;
-        } catch (Exception ex) {
-            Logger.getLogger(WordHighlighterPanel.class.getName()).log(
-                             Level.SEVERE, null, ex);
-            Messages.errorMessage("WordHighlighterPanel.Error.ReadTextfile");
-        } finally {
-                  scanner.close();
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException ex) {
-                    Logger.getLogger(WordHighlighterPanel.class.getName())
-                            .log(Level.SEVERE, null, ex);
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            if ("progress".equals(evt.getPropertyName())) {
+                progressMonitor.setProgress((Integer) evt.getNewValue());
+
+                if (progressMonitor.isCanceled()) {
+                    cancel(true);
                 }
             }
         }
 
-        return null;
+        @Override
+        protected void done() {
+            progressMonitor.close();
+
+            if (isCancelled()) {
+                return;
+            }
+
+            try {
+                setDocument(get());
+                notifyTextfileRead(file);
+            } catch (Exception ex) {
+                Logger.getLogger(WordHighlighterPanel.class.getName()).log(
+                                 Level.SEVERE, null, ex);
+                Messages.errorMessage("WordHighlighterPanel.Error.ReadTextfile");
+            }
+        }
+    }
+
+    /**
+     * Creates a {@link MappedTextView} for a {@link MappedTextDocument}, so
+     * that the lines of a large file are not measured.
+     */
+    private static final class MappedTextAreaUI extends BasicTextAreaUI {
+
+        @Override
+        public View create(Element elem) {
+            return elem.getDocument() instanceof MappedTextDocument
+                   ? new MappedTextView(elem)
+                   : super.create(elem);
+        }
+    }
+
+    private void setDocument(Document doc) {
+        Document oldDoc = textArea.getDocument();
+        boolean largeFile = doc instanceof MappedTextDocument;
+
+        oldDoc.removeDocumentListener(contentChangedListener);
+
+        // Wrapped views of a large file would be created for every line
+        if (largeFile) {
+            textArea.setLineWrap(false);
+            textArea.setEditable(false);
+
+            if (!(textArea.getUI() instanceof MappedTextAreaUI)) {
+                textArea.setUI(new MappedTextAreaUI());
+            }
+        }
+
+        textArea.setDocument(doc);
+
+        if (!largeFile) {
+            if (textArea.getUI() instanceof MappedTextAreaUI) {
+                textArea.updateUI();
+            }
+
+            textArea.setLineWrap(true);
+            textArea.setEditable(true);
+        }
+
+        doc.addDocumentListener(contentChangedListener);
+
+        if (oldDoc instanceof MappedTextDocument) {
+            ((MappedTextDocument) oldDoc).close();
+        }
     }
 
     /**
      * Dislays a file chooser, reads the choosen text file into the thext area
      * and highlights words in the text.
      *
-     * @return Read file or null if not read
+     * @return File to be read or null if no file has been choosen
      */
     public File readTextFile() {
         File selFile = selectTextfile(getTextfileDir());
@@ -270,8 +633,10 @@ public class WordHighlighterPanel extends javax.swing.JPanel {
         labelWordbookPrompt = new javax.swing.JLabel();
         labelWordbook = new javax.swing.JLabel();
         buttonReadWordbook = new javax.swing.JButton();
+        splitPane = new javax.swing.JSplitPane();
         scrollPane = new javax.swing.JScrollPane();
         textArea = new javax.swing.JTextArea();
+        statisticsPanel = new de.elmar_baumann.whl.MatchStatisticsPanel();
 
         java.util.ResourceBundle bundle = java.util.ResourceBundle.getBundle("de/elmar_baumann/whl/Bundle"); // NOI18N
         labelWordbookPrompt.setText(bundle.getString("WordHighlighterPanel.labelWordbookPrompt.text")); // NOI18N
@@ -285,11 +650,16 @@ public class WordHighlighterPanel extends javax.swing.JPanel {
             }
         });
 
+        splitPane.setResizeWeight(0.8);
+
         textArea.setColumns(20);
         textArea.setLineWrap(true);
         textArea.setWrapStyleWord(true);
         scrollPane.setViewportView(textArea);
 
+        splitPane.setLeftComponent(scrollPane);
+        splitPane.setRightComponent(statisticsPanel);
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
         layout.setHorizontalGroup(
@@ -297,7 +667,7 @@ public class WordHighlighterPanel extends javax.swing.JPanel {
             .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, layout.createSequentialGroup()
                 .addContainerGap()
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.TRAILING)
-                    .addComponent(scrollPane, javax.swing.GroupLayout.Alignment.LEADING, javax.swing.GroupLayout.DEFAULT_SIZE, 409, Short.MAX_VALUE)
+                    .addComponent(splitPane, javax.swing.GroupLayout.Alignment.LEADING, javax.swing.GroupLayout.DEFAULT_SIZE, 409, Short.MAX_VALUE)
                     .addGroup(layout.createSequentialGroup()
                         .addComponent(labelWordbookPrompt)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
@@ -315,13 +685,13 @@ public class WordHighlighterPanel extends javax.swing.JPanel {
                     .addComponent(labelWordbook)
                     .addComponent(buttonReadWordbook))
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                .addComponent(scrollPane, javax.swing.GroupLayout.DEFAULT_SIZE, 285, Short.MAX_VALUE)
+                .addComponent(splitPane, javax.swing.GroupLayout.DEFAULT_SIZE, 285, Short.MAX_VALUE)
                 .addContainerGap())
         );
     }// </editor-fold>//GEN-END:initComponents
 
     private void buttonReadWordbookActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_buttonReadWordbookActionPerformed
-        readWordbook();
+        editWordbooks();
     }//GEN-LAST:event_buttonReadWordbookActionPerformed
 
 
@@ -330,6 +700,8 @@ public class WordHighlighterPanel extends javax.swing.JPanel {
     private javax.swing.JLabel labelWordbook;
     private javax.swing.JLabel labelWordbookPrompt;
     private javax.swing.JScrollPane scrollPane;
+    private javax.swing.JSplitPane splitPane;
+    private de.elmar_baumann.whl.MatchStatisticsPanel statisticsPanel;
     private javax.swing.JTextArea textArea;
     // End of variables declaration//GEN-END:variables
 }
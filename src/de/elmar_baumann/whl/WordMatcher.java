@@ -0,0 +1,1405 @@
+package de.elmar_baumann.whl;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact character trie of words for matching text character by character
+ * without creating strings.
+ * <p>
+ * The nodes are stored in breadth first order within primitive arrays, the
+ * edges of a node are sorted by their character. Start with
+ * {@link #getRootState()} and call {@link #next(int, char)} for each character
+ * of a word. If the returned state is {@link #NO_STATE}, the word is not a
+ * word or prefix of a word within this matcher.
+ * <p>
+ * Words may be phrases of several words, e.g.
+ * <code>"service level agreement"</code>. Within the trie the words of a
+ * phrase are separated by one {@link #PHRASE_SEPARATOR}. Phrases are
+ * matched by failure links between the words of the phrases.
+ * <p>
+ * Words may be patterns, see {@link PatternAutomaton}. The patterns are
+ * matched by their automaton in the same pass as the trie.
+ * <p>
+ * Each match has the key of the entry producing it, see
+ * {@link #getKey(String)}: the node ending the word within the trie or, for
+ * patterns, the node count plus the index of the pattern. Hence a pattern
+ * counts all its matches, whatever text they matched.
+ * <p>
+ * A matcher read from a {@link CompiledWordbook} accesses its arrays through
+ * buffers, so that it is queried in place within the memory-mapped file.
+ * <p>
+ * Instances are immutable and thread safe.
+ *
+ * @author Elmar Baumann
+ */
+public final class WordMatcher implements TextMatcher {
+
+    public static final int NO_STATE = -1;
+    public static final int MAX_WORDBOOK_COUNT = 255;
+    public static final char PHRASE_SEPARATOR = ' ';
+    private static final int ROOT_STATE = 0;
+    private static final int MAX_UNFILTERED_EDGE_COUNT = 64;
+    private final int[] firstEdges;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final byte[] words;
+    private final IntBuffer firstEdgesBuffer;
+    private final CharBuffer edgeCharsBuffer;
+    private final IntBuffer edgeTargetsBuffer;
+    private final ByteBuffer wordsBuffer;
+    private final int wordCount;
+    private final boolean phrases;
+    private final PhraseLinks phraseLinks;
+    private final PatternAutomaton patterns;
+    private final PatternAutomaton foldedPatterns;
+    private final PrefixFilter prefixFilter;
+
+    /**
+     * Creates a matcher.
+     * <p>
+     * Within the words each run of characters neither letters nor digits is
+     * replaced by one {@link #PHRASE_SEPARATOR}, leading and trailing runs
+     * are removed. Words containing such runs are phrases. Words being
+     * patterns, see {@link PatternAutomaton#isPattern(String)}, are compiled
+     * into a pattern automaton.
+     *
+     * <p>
+     * The trie is built from {@link PackedWords} without copying them, if
+     * they contain neither patterns nor separators to replace.
+     *
+     * @param words words, empty words will be ignored
+     * @throws IllegalArgumentException if a pattern is invalid or the
+     *                                  patterns are too complex
+     */
+    public WordMatcher(Collection<String> words) {
+        this(new Builder(toTrieWords(words)), getPatterns(words), null);
+    }
+
+    /**
+     * @param patternWordbookIndices wordbook index of each pattern or null,
+     *                               if all are within the first wordbook
+     */
+    private WordMatcher(TrieBuilder builder, String[] patternSources, int[] patternWordbookIndices) {
+        firstEdges = builder.firstEdges;
+        edgeChars = builder.edgeChars;
+        edgeTargets = builder.edgeTargets;
+        words = builder.words;
+        wordCount = builder.wordCount + patternSources.length;
+        firstEdgesBuffer = IntBuffer.wrap(firstEdges);
+        edgeCharsBuffer = CharBuffer.wrap(edgeChars);
+        edgeTargetsBuffer = IntBuffer.wrap(edgeTargets);
+        wordsBuffer = ByteBuffer.wrap(words);
+        phrases = builder.phrases;
+        patterns = createPatterns(patternSources, patternWordbookIndices, false);
+        foldedPatterns = createPatterns(patternSources, patternWordbookIndices, true);
+        phraseLinks = phrases || patterns != null
+                      ? new PhraseLinks()
+                      : null;
+        prefixFilter = null;
+    }
+
+    /**
+     * Returns the words without patterns as phrases, see
+     * {@link #toPhrase(String)}.
+     */
+    private static PackedWords toTrieWords(Collection<String> words) {
+        if (words == null) {
+            throw new NullPointerException("words == null");
+        }
+
+        if (words instanceof PackedWords && isTrieWords((PackedWords) words)) {
+            return (PackedWords) words;
+        }
+
+        PackedWords trieWords = new PackedWords(words.size());
+
+        for (String word : words) {
+            if (!PatternAutomaton.isPattern(word)) {
+                trieWords.add(toPhrase(word));
+            }
+        }
+
+        return trieWords;
+    }
+
+    /**
+     * Returns whether packed words are neither patterns nor changed by
+     * {@link #toPhrase(String)}.
+     */
+    private static boolean isTrieWords(PackedWords words) {
+        char[] chars = words.getChars();
+
+        for (int index = 0; index < words.size(); index++) {
+            int start = words.getStart(index);
+            int end = words.getStart(index + 1);
+
+            // Patterns are not trie words because of their slashes
+            for (int i = start; i < end; i++) {
+                if (!Character.isLetterOrDigit(chars[i])
+                        && (chars[i] != PHRASE_SEPARATOR || i == start || i == end - 1
+                            || !Character.isLetterOrDigit(chars[i - 1])
+                            || !Character.isLetterOrDigit(chars[i + 1]))) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static String[] getPatterns(Collection<String> words) {
+        List<String> patterns = new ArrayList<String>();
+
+        if (words instanceof PackedWords) {
+            PackedWords packedWords = (PackedWords) words;
+            char[] chars = packedWords.getChars();
+
+            // Creating strings only of patterns
+            for (int index = 0; index < packedWords.size(); index++) {
+                int start = packedWords.getStart(index);
+                int end = packedWords.getStart(index + 1);
+
+                if (end - start > 2 && chars[start] == '/' && chars[end - 1] == '/') {
+                    patterns.add(new String(chars, start + 1, end - start - 2));
+                }
+            }
+        } else {
+            for (String word : words) {
+                if (PatternAutomaton.isPattern(word)) {
+                    patterns.add(PatternAutomaton.getPattern(word));
+                }
+            }
+        }
+
+        return patterns.toArray(new String[patterns.size()]);
+    }
+
+    private static PatternAutomaton createPatterns(String[] sources, int[] wordbookIndices, boolean ignoreCase) {
+        if (sources.length == 0) {
+            return null;
+        }
+
+        return new PatternAutomaton(sources, wordbookIndices == null
+                                             ? new int[sources.length]
+                                             : wordbookIndices, ignoreCase);
+    }
+
+    /**
+     * Replaces the separators within a word by {@link #PHRASE_SEPARATOR}.
+     */
+    private static String toPhrase(String word) {
+        int len = word.length();
+        int i = 0;
+
+        while (i < len && Character.isLetterOrDigit(word.charAt(i))) {
+            i++;
+        }
+
+        if (i == len) {
+            return word;
+        }
+
+        StringBuilder phrase = new StringBuilder(len);
+        boolean separated = false;
+
+        for (i = 0; i < len; i++) {
+            char c = word.charAt(i);
+
+            if (Character.isLetterOrDigit(c)) {
+                if (separated && phrase.length() > 0) {
+                    phrase.append(PHRASE_SEPARATOR);
+                }
+
+                phrase.append(c);
+                separated = false;
+            } else {
+                separated = true;
+            }
+        }
+
+        return phrase.toString();
+    }
+
+    /**
+     * Returns whether a character ends a line. Phrases are not matched across
+     * lines.
+     *
+     * @param c character
+     * @return  true if <code>c</code> is a line break
+     */
+    static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Merges matchers of several wordbooks into one matcher, so that a text
+     * is scanned once for the words of all wordbooks.
+     * <p>
+     * The words of each matcher are considered as one wordbook, see
+     * {@link #getWordbookIndex(int)}. If a word is within several
+     * wordbooks, it belongs to the wordbook with the lowest index. The
+     * patterns of all matchers are compiled into one automaton.
+     *
+     * @param  matchers matchers, at most {@link #MAX_WORDBOOK_COUNT}
+     * @return          merged matcher
+     */
+    public static WordMatcher merge(List<WordMatcher> matchers) {
+        if (matchers == null) {
+            throw new NullPointerException("matchers == null");
+        }
+
+        if (matchers.size() > MAX_WORDBOOK_COUNT) {
+            throw new IllegalArgumentException("More than " + MAX_WORDBOOK_COUNT + " wordbooks");
+        }
+
+        List<String> patternSources = new ArrayList<String>();
+        List<Integer> patternWordbookIndices = new ArrayList<Integer>();
+
+        for (int m = 0; m < matchers.size(); m++) {
+            PatternAutomaton automaton = matchers.get(m).patterns;
+
+            for (int i = 0; automaton != null && i < automaton.getPatternCount(); i++) {
+                patternSources.add(automaton.getPattern(i));
+                patternWordbookIndices.add(m);
+            }
+        }
+
+        int[] wordbookIndices = new int[patternWordbookIndices.size()];
+
+        for (int i = 0; i < wordbookIndices.length; i++) {
+            wordbookIndices[i] = patternWordbookIndices.get(i);
+        }
+
+        return new WordMatcher(new Merger(matchers.toArray(new WordMatcher[matchers.size()])),
+                               patternSources.toArray(new String[patternSources.size()]), wordbookIndices);
+    }
+
+    /**
+     * Creates a matcher accessing the arrays of a previously built matcher
+     * through buffers without copying them.
+     *
+     * @param firstEdges  index of the first edge of each node, followed by
+     *                    the edge count
+     * @param edgeChars   characters of the edges
+     * @param edgeTargets target nodes of the edges
+     * @param words       wordbook index + 1 for nodes ending a word, else 0
+     * @param wordCount   count of words including the patterns
+     * @param phrases     true, if the words contain phrases
+     * @param patterns    patterns, see {@link #getPatterns()}, or null
+     */
+    WordMatcher(IntBuffer firstEdges, CharBuffer edgeChars, IntBuffer edgeTargets, ByteBuffer words,
+            int wordCount, boolean phrases, PatternAutomaton patterns) {
+        if (firstEdges.limit() != words.limit() + 1 || edgeChars.limit() != edgeTargets.limit()
+                || firstEdges.get(words.limit()) != edgeChars.limit()) {
+            throw new IllegalArgumentException("Inconsistent array lengths");
+        }
+
+        this.firstEdges = null;
+        this.edgeChars = null;
+        this.edgeTargets = null;
+        this.words = null;
+        this.wordCount = wordCount;
+        firstEdgesBuffer = firstEdges;
+        edgeCharsBuffer = edgeChars;
+        edgeTargetsBuffer = edgeTargets;
+        wordsBuffer = words;
+        this.phrases = phrases;
+        this.patterns = patterns;
+        foldedPatterns = patterns == null
+                         ? null
+                         : new PatternAutomaton(getSources(patterns), getWordbookIndices(patterns), true);
+        phraseLinks = phrases || patterns != null
+                      ? new PhraseLinks()
+                      : null;
+        prefixFilter = null;
+    }
+
+    private WordMatcher(WordMatcher matcher, PrefixFilter prefixFilter) {
+        firstEdges = matcher.firstEdges;
+        edgeChars = matcher.edgeChars;
+        edgeTargets = matcher.edgeTargets;
+        words = matcher.words;
+        wordCount = matcher.wordCount;
+        firstEdgesBuffer = matcher.firstEdgesBuffer;
+        edgeCharsBuffer = matcher.edgeCharsBuffer;
+        edgeTargetsBuffer = matcher.edgeTargetsBuffer;
+        wordsBuffer = matcher.wordsBuffer;
+        phrases = matcher.phrases;
+        patterns = matcher.patterns;
+        foldedPatterns = matcher.foldedPatterns;
+        phraseLinks = matcher.phraseLinks == null
+                      ? null
+                      : new PhraseLinks(matcher.phraseLinks);
+        this.prefixFilter = prefixFilter;
+    }
+
+    /**
+     * Returns a matcher of the same words with a Bloom filter of the prefixes
+     * of the words, so that most characters not continuing a word are
+     * rejected by reading one cache line instead of searching the edges of a
+     * node. Worthwhile for wordbooks of millions of words: Only nodes with
+     * more than 64 edges are filtered, the filter takes about 10 bits for
+     * each of their edges. The words of a small alphabet, e.g. Latin letters
+     * and digits, have no node with that many edges, then the filter does
+     * nothing and this matcher is returned. Nodes that wide occur e.g. with
+     * CJK characters.
+     *
+     * @return matcher sharing the trie of this matcher, or this matcher if it
+     *         is already filtered or has no node with that many edges
+     */
+    public WordMatcher withPrefixFilter() {
+        if (prefixFilter != null) {
+            return this;
+        }
+
+        int nodeCount = getNodeCount();
+        int edgeCount = 0;
+
+        for (int node = 0; node < nodeCount; node++) {
+            int nodeEdgeCount = getFirstEdge(node + 1) - getFirstEdge(node);
+
+            if (nodeEdgeCount > MAX_UNFILTERED_EDGE_COUNT) {
+                edgeCount += nodeEdgeCount;
+            }
+        }
+
+        if (edgeCount == 0) {
+            return this;
+        }
+
+        PrefixFilter filter = new PrefixFilter(edgeCount);
+
+        for (int node = 0; node < nodeCount; node++) {
+            int edgeStart = getFirstEdge(node);
+            int edgeEnd = getFirstEdge(node + 1);
+
+            if (edgeEnd - edgeStart > MAX_UNFILTERED_EDGE_COUNT) {
+                for (int edge = edgeStart; edge < edgeEnd; edge++) {
+                    filter.add(node, getEdgeChar(edge));
+                }
+            }
+        }
+
+        return new WordMatcher(this, filter);
+    }
+
+    private static String[] getSources(PatternAutomaton automaton) {
+        String[] sources = new String[automaton.getPatternCount()];
+
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = automaton.getPattern(i);
+        }
+
+        return sources;
+    }
+
+    private static int[] getWordbookIndices(PatternAutomaton automaton) {
+        int[] wordbookIndices = new int[automaton.getPatternCount()];
+
+        for (int i = 0; i < wordbookIndices.length; i++) {
+            wordbookIndices[i] = automaton.getWordbookIndex(i);
+        }
+
+        return wordbookIndices;
+    }
+
+    public int getRootState() {
+        return ROOT_STATE;
+    }
+
+    /**
+     * Returns the state after consuming a character.
+     *
+     * @param state current state, must not be {@link #NO_STATE}
+     * @param c     character
+     * @return      next state or {@link #NO_STATE} if no word continues with
+     *              that character
+     */
+    public int next(int state, char c) {
+        if (edgeChars == null) {
+            return nextInBuffers(state, c);
+        }
+
+        int low = firstEdges[state];
+        int high = firstEdges[state + 1] - 1;
+
+        if (high - low >= MAX_UNFILTERED_EDGE_COUNT && prefixFilter != null && !prefixFilter.mightContain(state, c)) {
+            return NO_STATE;
+        }
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeChars[mid];
+
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+
+        return NO_STATE;
+    }
+
+    private int nextInBuffers(int state, char c) {
+        int low = firstEdgesBuffer.get(state);
+        int high = firstEdgesBuffer.get(state + 1) - 1;
+
+        if (high - low >= MAX_UNFILTERED_EDGE_COUNT && prefixFilter != null && !prefixFilter.mightContain(state, c)) {
+            return NO_STATE;
+        }
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeCharsBuffer.get(mid);
+
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargetsBuffer.get(mid);
+            }
+        }
+
+        return NO_STATE;
+    }
+
+    /**
+     * Returns whether the characters consumed so far are a complete word.
+     *
+     * @param state state, must not be {@link #NO_STATE}
+     * @return      true if a word ends in that state
+     */
+    public boolean isWord(int state) {
+        return getWordValue(state) != 0;
+    }
+
+    /**
+     * Returns the wordbook of the word consumed so far.
+     *
+     * @param state state, must not be {@link #NO_STATE}
+     * @return      index of the wordbook, 0 if this matcher hasn't been
+     *              merged, or -1 if no word ends in that state
+     */
+    public int getWordbookIndex(int state) {
+        return getWordValue(state) - 1;
+    }
+
+    private int getWordValue(int state) {
+        return (words == null
+                ? wordsBuffer.get(state)
+                : words[state]) & 0xFF;
+    }
+
+    /**
+     * Returns whether words of this matcher are phrases of several words.
+     *
+     * @return true if this matcher contains phrases
+     */
+    public boolean hasPhrases() {
+        return phrases;
+    }
+
+    /**
+     * Returns whether words of this matcher are patterns.
+     *
+     * @return true if this matcher contains patterns
+     */
+    public boolean hasPatterns() {
+        return patterns != null;
+    }
+
+    /**
+     * Returns the case sensitive automaton of the patterns.
+     *
+     * @return automaton or null, if this matcher doesn't contain patterns
+     */
+    PatternAutomaton getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * Returns the automaton of the patterns for matching with or without
+     * ignored case.
+     *
+     * @param ignoreCase true, if the case of the text shall be ignored
+     * @return           automaton or null, if this matcher doesn't contain
+     *                   patterns
+     */
+    PatternAutomaton getPatterns(boolean ignoreCase) {
+        return ignoreCase
+               ? foldedPatterns
+               : patterns;
+    }
+
+    int getNodeCount() {
+        return words == null
+               ? wordsBuffer.limit()
+               : words.length;
+    }
+
+    int getFirstEdge(int state) {
+        return firstEdges == null
+               ? firstEdgesBuffer.get(state)
+               : firstEdges[state];
+    }
+
+    char getEdgeChar(int edge) {
+        return edgeChars == null
+               ? edgeCharsBuffer.get(edge)
+               : edgeChars[edge];
+    }
+
+    int getEdgeTarget(int edge) {
+        return edgeTargets == null
+               ? edgeTargetsBuffer.get(edge)
+               : edgeTargets[edge];
+    }
+
+    /**
+     * Finds the words of this matcher in a text.
+     * <p>
+     * Only complete words of the text or substrings starting at the beginning
+     * of a word of the text will be found, not substrings within a word. Words
+     * of the text are separated by characters neither letters nor digits. If
+     * a text word starts with multiple words of this matcher, e.g.
+     * <code>"the"</code> and <code>"theology"</code>, each of them is found.
+     * Phrases are found across each run of characters neither letters nor
+     * digits within a line, e.g. <code>"service level agreement"</code> in
+     * <code>"service-level  agreement"</code>. Patterns are found from the
+     * start to the end of words of the text, see {@link PatternAutomaton}.
+     * With ignored case the words of this matcher have to be case folded.
+     * See {@link TextMatcher#match(char[], int, int, boolean, int, Spans)}
+     * for the parameters.
+     */
+    @Override
+    public void match(char[] text, int start, int end, boolean ignoreCase, int offset, Spans matches) {
+        if (phraseLinks != null) {
+            phraseLinks.match(text, start, end, ignoreCase, offset, matches);
+            return;
+        }
+
+        int wordStartIndex = -1;
+        int state = NO_STATE;
+
+        for (int i = start; i < end; i++) {
+            char c = text[i];
+
+            if (!Character.isLetterOrDigit(c)) {
+                wordStartIndex = -1;
+                continue;
+            }
+
+            if (wordStartIndex == -1) {
+                wordStartIndex = i;
+                state = ROOT_STATE;
+            }
+
+            // No word starts with the characters consumed so far, skipping the
+            // rest of the current word
+            if (state == NO_STATE) {
+                continue;
+            }
+
+            state = ignoreCase
+                    ? nextFolded(state, c)
+                    : next(state, c);
+
+            int wordValue = state == NO_STATE
+                            ? 0
+                            : getWordValue(state);
+
+            if (wordValue != 0) {
+                matches.add(wordStartIndex + offset, i + 1 + offset, wordValue - 1, state);
+            }
+        }
+    }
+
+    /**
+     * Returns the state after consuming the case folded characters of a
+     * character. If a word ends within the folded characters, e.g. with
+     * <code>"s"</code> and <code>'&szlig;'</code>, it is not a word of the
+     * text.
+     */
+    private int nextFolded(int state, char c) {
+        char[] expansion = CaseFolding.getExpansion(c);
+
+        if (expansion == null) {
+            return next(state, CaseFolding.fold(c));
+        }
+
+        int nextState = state;
+
+        for (int i = 0; i < expansion.length && nextState != NO_STATE; i++) {
+            nextState = next(nextState, expansion[i]);
+        }
+
+        return nextState;
+    }
+
+    /**
+     * Returns the count of distinct non empty words.
+     *
+     * @return word count
+     */
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Returns the count of keys of the entries, see {@link #getKey(String)}.
+     *
+     * @return highest key + 1
+     */
+    public int getKeyCount() {
+        return patterns == null
+               ? getNodeCount()
+               : getNodeCount() + patterns.getPatternCount();
+    }
+
+    /**
+     * Returns the key of an entry, the key of its matches.
+     *
+     * @param  entry entry as returned by {@link #getEntries()} or a word
+     *               converted into one by
+     *               {@link #WordMatcher(java.util.Collection)}
+     * @return       key or {@link Spans#NO_KEY}, if the entry isn't an entry
+     *               of this matcher
+     */
+    public int getKey(String entry) {
+        if (entry == null) {
+            throw new NullPointerException("entry == null");
+        }
+
+        if (PatternAutomaton.isPattern(entry)) {
+            String pattern = PatternAutomaton.getPattern(entry);
+
+            for (int i = 0; patterns != null && i < patterns.getPatternCount(); i++) {
+                if (patterns.getPattern(i).equals(pattern)) {
+                    return getNodeCount() + i;
+                }
+            }
+
+            return Spans.NO_KEY;
+        }
+
+        String word = toPhrase(entry);
+        int state = ROOT_STATE;
+
+        for (int i = 0; i < word.length() && state != NO_STATE; i++) {
+            state = next(state, word.charAt(i));
+        }
+
+        return state == NO_STATE || state == ROOT_STATE || !isWord(state)
+               ? Spans.NO_KEY
+               : state;
+    }
+
+    /**
+     * Returns the entry of a key.
+     *
+     * @param  key key, see {@link #getKey(String)}
+     * @return     entry as returned by {@link #getEntries()} or null, if no
+     *             entry has that key
+     */
+    public String getEntry(int key) {
+        int nodeCount = getNodeCount();
+
+        if (key >= nodeCount) {
+            return patterns != null && key - nodeCount < patterns.getPatternCount()
+                   ? "/" + patterns.getPattern(key - nodeCount) + "/"
+                   : null;
+        }
+
+        if (key <= ROOT_STATE || !isWord(key)) {
+            return null;
+        }
+
+        StringBuilder entry = new StringBuilder();
+
+        // The nodes have been added breadth first together with their edges,
+        // hence the edge targets and first edges are ascending
+        for (int node = key; node != ROOT_STATE; ) {
+            int edge = getEdgeIndex(node);
+
+            entry.append(getEdgeChar(edge));
+            node = getSourceNode(edge, node);
+        }
+
+        return entry.reverse().toString();
+    }
+
+    /**
+     * Returns the index of the edge to a node other than the root.
+     */
+    private int getEdgeIndex(int node) {
+        int low = 0;
+        int high = getFirstEdge(getNodeCount()) - 1;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (getEdgeTarget(mid) < node) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the node of an edge, a node before the edge's target.
+     */
+    private int getSourceNode(int edge, int target) {
+        int low = ROOT_STATE;
+        int high = target - 1;
+
+        // The last node whose first edge is at or before the edge
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (getFirstEdge(mid) <= edge) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the words of this matcher as they have been added to the trie,
+     * that is converted into phrases, see
+     * {@link #WordMatcher(java.util.Collection)}, and the patterns between
+     * slashes. A matcher created from the returned words matches the same
+     * words.
+     *
+     * @return words
+     */
+    public PackedWords getEntries() {
+        int nodeCount = getNodeCount();
+        int[] parents = new int[nodeCount];
+        char[] chars = new char[nodeCount];
+        PackedWords entries = new PackedWords(wordCount);
+        StringBuilder entry = new StringBuilder();
+
+        parents[ROOT_STATE] = NO_STATE;
+
+        for (int node = 0; node < nodeCount; node++) {
+            int edgeEnd = getFirstEdge(node + 1);
+
+            for (int edge = getFirstEdge(node); edge < edgeEnd; edge++) {
+                int target = getEdgeTarget(edge);
+
+                parents[target] = node;
+                chars[target] = getEdgeChar(edge);
+            }
+        }
+
+        for (int node = 0; node < nodeCount; node++) {
+            if (node != ROOT_STATE && isWord(node)) {
+                entry.setLength(0);
+
+                for (int n = node; n != ROOT_STATE; n = parents[n]) {
+                    entry.append(chars[n]);
+                }
+
+                entries.add(entry.reverse());
+            }
+        }
+
+        for (int i = 0; patterns != null && i < patterns.getPatternCount(); i++) {
+            entries.add("/" + patterns.getPattern(i) + "/");
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns the keys of the entries, see {@link #getKey(String)}.
+     *
+     * @return key of each entry by its index in {@link #getEntries()}, in
+     *         ascending order
+     */
+    public int[] getEntryKeys() {
+        int nodeCount = getNodeCount();
+        int patternCount = patterns == null
+                           ? 0
+                           : patterns.getPatternCount();
+        int[] keys = new int[nodeCount + patternCount];
+        int index = 0;
+
+        for (int node = 0; node < nodeCount; node++) {
+            if (node != ROOT_STATE && isWord(node)) {
+                keys[index++] = node;
+            }
+        }
+
+        for (int i = 0; i < patternCount; i++) {
+            keys[index++] = nodeCount + i;
+        }
+
+        return Arrays.copyOf(keys, index);
+    }
+
+    /**
+     * Returns a matcher of the converted entries of this matcher, e.g. of
+     * the stemmed entries. The entries keep their wordbook indices, patterns
+     * are not converted.
+     *
+     * @param  converter converter of the words
+     * @return           matcher
+     */
+    WordMatcher convert(TextConverter converter) {
+        PackedWords entries = getEntries();
+        int[] keys = getEntryKeys();
+        int nodeCount = getNodeCount();
+        List<PackedWords> wordbooks = new ArrayList<PackedWords>();
+
+        for (int i = 0; i < keys.length; i++) {
+            String entry = entries.get(i);
+            int wordbookIndex = keys[i] < nodeCount
+                                ? getWordbookIndex(keys[i])
+                                : patterns.getWordbookIndex(keys[i] - nodeCount);
+
+            while (wordbooks.size() <= wordbookIndex) {
+                wordbooks.add(new PackedWords());
+            }
+
+            wordbooks.get(wordbookIndex).add(PatternAutomaton.isPattern(entry)
+                                             ? entry
+                                             : converter.convert(entry));
+        }
+
+        if (wordbooks.size() <= 1) {
+            return new WordMatcher(wordbooks.isEmpty()
+                                   ? new PackedWords()
+                                   : wordbooks.get(0));
+        }
+
+        List<WordMatcher> matchers = new ArrayList<WordMatcher>(wordbooks.size());
+
+        for (PackedWords words : wordbooks) {
+            matchers.add(new WordMatcher(words));
+        }
+
+        return merge(matchers);
+    }
+
+    /**
+     * Returns the words of either matcher but not of both, e.g. to update
+     * the highlights of changed words only, see
+     * {@link TextHighlighter#updateHighlightWords(WordMatcher, WordMatcher)}.
+     *
+     * @param  oldMatcher matcher
+     * @param  newMatcher matcher
+     * @return            added and removed words, see {@link #getEntries()}
+     */
+    public static PackedWords getChangedEntries(WordMatcher oldMatcher, WordMatcher newMatcher) {
+        if (oldMatcher == null) {
+            throw new NullPointerException("oldMatcher == null");
+        }
+
+        if (newMatcher == null) {
+            throw new NullPointerException("newMatcher == null");
+        }
+
+        PackedWords oldEntries = oldMatcher.getEntries();
+        PackedWords newEntries = newMatcher.getEntries();
+        PackedWords changedEntries = new PackedWords();
+
+        addMissing(oldEntries, newEntries, changedEntries);
+        addMissing(newEntries, oldEntries, changedEntries);
+
+        return changedEntries;
+    }
+
+    private static void addMissing(PackedWords entries, PackedWords otherEntries, PackedWords missingEntries) {
+        char[] chars = entries.getChars();
+        CharBuffer entry = CharBuffer.wrap(chars);
+
+        for (int index = 0; index < entries.size(); index++) {
+            entry.limit(entries.getStart(index + 1)).position(entries.getStart(index));
+
+            if (!otherEntries.contains(entry)) {
+                missingEntries.add(entry);
+            }
+        }
+    }
+
+    IntBuffer getFirstEdges() {
+        return firstEdgesBuffer.duplicate();
+    }
+
+    CharBuffer getEdgeChars() {
+        return edgeCharsBuffer.duplicate();
+    }
+
+    IntBuffer getEdgeTargets() {
+        return edgeTargetsBuffer.duplicate();
+    }
+
+    ByteBuffer getWords() {
+        return wordsBuffer.duplicate();
+    }
+
+    /**
+     * Failure links turning the trie into an automaton over the words of the
+     * text, so that phrases are matched in one pass without looking ahead.
+     * The pattern automaton is run in the same pass.
+     * <p>
+     * The failure state of a node is the longest suffix of its characters
+     * starting after a {@link #PHRASE_SEPARATOR} being a node too, e.g. of
+     * <code>"a b c"</code> the node <code>"b c"</code>, else
+     * {@link #NO_STATE}. The output state is the nearest word on the failure
+     * path. The nodes are in breadth first order, hence the links are
+     * computed in node order.
+     */
+    private final class PhraseLinks {
+
+        private final int[] failStates;
+        private final int[] outputStates;
+        private final int[] wordCounts;
+        private final int maxWordCount;
+
+        private PhraseLinks() {
+            int nodeCount = getNodeCount();
+            int maxCount = 1;
+
+            failStates = new int[nodeCount];
+            outputStates = new int[nodeCount];
+            wordCounts = new int[nodeCount];
+            failStates[ROOT_STATE] = NO_STATE;
+            outputStates[ROOT_STATE] = NO_STATE;
+
+            for (int node = 0; node < nodeCount; node++) {
+                int edgeEnd = getFirstEdge(node + 1);
+
+                for (int edge = getFirstEdge(node); edge < edgeEnd; edge++) {
+                    char c = getEdgeChar(edge);
+                    int child = getEdgeTarget(edge);
+                    int failState = node == ROOT_STATE
+                                    ? NO_STATE
+                                    : nextLinked(failStates[node], c);
+
+                    if (failState == NO_STATE && c == PHRASE_SEPARATOR) {
+                        failState = ROOT_STATE;
+                    }
+
+                    failStates[child] = failState;
+                    outputStates[child] = failState == NO_STATE || isWord(failState)
+                                          ? failState
+                                          : outputStates[failState];
+                    wordCounts[child] = node == ROOT_STATE || c == PHRASE_SEPARATOR
+                                        ? wordCounts[node] + 1
+                                        : wordCounts[node];
+                    maxCount = Math.max(maxCount, wordCounts[child]);
+                }
+            }
+
+            maxWordCount = maxCount;
+        }
+
+        private PhraseLinks(PhraseLinks links) {
+            failStates = links.failStates;
+            outputStates = links.outputStates;
+            wordCounts = links.wordCounts;
+            maxWordCount = links.maxWordCount;
+        }
+
+        /**
+         * Returns the state after consuming a character following failure
+         * links or {@link #NO_STATE}.
+         */
+        private int nextLinked(int state, char c) {
+            int s = state;
+
+            while (s != NO_STATE) {
+                int nextState = next(s, c);
+
+                if (nextState != NO_STATE) {
+                    return nextState;
+                }
+
+                s = failStates[s];
+            }
+
+            return NO_STATE;
+        }
+
+        private int nextLinkedFolded(int state, char c) {
+            char[] expansion = CaseFolding.getExpansion(c);
+
+            if (expansion == null) {
+                return nextLinked(state, CaseFolding.fold(c));
+            }
+
+            int nextState = state;
+
+            for (int i = 0; i < expansion.length && nextState != NO_STATE; i++) {
+                nextState = nextLinked(nextState, expansion[i]);
+            }
+
+            return nextState;
+        }
+
+        private void match(char[] text, int start, int end, boolean ignoreCase, int offset, Spans matches) {
+            PatternAutomaton automaton = getPatterns(ignoreCase);
+            // Text indices of the starts of the last words of the text
+            int[] wordStarts = new int[automaton == null
+                                       ? maxWordCount
+                                       : Math.max(maxWordCount, PatternAutomaton.MAX_WORDS)];
+            int textWordCount = 0;
+            int nodeCount = getNodeCount();
+            int state = ROOT_STATE;
+            int patternState = PatternAutomaton.INITIAL_STATE;
+            boolean separated = true;
+            int unsortedIndex = matches.size();
+
+            for (int i = start; i < end; i++) {
+                char c = text[i];
+                boolean letter = Character.isLetterOrDigit(c);
+
+                if (!letter) {
+                    if (state == NO_STATE || isLineBreak(c)) {
+                        state = ROOT_STATE;
+                    } else if (!separated) {
+                        state = nextLinked(state, PHRASE_SEPARATOR);
+                    }
+
+                    if (state == NO_STATE) {
+                        state = ROOT_STATE;
+                    }
+
+                    separated = true;
+                } else {
+                    if (separated) {
+                        wordStarts[textWordCount++ % wordStarts.length] = i;
+                        separated = false;
+                    }
+
+                    // If no phrase continues with the characters consumed so
+                    // far, skipping the rest of the current word
+                    if (state != NO_STATE) {
+                        state = ignoreCase
+                                ? nextLinkedFolded(state, c)
+                                : nextLinked(state, c);
+
+                        int output = state == NO_STATE || isWord(state)
+                                     ? state
+                                     : outputStates[state];
+
+                        while (output != NO_STATE) {
+                            int wordStart = wordStarts[(textWordCount - wordCounts[output]) % wordStarts.length];
+
+                            matches.add(wordStart + offset, i + 1 + offset, getWordbookIndex(output), output);
+                            output = outputStates[output];
+                        }
+                    }
+                }
+
+                if (automaton != null) {
+                    patternState = automaton.next(patternState, c);
+
+                    // Patterns don't end within a word of the text
+                    if (automaton.isAccepting(patternState)
+                            && (!letter || i + 1 == end || !Character.isLetterOrDigit(text[i + 1]))) {
+                        automaton.addMatches(patternState, wordStarts, textWordCount, i + 1, offset, nodeCount,
+                                             matches);
+                    }
+                }
+
+                // Words found later start behind the words found so far
+                if ((state == ROOT_STATE || state == NO_STATE)
+                        && (automaton == null || automaton.isIdle(patternState))) {
+                    if (matches.size() - unsortedIndex > 1) {
+                        matches.sort(unsortedIndex, matches.size());
+                    }
+
+                    unsortedIndex = matches.size();
+                }
+            }
+
+            matches.sort(unsortedIndex, matches.size());
+        }
+    }
+
+    /**
+     * Growable arrays of a trie, nodes and edges are added breadth first.
+     */
+    private abstract static class TrieBuilder {
+
+        private int[] firstEdges = new int[16];
+        private char[] edgeChars = new char[16];
+        private int[] edgeTargets = new int[16];
+        private byte[] words = new byte[16];
+        private int nodeCount;
+        private int edgeCount;
+        private int wordCount;
+        private boolean phrases;
+
+        /**
+         * Adds a node and returns its index.
+         */
+        int addNode() {
+            if (nodeCount == words.length) {
+                growNodes(nodeCount * 2);
+            }
+
+            return nodeCount++;
+        }
+
+        /**
+         * Grows the arrays holding node values.
+         *
+         * @param capacity new capacity
+         */
+        void growNodes(int capacity) {
+            firstEdges = Arrays.copyOf(firstEdges, capacity);
+            words = Arrays.copyOf(words, capacity);
+        }
+
+        /**
+         * Starts the edges of a node, all edges of the previous node have to
+         * be added before.
+         */
+        void startEdges(int node) {
+            firstEdges[node] = edgeCount;
+        }
+
+        void addEdge(char c, int target) {
+            if (edgeCount == edgeChars.length) {
+                int capacity = edgeCount * 2;
+
+                edgeChars = Arrays.copyOf(edgeChars, capacity);
+                edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+            }
+
+            edgeChars[edgeCount] = c;
+            edgeTargets[edgeCount] = target;
+            edgeCount++;
+            phrases |= c == PHRASE_SEPARATOR;
+        }
+
+        /**
+         * Sets the wordbook of a node ending a word.
+         *
+         * @param node          node
+         * @param wordbookIndex index of the wordbook
+         */
+        void setWord(int node, int wordbookIndex) {
+            if (words[node] == 0) {
+                wordCount++;
+            }
+
+            words[node] = (byte) (wordbookIndex + 1);
+        }
+
+        boolean isWord(int node) {
+            return words[node] != 0;
+        }
+
+        void trim() {
+            firstEdges = Arrays.copyOf(firstEdges, nodeCount + 1);
+            firstEdges[nodeCount] = edgeCount;
+            edgeChars = Arrays.copyOf(edgeChars, edgeCount);
+            edgeTargets = Arrays.copyOf(edgeTargets, edgeCount);
+            words = Arrays.copyOf(words, nodeCount);
+        }
+    }
+
+    /**
+     * Builds the trie breadth first from lexicographically sorted words. Each
+     * node is a range of words sharing a prefix with the node's depth.
+     */
+    private static final class Builder extends TrieBuilder {
+
+        private final PackedWords words;
+        private final char[] chars;
+        private final int[] sorted;
+        private int[] rangeStarts = new int[16];
+        private int[] rangeEnds = new int[16];
+        private int[] depths = new int[16];
+
+        private Builder(PackedWords words) {
+            this.words = words;
+            chars = words.getChars();
+            sorted = words.getSortedIndices();
+            addNode(0, sorted.length, 0);
+
+            for (int node = 0; node < super.nodeCount; node++) {
+                addEdges(node);
+            }
+
+            trim();
+            rangeStarts = null;
+            rangeEnds = null;
+            depths = null;
+        }
+
+        private void addEdges(int node) {
+            int end = rangeEnds[node];
+            int depth = depths[node];
+            int i = rangeStarts[node];
+
+            startEdges(node);
+
+            // Sorting puts a word in front of all words it is a prefix of,
+            // duplicates are adjacent
+            while (i < end && getLength(i) == depth) {
+                if (depth > 0 && !isWord(node)) {
+                    setWord(node, 0);
+                }
+                i++;
+            }
+
+            while (i < end) {
+                char c = getChar(i, depth);
+                int j = i + 1;
+
+                while (j < end && getChar(j, depth) == c) {
+                    j++;
+                }
+
+                addEdge(c, addNode(i, j, depth + 1));
+                i = j;
+            }
+        }
+
+        private int getLength(int sortedIndex) {
+            int index = sorted[sortedIndex];
+
+            return words.getStart(index + 1) - words.getStart(index);
+        }
+
+        private char getChar(int sortedIndex, int charIndex) {
+            return chars[words.getStart(sorted[sortedIndex]) + charIndex];
+        }
+
+        private int addNode(int rangeStart, int rangeEnd, int depth) {
+            int node = addNode();
+
+            rangeStarts[node] = rangeStart;
+            rangeEnds[node] = rangeEnd;
+            depths[node] = depth;
+
+            return node;
+        }
+
+        @Override
+        void growNodes(int capacity) {
+            super.growNodes(capacity);
+            rangeStarts = Arrays.copyOf(rangeStarts, capacity);
+            rangeEnds = Arrays.copyOf(rangeEnds, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+        }
+    }
+
+    /**
+     * Builds the union of tries breadth first. Each node is a tuple of the
+     * states of the merged matchers reached by the node's prefix.
+     */
+    private static final class Merger extends TrieBuilder {
+
+        private final WordMatcher[] matchers;
+        private final int[] edgeIndices;
+        private final int[] edgeEnds;
+        private int[] states;
+
+        private Merger(WordMatcher[] matchers) {
+            this.matchers = matchers;
+            edgeIndices = new int[matchers.length];
+            edgeEnds = new int[matchers.length];
+            states = new int[16 * matchers.length];
+
+            int root = addNode();
+
+            Arrays.fill(states, 0, matchers.length, ROOT_STATE);
+
+            for (int node = root; node < super.nodeCount; node++) {
+                addEdges(node);
+            }
+
+            trim();
+            states = null;
+        }
+
+        private void addEdges(int node) {
+            int count = matchers.length;
+            int tupleStart = node * count;
+
+            startEdges(node);
+
+            for (int m = 0; m < count; m++) {
+                int state = states[tupleStart + m];
+
+                if (state == NO_STATE) {
+                    edgeIndices[m] = 0;
+                    edgeEnds[m] = 0;
+                } else {
+                    if (node > 0 && !isWord(node) && matchers[m].isWord(state)) {
+                        setWord(node, m);
+                    }
+
+                    edgeIndices[m] = matchers[m].getFirstEdge(state);
+                    edgeEnds[m] = matchers[m].getFirstEdge(state + 1);
+                }
+            }
+
+            // Merging the sorted edges of all states
+            while (true) {
+                char c = Character.MAX_VALUE;
+                boolean hasEdge = false;
+
+                for (int m = 0; m < count; m++) {
+                    if (edgeIndices[m] < edgeEnds[m]) {
+                        char edgeChar = matchers[m].getEdgeChar(edgeIndices[m]);
+
+                        if (!hasEdge || edgeChar < c) {
+                            c = edgeChar;
+                            hasEdge = true;
+                        }
+                    }
+                }
+
+                if (!hasEdge) {
+                    return;
+                }
+
+                int target = addNode();
+                int targetTupleStart = target * count;
+
+                for (int m = 0; m < count; m++) {
+                    if (edgeIndices[m] < edgeEnds[m] && matchers[m].getEdgeChar(edgeIndices[m]) == c) {
+                        states[targetTupleStart + m] = matchers[m].getEdgeTarget(edgeIndices[m]);
+                        edgeIndices[m]++;
+                    } else {
+                        states[targetTupleStart + m] = NO_STATE;
+                    }
+                }
+
+                addEdge(c, target);
+            }
+        }
+
+        @Override
+        void growNodes(int capacity) {
+            super.growNodes(capacity);
+            states = Arrays.copyOf(states, capacity * matchers.length);
+        }
+    }
+}
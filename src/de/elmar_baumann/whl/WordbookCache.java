@@ -0,0 +1,277 @@
+package de.elmar_baumann.whl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of parsed and converted text wordbooks.
+ * <p>
+ * A text wordbook is cached as {@link CompiledWordbook} together with its
+ * path, size, modification time and CRC-32 checksum. As long as the text
+ * wordbook has the same size, modification time and checksum, its matcher
+ * will be memory-mapped from the cache instead of being parsed.
+ * <p>
+ * The checksum is computed of the whole file, but compared only if size and
+ * modification time are unchanged, so that the cache detects changes keeping
+ * the size and the modification time, e.g. copies preserving the timestamp
+ * or writes within the timestamp resolution of the file system. Reading the
+ * file once is still far cheaper than parsing it.
+ * <p>
+ * Compiled wordbooks are not cached, they will be read directly.
+ *
+ * @author Elmar Baumann
+ */
+public final class WordbookCache {
+
+    private static final int ENTRY_VERSION = 3;
+    private static final int CHECKSUM_BUFFER_SIZE = 1024 * 1024;
+    private static final WordbookCache DEFAULT = new WordbookCache(getDefaultDirectory());
+    private final File dir;
+
+    /**
+     * Creates a cache.
+     *
+     * @param dir cache directory, will be created on demand
+     */
+    public WordbookCache(File dir) {
+        if (dir == null) {
+            throw new NullPointerException("dir == null");
+        }
+
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the cache within the directory <code>.wordhighlighter/cache</code>
+     * of the user's home directory.
+     *
+     * @return cache
+     */
+    public static WordbookCache getDefault() {
+        return DEFAULT;
+    }
+
+    private static File getDefaultDirectory() {
+        return new File(new File(System.getProperty("user.home"), ".wordhighlighter"), "cache");
+    }
+
+    /**
+     * Reads the matcher of a wordbook like
+     * {@link CompiledWordbook#readMatcher(File, boolean)}, a text wordbook
+     * from the cache if it hasn't been changed since it has been cached.
+     *
+     * @param  wordbook   compiled wordbook or text wordbook
+     * @param  ignoreCase true, if the matcher will be used with ignored case
+     * @return            matcher
+     * @throws IOException if the wordbook couldn't be read
+     */
+    public WordMatcher readMatcher(File wordbook, boolean ignoreCase) throws IOException {
+        if (wordbook == null) {
+            throw new NullPointerException("wordbook == null");
+        }
+
+        if (CompiledWordbook.isCompiledWordbook(wordbook)) {
+            return CompiledWordbook.readMatcher(wordbook, ignoreCase);
+        }
+
+        String key = getKey(wordbook, ignoreCase);
+        File entryFile = new File(dir, key + ".entry");
+        File cachedFile = new File(dir, key + CompiledWordbook.FILENAME_SUFFIX);
+        Entry cachedEntry = Entry.read(entryFile);
+        Entry entry = null;
+
+        if (cachedEntry != null && cachedEntry.hasAttributesOf(wordbook) && cachedFile.isFile()) {
+            entry = Entry.create(wordbook);
+
+            if (entry.equals(cachedEntry)) {
+                try {
+                    return CompiledWordbook.read(cachedFile).getMatcher();
+                } catch (IOException ex) {
+                    Logger.getLogger(WordbookCache.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }
+
+        if (entry == null) {
+            entry = Entry.create(wordbook);
+        }
+
+        WordMatcher matcher = CompiledWordbook.readTextWordbook(wordbook, ignoreCase);
+
+        write(entry, entryFile, matcher, ignoreCase, cachedFile);
+
+        return matcher;
+    }
+
+    private static String getKey(File wordbook, boolean ignoreCase) throws IOException {
+        CRC32 crc = new CRC32();
+
+        crc.update(wordbook.getCanonicalPath().getBytes("UTF-8"));
+
+        return String.format("%08x%s", crc.getValue(), ignoreCase ? "-lc" : "");
+    }
+
+    private void write(Entry entry, File entryFile, WordMatcher matcher, boolean caseFolded, File cachedFile) {
+        File tmpFile = new File(dir, cachedFile.getName() + ".tmp");
+
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Can't create " + dir);
+            }
+
+            // The entry is invalid until both files have been written
+            entryFile.delete();
+            CompiledWordbook.write(matcher, caseFolded, tmpFile);
+
+            if (cachedFile.exists() && !cachedFile.delete()) {
+                throw new IOException("Can't delete " + cachedFile);
+            }
+
+            if (!tmpFile.renameTo(cachedFile)) {
+                throw new IOException("Can't rename " + tmpFile + " to " + cachedFile);
+            }
+
+            entry.write(entryFile);
+        } catch (IOException ex) {
+            tmpFile.delete();
+            Logger.getLogger(WordbookCache.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Identifies the content of a text wordbook.
+     */
+    private static final class Entry {
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final long checksum;
+
+        private Entry(String path, long size, long lastModified, long checksum) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+
+        private static Entry create(File file) throws IOException {
+            long lastModified = file.lastModified();
+            FileInputStream in = new FileInputStream(file);
+
+            try {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+
+                return new Entry(file.getCanonicalPath(), size, lastModified, getChecksum(channel, size));
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Returns the checksum of the whole file.
+         */
+        private static long getChecksum(FileChannel channel, long size) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(CHECKSUM_BUFFER_SIZE, Math.max(1, size)));
+            CRC32 crc = new CRC32();
+            long position = 0;
+
+            while (position < size) {
+                buffer.clear();
+
+                int count = channel.read(buffer, position);
+
+                if (count < 0) {
+                    break;    // Truncated meanwhile
+                }
+
+                crc.update(buffer.array(), 0, count);
+                position += count;
+            }
+
+            return crc.getValue();
+        }
+
+        /**
+         * Returns whether a file has this entry's path, size and modification
+         * time, so that its checksum is worth to be compared.
+         */
+        private boolean hasAttributesOf(File file) throws IOException {
+            return size == file.length() && lastModified == file.lastModified()
+                   && path.equals(file.getCanonicalPath());
+        }
+
+        /**
+         * Returns the entry written into a file or null, if the file doesn't
+         * exist or can't be read.
+         */
+        private static Entry read(File file) {
+            if (!file.isFile()) {
+                return null;
+            }
+
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+                try {
+                    if (in.readInt() != ENTRY_VERSION) {
+                        return null;
+                    }
+
+                    return new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(WordbookCache.class.getName()).log(Level.WARNING, null, ex);
+
+                return null;
+            }
+        }
+
+        private void write(File file) throws IOException {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+            try {
+                out.writeInt(ENTRY_VERSION);
+                out.writeUTF(path);
+                out.writeLong(size);
+                out.writeLong(lastModified);
+                out.writeLong(checksum);
+            } finally {
+                out.close();
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+
+            Entry other = (Entry) obj;
+
+            return path.equals(other.path) && size == other.size && lastModified == other.lastModified
+                   && checksum == other.checksum;
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() ^ (int) checksum;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package de.elmar_baumann.whl;
+
+import java.io.File;
+
+/**
+ * @author Elmar Baumann
+ */
+public interface WordbookChangeListener {
+
+    /**
+     * Called after a watched wordbook file has been changed, created or
+     * deleted, see {@link WordbookWatcher}. Called on the thread of the
+     * watcher.
+     *
+     * @param wordbook wordbook file
+     */
+    public void wordbookChanged(File wordbook);
+}
@@ -0,0 +1,172 @@
+package de.elmar_baumann.whl;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches wordbook files through a {@link WatchService} of their
+ * directories, e.g. to reload shared wordbooks edited by others.
+ * <p>
+ * Editors often write a file in several steps, e.g. truncating and writing
+ * or writing a temporary file and renaming it. The listeners are notified
+ * once after no further change of watched files has been reported for
+ * {@link #SETTLE_MILLISECONDS}.
+ *
+ * @author Elmar Baumann
+ */
+public final class WordbookWatcher {
+
+    private static final long SETTLE_MILLISECONDS = 500;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();
+    private final Set<Path> files = new HashSet<Path>();
+    private final Set<WordbookChangeListener> listeners = new CopyOnWriteArraySet<WordbookChangeListener>();
+
+    /**
+     * Creates a watcher and starts its daemon thread.
+     *
+     * @throws IOException if the file system can't be watched
+     */
+    public WordbookWatcher() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "WordHighlighter: Wordbook watcher");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void addWordbookChangeListener(WordbookChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeWordbookChangeListener(WordbookChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the watched wordbooks, replacing the previously watched.
+     *
+     * @param wordbooks wordbook files
+     */
+    public synchronized void setWordbooks(Collection<File> wordbooks) {
+        if (wordbooks == null) {
+            throw new NullPointerException("wordbooks == null");
+        }
+
+        for (WatchKey key : dirs.keySet()) {
+            key.cancel();
+        }
+
+        dirs.clear();
+        files.clear();
+
+        Set<Path> watchedDirs = new HashSet<Path>();
+
+        for (File wordbook : wordbooks) {
+            Path file = wordbook.getAbsoluteFile().toPath();
+            Path dir = file.getParent();
+
+            files.add(file);
+
+            if (dir != null && watchedDirs.add(dir)) {
+                try {
+                    dirs.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                          StandardWatchEventKinds.ENTRY_MODIFY,
+                                          StandardWatchEventKinds.ENTRY_DELETE), dir);
+                } catch (IOException ex) {
+                    Logger.getLogger(WordbookWatcher.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops watching, the watcher can't be used afterwards.
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            Logger.getLogger(WordbookWatcher.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                Set<Path> changedFiles = new LinkedHashSet<Path>();
+                WatchKey key = watchService.take();
+
+                // Collecting until the files have settled
+                while (key != null) {
+                    addChangedFiles(key, changedFiles);
+                    key = watchService.poll(SETTLE_MILLISECONDS, TimeUnit.MILLISECONDS);
+                }
+
+                for (Path file : changedFiles) {
+                    notifyChanged(file.toFile());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ex) {
+            // Closed by close()
+        }
+    }
+
+    private synchronized void addChangedFiles(WatchKey key, Set<Path> changedFiles) {
+        Path dir = dirs.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+
+            if (dir != null && event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                for (Path file : files) {
+                    if (dir.equals(file.getParent())) {
+                        changedFiles.add(file);
+                    }
+                }
+            } else if (dir != null && context instanceof Path) {
+                Path file = dir.resolve((Path) context);
+
+                if (files.contains(file)) {
+                    changedFiles.add(file);
+                }
+            }
+        }
+
+        key.reset();
+    }
+
+    private void notifyChanged(File wordbook) {
+        for (WordbookChangeListener listener : listeners) {
+            listener.wordbookChanged(wordbook);
+        }
+    }
+}
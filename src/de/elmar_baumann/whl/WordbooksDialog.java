@@ -0,0 +1,287 @@
+package de.elmar_baumann.whl;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.GridLayout;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.text.MessageFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JColorChooser;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+/**
+ * Modal dialog for editing the highlighted wordbooks: adding, removing,
+ * coloring and ordering them by priority.
+ *
+ * @author Elmar Baumann
+ */
+public final class WordbooksDialog extends JDialog {
+
+    private static final long serialVersionUID = 1L;
+    private static final ResourceBundle BUNDLE = ResourceBundle.getBundle("de/elmar_baumann/whl/Bundle");
+    private final DefaultListModel<ColoredWordbook> model = new DefaultListModel<ColoredWordbook>();
+    private final JList<ColoredWordbook> list = new JList<ColoredWordbook>(model);
+    private final JButton buttonAdd = new JButton(BUNDLE.getString("WordbooksDialog.buttonAdd.text"));
+    private final JButton buttonRemove = new JButton(BUNDLE.getString("WordbooksDialog.buttonRemove.text"));
+    private final JButton buttonColor = new JButton(BUNDLE.getString("WordbooksDialog.buttonColor.text"));
+    private final JButton buttonUp = new JButton(BUNDLE.getString("WordbooksDialog.buttonUp.text"));
+    private final JButton buttonDown = new JButton(BUNDLE.getString("WordbooksDialog.buttonDown.text"));
+    private final JButton buttonClose = new JButton(BUNDLE.getString("WordbooksDialog.buttonClose.text"));
+    private File dir;
+    private boolean changed;
+
+    /**
+     * Creates the dialog.
+     *
+     * @param owner     owner or null
+     * @param wordbooks wordbooks ordered by descending priority
+     * @param dir       directory for selecting wordbooks
+     */
+    public WordbooksDialog(Window owner, List<ColoredWordbook> wordbooks, File dir) {
+        super(owner, BUNDLE.getString("WordbooksDialog.Title"), ModalityType.APPLICATION_MODAL);
+
+        if (wordbooks == null) {
+            throw new NullPointerException("wordbooks == null");
+        }
+
+        if (dir == null) {
+            throw new NullPointerException("dir == null");
+        }
+
+        this.dir = dir;
+
+        for (ColoredWordbook wordbook : wordbooks) {
+            model.addElement(wordbook);
+        }
+
+        initComponents();
+        setButtonsEnabled();
+        pack();
+        setLocationRelativeTo(owner);
+    }
+
+    private void initComponents() {
+        JPanel buttonPanel = new JPanel(new GridLayout(0, 1, 0, 5));
+        JPanel buttonPanelContainer = new JPanel(new BorderLayout());
+        JPanel contentPanel = new JPanel(new BorderLayout(5, 5));
+        JScrollPane scrollPane = new JScrollPane(list);
+
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setVisibleRowCount(8);
+        list.setCellRenderer(new WordbookRenderer());
+        list.addListSelectionListener(new ListSelectionListener() {
+
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                setButtonsEnabled();
+            }
+        });
+
+        buttonPanel.add(buttonAdd);
+        buttonPanel.add(buttonRemove);
+        buttonPanel.add(buttonColor);
+        buttonPanel.add(buttonUp);
+        buttonPanel.add(buttonDown);
+        buttonPanelContainer.add(buttonPanel, BorderLayout.NORTH);
+        buttonPanelContainer.add(buttonClose, BorderLayout.SOUTH);
+        contentPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        contentPanel.add(scrollPane, BorderLayout.CENTER);
+        contentPanel.add(buttonPanelContainer, BorderLayout.EAST);
+        contentPanel.add(new JLabel(BUNDLE.getString("WordbooksDialog.labelPriority.text")), BorderLayout.SOUTH);
+        setContentPane(contentPanel);
+        getRootPane().setDefaultButton(buttonClose);
+
+        ActionListener buttonListener = new ButtonListener();
+
+        buttonAdd.addActionListener(buttonListener);
+        buttonRemove.addActionListener(buttonListener);
+        buttonColor.addActionListener(buttonListener);
+        buttonUp.addActionListener(buttonListener);
+        buttonDown.addActionListener(buttonListener);
+        buttonClose.addActionListener(buttonListener);
+    }
+
+    /**
+     * Returns the edited wordbooks.
+     *
+     * @return wordbooks ordered by descending priority
+     */
+    public List<ColoredWordbook> getWordbooks() {
+        List<ColoredWordbook> wordbooks = new ArrayList<ColoredWordbook>(model.size());
+
+        for (int i = 0; i < model.size(); i++) {
+            wordbooks.add(model.get(i));
+        }
+
+        return wordbooks;
+    }
+
+    /**
+     * Returns the directory of the last added wordbook.
+     *
+     * @return directory
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Returns whether the wordbooks have been changed.
+     *
+     * @return true if changed
+     */
+    public boolean isChanged() {
+        return changed;
+    }
+
+    private void setButtonsEnabled() {
+        int index = list.getSelectedIndex();
+
+        buttonAdd.setEnabled(model.size() < WordMatcher.MAX_WORDBOOK_COUNT);
+        buttonRemove.setEnabled(index >= 0);
+        buttonColor.setEnabled(index >= 0);
+        buttonUp.setEnabled(index > 0);
+        buttonDown.setEnabled(index >= 0 && index < model.size() - 1);
+    }
+
+    private void addWordbooks() {
+        JFileChooser fc = new JFileChooser(dir);
+
+        fc.setMultiSelectionEnabled(true);
+        fc.setDialogTitle(BUNDLE.getString("SelectTextfile.Title.Encoding"));
+
+        if (fc.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        for (File file : fc.getSelectedFiles()) {
+            if (model.size() >= WordMatcher.MAX_WORDBOOK_COUNT) {
+                break;
+            }
+
+            try {
+                WordMatcher matcher = WordbookCache.getDefault().readMatcher(file, true);
+
+                model.addElement(new ColoredWordbook(file, ColoredWordbook.getDefaultColor(model.size()), matcher));
+                dir = file.getParentFile();
+                changed = true;
+            } catch (IOException ex) {
+                Logger.getLogger(WordbooksDialog.class.getName()).log(Level.SEVERE, null, ex);
+                Messages.errorMessage("WordHighlighterPanel.Error.ReadWordbook");
+            }
+        }
+
+        list.setSelectedIndex(model.size() - 1);
+        setButtonsEnabled();
+    }
+
+    private void removeWordbook() {
+        int index = list.getSelectedIndex();
+
+        if (index >= 0) {
+            model.remove(index);
+            changed = true;
+            list.setSelectedIndex(Math.min(index, model.size() - 1));
+            setButtonsEnabled();
+        }
+    }
+
+    private void chooseColor() {
+        int index = list.getSelectedIndex();
+
+        if (index < 0) {
+            return;
+        }
+
+        ColoredWordbook wordbook = model.get(index);
+        String title = MessageFormat.format(BUNDLE.getString("WordbooksDialog.ColorChooser.Title"),
+                                            wordbook.getFile().getName());
+        Color color = JColorChooser.showDialog(this, title, wordbook.getColor());
+
+        if (color != null) {
+            model.set(index, wordbook.withColor(color));
+            changed = true;
+        }
+    }
+
+    private void moveWordbook(int delta) {
+        int index = list.getSelectedIndex();
+        int newIndex = index + delta;
+
+        if (index >= 0 && newIndex >= 0 && newIndex < model.size()) {
+            ColoredWordbook wordbook = model.remove(index);
+
+            model.add(newIndex, wordbook);
+            list.setSelectedIndex(newIndex);
+            changed = true;
+            setButtonsEnabled();
+        }
+    }
+
+    private class ButtonListener implements ActionListener {
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            Object source = e.getSource();
+
+            if (source == buttonAdd) {
+                addWordbooks();
+            } else if (source == buttonRemove) {
+                removeWordbook();
+            } else if (source == buttonColor) {
+                chooseColor();
+            } else if (source == buttonUp) {
+                moveWordbook(-1);
+            } else if (source == buttonDown) {
+                moveWordbook(1);
+            } else if (source == buttonClose) {
+                dispose();
+            }
+        }
+    }
+
+    /**
+     * Renders a wordbook with its color as background.
+     */
+    private static class WordbookRenderer extends DefaultListCellRenderer {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+
+            if (!isSelected && value instanceof ColoredWordbook) {
+                setBackground(((ColoredWordbook) value).getColor());
+            }
+
+            return this;
+        }
+    }
+}